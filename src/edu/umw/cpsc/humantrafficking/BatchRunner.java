@@ -0,0 +1,315 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * A command-line and embeddable entry point for running the simulation
+ * "headless" up to a fixed year. Unlike {@link HumanTrafficking#main},
+ * a BatchRunner never calls <code>System.exit()</code>, reads its scenario
+ * from any path, and writes its statistics to any directory, so that a
+ * single JVM can perform many runs one after another (or several at once,
+ * on different threads).
+ * <p>
+ * From the command line:
+ * <pre>
+ *   java edu.umw.cpsc.humantrafficking.BatchRunner [-scenario file]
+ *       [-until year] [-seed n] [-output dir] [-steps n]
+ *       [-store heap|offheap|file:path] [-frames port]
+ *       [-record file] [-db jdbc-url] [-params name=value,...]
+ *       [-trace rate] [-crn] [-victimthreads n] [-quiet]
+ * </pre>
+ * (See {@link Parameters} for the names of the model's parameters.) With
+ * <code>-crn</code>, the run uses common random numbers (see {@link
+ * HumanTrafficking#setCommonRandomNumbers}), so that runs with the same
+ * seed and different parameters can be compared pairwise.
+ * From Java:
+ * <pre>
+ *   HumanTrafficking sim =
+ *       new BatchRunner("routes.txt", 2030, 42, "out42", false).run();
+ * </pre>
+ */
+public class BatchRunner {
+
+    /**
+     * The year through which simulations run, if no horizon is given.
+     */
+    public static final int DEFAULT_HORIZON_YEAR =
+        HumanTrafficking.FIRST_YEAR + 10;
+
+    private String scenarioFile;
+    private int horizonYear;
+    private long seed;
+    private String outputDirectory;
+    private boolean verbose;
+    private int stepsPerYear = 1;
+    private String victimStorage = "heap";
+    private int framePort = -1;
+    private String recordFile;
+    private String databaseUrl;
+    private boolean commonRandomNumbers;
+    private int victimThreads = 1;
+    private Parameters parameters = Parameters.DEFAULTS;
+    private double traceRate = 0;
+    private YearListener yearListener;
+
+    /**
+     * Told of a run's progress (see {@link #setYearListener}).
+     */
+    public interface YearListener {
+        /**
+         * Called, on the running thread, each time the simulation passed
+         * has finished the year passed.
+         */
+        void yearEnded(HumanTrafficking sim, int year);
+    }
+
+    /**
+     * Create a BatchRunner that runs one simulation.
+     * @param scenarioFile the path of the scenario (route) file.
+     * @param horizonYear the last year to be simulated. The run ends as
+     * soon as this year's statistics have been written and the year has
+     * rolled over.
+     * @param seed the random number seed.
+     * @param outputDirectory the directory into which statistical files
+     * will be written. (Its existing contents will be deleted.)
+     * @param verbose whether to print progress messages to standard out.
+     */
+    public BatchRunner(String scenarioFile, int horizonYear, long seed,
+        String outputDirectory, boolean verbose) {
+
+        this.scenarioFile = scenarioFile;
+        this.horizonYear = horizonYear;
+        this.seed = seed;
+        this.outputDirectory = outputDirectory;
+        this.verbose = verbose;
+    }
+
+    /**
+     * Set the number of timesteps per year (<i>e.g.</i>, 12 for monthly
+     * resolution). Defaults to 1.
+     */
+    public void setStepsPerYear(int stepsPerYear) {
+        this.stepsPerYear = stepsPerYear;
+    }
+
+    /**
+     * Choose where victim records are stored (see {@link
+     * VictimStore#create}). Defaults to "heap".
+     */
+    public void setVictimStorage(String victimStorage) {
+        this.victimStorage = victimStorage;
+    }
+
+    /**
+     * Publish a frame every timestep to viewers on the local port passed
+     * (see {@link HumanTrafficking#setFramePort}). Defaults to -1 (none).
+     */
+    public void setFramePort(int framePort) {
+        this.framePort = framePort;
+    }
+
+    /**
+     * Record a frame every timestep into the file at the path passed (see
+     * {@link HumanTrafficking#setRecordFile}). Defaults to null (none).
+     */
+    public void setRecordFile(String recordFile) {
+        this.recordFile = recordFile;
+    }
+
+    /**
+     * Write statistics into the database at the JDBC URL passed (see
+     * {@link HumanTrafficking#setDatabaseUrl}). Defaults to null (none).
+     */
+    public void setDatabaseUrl(String databaseUrl) {
+        this.databaseUrl = databaseUrl;
+    }
+
+    /**
+     * Choose whether to run with common random numbers (see {@link
+     * HumanTrafficking#setCommonRandomNumbers}). Defaults to false.
+     */
+    public void setCommonRandomNumbers(boolean commonRandomNumbers) {
+        this.commonRandomNumbers = commonRandomNumbers;
+    }
+
+    /**
+     * Set the number of threads on which victims are run (see {@link
+     * HumanTrafficking#setVictimThreads}). Defaults to 1.
+     */
+    public void setVictimThreads(int victimThreads) {
+        this.victimThreads = victimThreads;
+    }
+
+    /**
+     * Set the model's parameters. Defaults to {@link Parameters#DEFAULTS}.
+     */
+    public void setParameters(Parameters parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * Trace the trajectories of the fraction passed of victims (see {@link
+     * HumanTrafficking#setTraceRate}). Defaults to 0 (none).
+     */
+    public void setTraceRate(double traceRate) {
+        this.traceRate = traceRate;
+    }
+
+    /**
+     * Tell the listener passed each time a year of the run ends. Defaults
+     * to null (none).
+     */
+    public void setYearListener(YearListener yearListener) {
+        this.yearListener = yearListener;
+    }
+
+    /**
+     * Perform the run, on the calling thread, and return the finished
+     * simulation so that its final state can be inspected.
+     * @throws java.io.UncheckedIOException if the scenario file cannot be
+     * read or the statistics cannot be written.
+     */
+    public HumanTrafficking run() {
+        HumanTrafficking sim = HumanTrafficking.newBoundInstance(seed);
+        try {
+            sim.setScenarioFile(scenarioFile);
+            sim.setOutputDirectory(outputDirectory);
+            sim.setVerbose(verbose);
+            sim.setStepsPerYear(stepsPerYear);
+            sim.setVictimStorage(victimStorage);
+            sim.setFramePort(framePort);
+            sim.setRecordFile(recordFile);
+            sim.setDatabaseUrl(databaseUrl);
+            sim.setCommonRandomNumbers(commonRandomNumbers);
+            sim.setVictimThreads(victimThreads);
+            sim.setParameters(parameters);
+            sim.setTraceRate(traceRate);
+            sim.start();
+            int year = sim.getYear();
+            while (sim.getYear() <= horizonYear && sim.schedule.step(sim)) {
+                if (sim.getYear() != year && yearListener != null) {
+                    yearListener.yearEnded(sim, year);
+                }
+                year = sim.getYear();
+            }
+        } finally {
+            sim.finish();
+            HumanTrafficking.unbindInstance();
+        }
+        return sim;
+    }
+
+    /**
+     * Return the last year this runner simulates.
+     */
+    public int getHorizonYear() {
+        return horizonYear;
+    }
+
+    /**
+     * Return the random number seed this runner uses.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Parse the command-line arguments described above into a
+     * BatchRunner. Arguments not given take their defaults: the scenario
+     * <code>routes.txt</code>, the horizon {@link #DEFAULT_HORIZON_YEAR},
+     * seed 0, the output directory {@link StatsPrinter#OUTPUT_DIRECTORY},
+     * one timestep per year, victim records on the heap, no frames 
+     * published or recorded, no database, the default parameters, no
+     * victims traced, independent random numbers, one victim thread, and
+     * verbose output.
+     * @throws IllegalArgumentException if the arguments are malformed.
+     */
+    public static BatchRunner fromArgs(String[] args) {
+        String scenarioFile = "routes.txt";
+        int horizonYear = DEFAULT_HORIZON_YEAR;
+        long seed = 0;
+        String outputDirectory = StatsPrinter.OUTPUT_DIRECTORY;
+        boolean verbose = true;
+        int stepsPerYear = 1;
+        String victimStorage = "heap";
+        int framePort = -1;
+        String recordFile = null;
+        String databaseUrl = null;
+        boolean commonRandomNumbers = false;
+        int victimThreads = 1;
+        Parameters parameters = Parameters.DEFAULTS;
+        double traceRate = 0;
+
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-quiet")) {
+                verbose = false;
+                continue;
+            }
+            if (arg.equals("-crn")) {
+                commonRandomNumbers = true;
+                continue;
+            }
+            if (i+1 == args.length) {
+                throw new IllegalArgumentException(usage());
+            }
+            String value = args[++i];
+            try {
+                if (arg.equals("-scenario")) {
+                    scenarioFile = value;
+                } else if (arg.equals("-until")) {
+                    horizonYear = Integer.parseInt(value);
+                } else if (arg.equals("-seed")) {
+                    seed = Long.parseLong(value);
+                } else if (arg.equals("-output")) {
+                    outputDirectory = value;
+                } else if (arg.equals("-steps")) {
+                    stepsPerYear = Integer.parseInt(value);
+                } else if (arg.equals("-store")) {
+                    victimStorage = value;
+                } else if (arg.equals("-frames")) {
+                    framePort = Integer.parseInt(value);
+                } else if (arg.equals("-record")) {
+                    recordFile = value;
+                } else if (arg.equals("-db")) {
+                    databaseUrl = value;
+                } else if (arg.equals("-params")) {
+                    parameters = Parameters.parse(value);
+                } else if (arg.equals("-trace")) {
+                    traceRate = Double.parseDouble(value);
+                } else if (arg.equals("-victimthreads")) {
+                    victimThreads = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException(usage());
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(usage(), e);
+            }
+        }
+        BatchRunner runner = new BatchRunner(scenarioFile, horizonYear,
+            seed, outputDirectory, verbose);
+        runner.setStepsPerYear(stepsPerYear);
+        runner.setVictimStorage(victimStorage);
+        runner.setFramePort(framePort);
+        runner.setRecordFile(recordFile);
+        runner.setDatabaseUrl(databaseUrl);
+        runner.setCommonRandomNumbers(commonRandomNumbers);
+        runner.setVictimThreads(victimThreads);
+        runner.setParameters(parameters);
+        runner.setTraceRate(traceRate);
+        return runner;
+    }
+
+    private static String usage() {
+        return "Usage: BatchRunner [-scenario file] [-until year] " +
+            "[-seed n] [-output dir] [-steps n] " +
+            "[-store heap|offheap|file:path] [-frames port] " +
+            "[-record file] [-db jdbc-url] [-params name=value,...] " +
+            "[-trace rate] [-crn] [-victimthreads n] [-quiet]";
+    }
+
+    /**
+     * Run one simulation as directed by the command-line arguments.
+     */
+    public static void main(String[] args) {
+        fromArgs(args).run();
+    }
+}
@@ -0,0 +1,108 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * A snapshot of a whole simulation, taken between timesteps, from which
+ * any number of independent branches can be forked. The snapshot holds
+ * everything the simulation will need to continue: its locations and
+ * their populations, routes, victims and their {@link VictimStore}
+ * records, the schedule and its {@link Phase}s, and the state of the
+ * random number generators. It is taken once, by serializing the
+ * simulation to an array of bytes; each fork deserializes a fresh copy,
+ * so that the victim store's primitive arrays (or off-heap chunks) are
+ * copied in bulk rather than the warm-up being simulated again.
+ * <p>
+ * A branch continues exactly as the original would have, unless it is
+ * given other {@link Parameters} or a new seed. (The demand model's
+ * random stream, which is exogenous to the model, is never reseeded.)
+ * Distributed simulations cannot be forked.
+ */
+public class BranchPoint {
+
+    private byte[] state;
+    private int year;
+
+    /**
+     * Take a snapshot of the simulation passed, which must have been
+     * started and stepped to the end of a timestep.
+     * @throws IllegalArgumentException if the simulation is partitioned.
+     * @throws UncheckedIOException if some part of it cannot be
+     * serialized.
+     */
+    public BranchPoint(HumanTrafficking world) {
+        if (world.getExchange() != null) {
+            throw new IllegalArgumentException(
+                "A distributed simulation cannot be forked");
+        }
+        year = world.getYear();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(world);
+            out.close();
+            state = bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Return the year at which the snapshot was taken (the year the
+     * branches will simulate first).
+     */
+    public int getYear() {
+        return year;
+    }
+
+    /**
+     * Return the size of the snapshot, in bytes.
+     */
+    public int size() {
+        return state.length;
+    }
+
+    /**
+     * Fork a branch that continues the original's random number stream,
+     * and bind it to the calling thread (see {@link
+     * HumanTrafficking#bindInstance}).
+     * @param parameters the branch's model parameters.
+     * @param outputDirectory the directory into which the branch's
+     * statistics are written. (Its existing contents will be deleted.)
+     */
+    public HumanTrafficking fork(Parameters parameters,
+        String outputDirectory) {
+
+        HumanTrafficking sim;
+        try {
+            ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(state));
+            sim = (HumanTrafficking) in.readObject();
+            in.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        HumanTrafficking.bindInstance(sim);
+        sim.becomeBranch(parameters, outputDirectory);
+        return sim;
+    }
+
+    /**
+     * Fork a branch, as {@link #fork(Parameters, String)} does, but with
+     * its random number stream reseeded with the seed passed.
+     */
+    public HumanTrafficking fork(long seed, Parameters parameters,
+        String outputDirectory) {
+
+        HumanTrafficking sim = fork(parameters, outputDirectory);
+        sim.reseed(seed);
+        return sim;
+    }
+}
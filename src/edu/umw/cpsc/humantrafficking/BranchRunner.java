@@ -0,0 +1,323 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several scenario branches that share a common burn-in. The
+ * simulation is run once, with the warm-up parameters, through a warm-up
+ * year (writing its statistics to the <code>warmup</code> subdirectory of
+ * the output directory); a {@link BranchPoint} is taken; and each branch
+ * is forked from it and run on to the horizon, writing to its own
+ * subdirectory, <code>branch</code><i>k</i>. Each branch is given one set
+ * of parameters and a replicate number: replicate 0 continues the
+ * warm-up's random number stream (so that, with the warm-up parameters,
+ * it reproduces the unbranched run exactly), and replicate <i>r</i> &gt; 0
+ * is reseeded with the seed plus <i>r</i>. The branches are spread across
+ * a pool of worker threads. The file {@link #INDEX_FILE} in the output
+ * directory lists, tab-separated, each branch's number, replicate, and
+ * parameters.
+ * <p>
+ * From the command line:
+ * <pre>
+ *   java edu.umw.cpsc.humantrafficking.BranchRunner -warmup year
+ *       [-branch name=value,... ...] [-replicates n] [-threads n]
+ *       [-until year] [-seed n] [-scenario file] [-steps n]
+ *       [-store heap|offheap|file:path] [-params name=value,...]
+ *       [-output dir] [-quiet]
+ * </pre>
+ * Each <code>-branch</code> gives one branch's changes to the warm-up
+ * parameters (given by <code>-params</code>); with none, there is a single
+ * branch with the warm-up parameters.
+ */
+public class BranchRunner {
+
+    /**
+     * The name of the file, in the output directory, listing the
+     * branches.
+     */
+    public static final String INDEX_FILE = "branches.txt";
+
+    private String scenarioFile;
+    private int warmupYear;
+    private int horizonYear;
+    private String outputDirectory;
+    private long seed = 0;
+    private int stepsPerYear = 1;
+    private String victimStorage = "heap";
+    private Parameters warmupParameters = Parameters.DEFAULTS;
+    private ArrayList<Parameters> branches = new ArrayList<Parameters>();
+    private int replicates = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean verbose = true;
+
+    /**
+     * Create a BranchRunner.
+     * @param scenarioFile the path of the scenario (route) file.
+     * @param warmupYear the last year of the shared warm-up.
+     * @param horizonYear the last year each branch simulates.
+     * @param outputDirectory the directory into whose subdirectories
+     * statistics are written.
+     */
+    public BranchRunner(String scenarioFile, int warmupYear,
+        int horizonYear, String outputDirectory) {
+
+        this.scenarioFile = scenarioFile;
+        this.warmupYear = warmupYear;
+        this.horizonYear = horizonYear;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Set the random number seed of the warm-up. Defaults to 0.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Set the number of timesteps per year. Defaults to 1.
+     */
+    public void setStepsPerYear(int stepsPerYear) {
+        this.stepsPerYear = stepsPerYear;
+    }
+
+    /**
+     * Choose where victim records are stored (see {@link
+     * VictimStore#create}). Branches of a file-backed warm-up hold theirs
+     * in direct memory. Defaults to "heap".
+     */
+    public void setVictimStorage(String victimStorage) {
+        this.victimStorage = victimStorage;
+    }
+
+    /**
+     * Set the parameters of the warm-up. Defaults to {@link
+     * Parameters#DEFAULTS}.
+     */
+    public void setWarmupParameters(Parameters warmupParameters) {
+        this.warmupParameters = warmupParameters;
+    }
+
+    /**
+     * Return the parameters of the warm-up.
+     */
+    public Parameters getWarmupParameters() {
+        return warmupParameters;
+    }
+
+    /**
+     * Add a branch (or, with several replicates, a group of them) with the
+     * parameters passed.
+     */
+    public void addBranch(Parameters parameters) {
+        branches.add(parameters);
+    }
+
+    /**
+     * Set the number of replicates of each branch. Defaults to 1.
+     */
+    public void setReplicates(int replicates) {
+        this.replicates = replicates;
+    }
+
+    /**
+     * Set the number of worker threads. Defaults to the number of
+     * processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set whether to print progress messages to standard out. Defaults to
+     * true.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Perform the warm-up and then every branch, and return the number of
+     * branches run.
+     * @throws IOException if the index file cannot be written.
+     * @throws RuntimeException if a branch fails.
+     */
+    public int run() throws IOException, InterruptedException {
+        if (branches.isEmpty()) {
+            branches.add(warmupParameters);
+        }
+        new File(outputDirectory).mkdirs();
+        final BranchPoint point = warmUp();
+
+        PrintWriter index = new PrintWriter(new FileWriter(
+            new File(outputDirectory, INDEX_FILE)));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        int k = 0;
+        for (final Parameters parameters : branches) {
+            for (int r=0; r<replicates; r++) {
+                final int replicate = r;
+                final String directory = new File(outputDirectory,
+                    "branch" + k).getPath();
+                index.println(k + "\t" + r + "\t" + parameters);
+                results.add(pool.submit(new Callable<Object>() {
+                    public Object call() {
+                        runBranch(point, replicate, parameters, directory);
+                        return null;
+                    }
+                }));
+                k++;
+            }
+        }
+        index.close();
+        try {
+            for (Future<Object> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            throw new RuntimeException("A branch failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return k;
+    }
+
+    // Run the simulation through the warm-up year, and take a snapshot.
+    private BranchPoint warmUp() {
+        HumanTrafficking sim = HumanTrafficking.newBoundInstance(seed);
+        try {
+            sim.setScenarioFile(scenarioFile);
+            sim.setOutputDirectory(new File(outputDirectory, "warmup")
+                .getPath());
+            sim.setVerbose(verbose);
+            sim.setStepsPerYear(stepsPerYear);
+            sim.setVictimStorage(victimStorage);
+            sim.setParameters(warmupParameters);
+            sim.start();
+            while (sim.getYear() <= warmupYear && sim.schedule.step(sim)) {
+                // (keep stepping)
+            }
+            BranchPoint point = new BranchPoint(sim);
+            return point;
+        } finally {
+            sim.finish();
+            HumanTrafficking.unbindInstance();
+        }
+    }
+
+    private void runBranch(BranchPoint point, int replicate,
+        Parameters parameters, String directory) {
+
+        HumanTrafficking sim = replicate == 0 ?
+            point.fork(parameters, directory) :
+            point.fork(seed + replicate, parameters, directory);
+        try {
+            while (sim.getYear() <= horizonYear && sim.schedule.step(sim)) {
+                // (keep stepping)
+            }
+        } finally {
+            sim.finish();
+            HumanTrafficking.unbindInstance();
+        }
+    }
+
+    /**
+     * Warm up and run branches as directed by the command-line arguments
+     * described above. Arguments not given take their defaults: one
+     * replicate, a thread per processor, the horizon {@link
+     * BatchRunner#DEFAULT_HORIZON_YEAR}, seed 0, the scenario
+     * <code>routes.txt</code>, one timestep per year, victim records on
+     * the heap, the default parameters, the output directory
+     * <code>branches</code>, and verbose output.
+     */
+    public static void main(String[] args) throws Exception {
+        String usage = "Usage: BranchRunner -warmup year " +
+            "[-branch name=value,... ...] [-replicates n] [-threads n] " +
+            "[-until year] [-seed n] [-scenario file] [-steps n] " +
+            "[-store heap|offheap|file:path] [-params name=value,...] " +
+            "[-output dir] [-quiet]";
+        String scenarioFile = "routes.txt";
+        int warmupYear = -1;
+        int horizonYear = BatchRunner.DEFAULT_HORIZON_YEAR;
+        String outputDirectory = "branches";
+        boolean verbose = true;
+        ArrayList<String[]> settings = new ArrayList<String[]>();
+
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-quiet")) {
+                verbose = false;
+                continue;
+            }
+            if (i+1 == args.length) {
+                throw new IllegalArgumentException(usage);
+            }
+            String value = args[++i];
+            if (args[i-1].equals("-scenario")) {
+                scenarioFile = value;
+            } else if (args[i-1].equals("-warmup")) {
+                warmupYear = Integer.parseInt(value);
+            } else if (args[i-1].equals("-until")) {
+                horizonYear = Integer.parseInt(value);
+            } else if (args[i-1].equals("-output")) {
+                outputDirectory = value;
+            } else {
+                settings.add(new String[] { args[i-1], value });
+            }
+        }
+        if (warmupYear < 0) {
+            throw new IllegalArgumentException(usage);
+        }
+
+        BranchRunner runner = new BranchRunner(scenarioFile, warmupYear,
+            horizonYear, outputDirectory);
+        runner.setVerbose(verbose);
+        // (The warm-up parameters must be known before the branches'.)
+        for (String[] setting : settings) {
+            if (setting[0].equals("-params")) {
+                runner.setWarmupParameters(Parameters.parse(setting[1]));
+            }
+        }
+        for (String[] setting : settings) {
+            String value = setting[1];
+            if (setting[0].equals("-branch")) {
+                Parameters parameters = runner.getWarmupParameters();
+                for (String change : value.split(",")) {
+                    int eq = change.indexOf('=');
+                    if (eq < 0) {
+                        throw new IllegalArgumentException(usage);
+                    }
+                    parameters = parameters.with(
+                        change.substring(0, eq).trim(),
+                        Double.parseDouble(change.substring(eq + 1)));
+                }
+                runner.addBranch(parameters);
+            } else if (setting[0].equals("-replicates")) {
+                runner.setReplicates(Integer.parseInt(value));
+            } else if (setting[0].equals("-threads")) {
+                runner.setThreads(Integer.parseInt(value));
+            } else if (setting[0].equals("-seed")) {
+                runner.setSeed(Long.parseLong(value));
+            } else if (setting[0].equals("-steps")) {
+                runner.setStepsPerYear(Integer.parseInt(value));
+            } else if (setting[0].equals("-store")) {
+                runner.setVictimStorage(value);
+            } else if (!setting[0].equals("-params")) {
+                throw new IllegalArgumentException(usage);
+            }
+        }
+        int performed = runner.run();
+        System.out.println("Ran " + performed + " branches from " +
+            (warmupYear + 1) + "; results in " + outputDirectory);
+    }
+}
@@ -0,0 +1,151 @@
+package edu.umw.cpsc.humantrafficking;
+
+import ec.util.MersenneTwisterFast;
+import sim.engine.*;
+
+/**
+ * The demand for trafficking victims at every {@link Location}, computed
+ * once per location at the start of every timestep and cached, so that
+ * every route touching a location sees the same demand for the whole
+ * timestep.
+ * <p>
+ * A location's demand in a timestep is the product of:
+ * <ul>
+ * <li>a random factor, drawn uniformly from [0,1) once per timestep, from
+ * a random number stream of the model's own (so that every process of a
+ * distributed run, seeded alike, computes the same demand for every
+ * location);</li>
+ * <li>a factor for the current year (<i>e.g.</i>, a large sporting or
+ * military event), given in the scenario file, or 1 if none was
+ * given;</li>
+ * <li>a seasonal factor for the current timestep, derived from a list of
+ * factors spread evenly over the year given in the scenario file, or 1 if
+ * none was given.</li>
+ * </ul>
+ * Yearly and seasonal factors are given in the optional
+ * <code>Demand:</code> section at the end of the scenario file, one line
+ * per factor:
+ * <pre>
+ *   Thailand, 2016, 1.5
+ *   Thailand, seasonal, 1.2, 1.0, 0.9, 1.1
+ * </pre>
+ * The first says that Thailand's demand in 2016 is 1.5 times usual; the
+ * second, that its demand varies over the four quarters of every year as
+ * shown.
+ */
+class DemandModel implements Steppable {
+
+    private int firstYear;
+    private MersenneTwisterFast random;
+
+    // Indexed by location id. (A null row means "no data".)
+    private double[] demand;
+    private double[][] yearFactors;
+    private double[][] seasonalFactors;
+
+    // Indexed by location id, then timestep within the year; derived from
+    //   seasonalFactors when the number of steps per year is known.
+    private double[][] stepFactors;
+
+    /**
+     * Create a demand model for the number of locations passed, with no
+     * yearly or seasonal data yet.
+     * @param firstYear the first year of the simulation.
+     * @param seed the seed for the model's random number stream.
+     */
+    DemandModel(int numLocations, int firstYear, long seed) {
+        this.firstYear = firstYear;
+        this.random = new MersenneTwisterFast(seed);
+        demand = new double[numLocations];
+        yearFactors = new double[numLocations][];
+        seasonalFactors = new double[numLocations][];
+    }
+
+    /**
+     * Multiply the demand at a location, in one particular year, by the
+     * factor passed.
+     */
+    void setYearFactor(int locationId, int year, double factor) {
+        if (year < firstYear) {
+            throw new IllegalArgumentException("Demand given for " + year +
+                ", before the simulation begins in " + firstYear);
+        }
+        double[] factors = yearFactors[locationId];
+        int index = year - firstYear;
+        if (factors == null || factors.length <= index) {
+            double[] bigger = new double[index + 1];
+            java.util.Arrays.fill(bigger, 1.0);
+            if (factors != null) {
+                System.arraycopy(factors, 0, bigger, 0, factors.length);
+            }
+            factors = bigger;
+            yearFactors[locationId] = factors;
+        }
+        factors[index] = factor;
+    }
+
+    /**
+     * Give the seasonal pattern of demand at a location, as factors for
+     * equal parts of the year (<i>e.g.</i>, twelve monthly factors).
+     */
+    void setSeasonalFactors(int locationId, double[] factors) {
+        seasonalFactors[locationId] = factors;
+        stepFactors = null;
+    }
+
+    /**
+     * Return the demand at the location passed, for the current
+     * timestep.
+     */
+    double getDemand(int locationId) {
+        return demand[locationId];
+    }
+
+    /**
+     * Compute (and cache) every location's demand for this timestep.
+     * @param state the HumanTrafficking simulation.
+     */
+    public void step(SimState state) {
+        HumanTrafficking world = (HumanTrafficking) state;
+        if (stepFactors == null) {
+            computeStepFactors(world.getStepsPerYear());
+        }
+        int yearIndex = world.getYear() - firstYear;
+        int step = world.getStepOfYear();
+        for (int i=0; i<demand.length; i++) {
+            double d = random.nextDouble();
+            double[] factors = yearFactors[i];
+            if (factors != null && yearIndex < factors.length) {
+                d *= factors[yearIndex];
+            }
+            if (stepFactors[i] != null) {
+                d *= stepFactors[i][step];
+            }
+            demand[i] = d;
+        }
+    }
+
+    // Average each location's seasonal factors over each timestep. (A
+    //   timestep may span several seasonal periods, or part of one.)
+    private void computeStepFactors(int stepsPerYear) {
+        stepFactors = new double[seasonalFactors.length][];
+        for (int i=0; i<seasonalFactors.length; i++) {
+            double[] seasons = seasonalFactors[i];
+            if (seasons == null) {
+                continue;
+            }
+            int numSeasons = seasons.length;
+            double[] steps = new double[stepsPerYear];
+            // Divide the year into numSeasons*stepsPerYear equal slices;
+            //   slice j lies in season j/stepsPerYear and step
+            //   j/numSeasons.
+            for (int j=0; j<numSeasons * stepsPerYear; j++) {
+                steps[j / numSeasons] += seasons[j / stepsPerYear];
+            }
+            for (int j=0; j<stepsPerYear; j++) {
+                steps[j] /= numSeasons;
+            }
+            stepFactors[i] = steps;
+        }
+    }
+}
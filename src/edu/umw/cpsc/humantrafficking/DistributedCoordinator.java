@@ -0,0 +1,374 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+
+/**
+ * The coordinator of a distributed run, in which the scenario's locations
+ * (and the routes from them) are divided by region among several {@link
+ * DistributedWorker} processes. The coordinator owns the clock: it tells
+ * every worker to simulate one year, waits for all of them (the year
+ * barrier), passes each batch of victims that crossed a region boundary
+ * on to the worker owning their new location, and writes that year's
+ * aggregate counts. Workers talk to the coordinator over sockets.
+ * <p>
+ * From the command line:
+ * <pre>
+ *   java edu.umw.cpsc.humantrafficking.DistributedCoordinator
+ *       [-workers n] [-scenario file] [-until year] [-seed n]
+ *       [-output dir] [-steps n] [-port p] [-bind address]
+ *       [-host name] [-nospawn] [-verbose]
+ * </pre>
+ * By default the coordinator starts its workers itself, as separate JVMs
+ * on the same host with the same classpath, which connect to it at
+ * <code>-host</code> (by default, <code>localhost</code>). With
+ * <code>-nospawn</code>, it waits for the given number of workers to be
+ * started by hand (see {@link DistributedWorker}), on this host or
+ * others, and connect to its port. By default the coordinator listens
+ * only on the loopback address, so workers on other hosts need
+ * <code>-bind</code> with an address of this host's they can reach (or
+ * <code>0.0.0.0</code>, for every address). The scenario file and output
+ * directory are passed to workers as paths, so workers on other hosts
+ * need them at the same paths (<i>e.g.</i>, on a shared file system).
+ * <p>
+ * Into the output directory are written one file per year,
+ * <code>Counts</code><i>year</i><code>.data</code>, with a line per
+ * location giving its name (with no spaces), its number of victims,
+ * escapees and population; and one subdirectory per worker,
+ * <code>worker</code><i>n</i>, holding that worker's {@link StatsPrinter}
+ * files.
+ */
+public class DistributedCoordinator {
+
+    /** Command to a worker: admit a batch of victims, and run a year. */
+    static final int STEP = 1;
+
+    /** Command to a worker: finish the simulation and disconnect. */
+    static final int FINISH = 2;
+
+    private String scenarioFile;
+    private int horizonYear;
+    private long seed;
+    private int numWorkers;
+    private String outputDirectory;
+    private int stepsPerYear = 1;
+    private int port = 0;
+    private String bindAddress;
+    private String workerHost = "localhost";
+    private boolean spawnWorkers = true;
+    private boolean verbose = false;
+
+    private DataInputStream[] ins;
+    private DataOutputStream[] outs;
+    private int[] owners;
+    private String[] names;
+
+    // Victims waiting to be sent to each worker: triples of (location id,
+    //   birth year, attributes), and their victim keys.
+    private int[][] pending;
+    private long[][] pendingKeys;
+    private int[] numPending;
+
+    /**
+     * Create a coordinator for one distributed run.
+     * @param scenarioFile the path of the scenario file (which every
+     * worker reads).
+     * @param horizonYear the last year to be simulated.
+     * @param seed the random number seed.
+     * @param numWorkers the number of worker processes (and regions).
+     * @param outputDirectory the directory into which output is written.
+     */
+    public DistributedCoordinator(String scenarioFile, int horizonYear,
+        long seed, int numWorkers, String outputDirectory) {
+
+        this.scenarioFile = scenarioFile;
+        this.horizonYear = horizonYear;
+        this.seed = seed;
+        this.numWorkers = numWorkers;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Set the number of timesteps per year. Defaults to 1.
+     */
+    public void setStepsPerYear(int stepsPerYear) {
+        this.stepsPerYear = stepsPerYear;
+    }
+
+    /**
+     * Set the local port on which to wait for workers. Defaults to 0 (any
+     * free port).
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Set the address on which to wait for workers (<i>e.g.</i>, one of
+     * this host's addresses on a cluster's network, or "0.0.0.0" for
+     * all). Defaults to null: only the loopback address, so only workers
+     * on this host can connect.
+     */
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Set the name (or address) of this host by which the workers the
+     * coordinator starts connect to it. Defaults to "localhost".
+     */
+    public void setWorkerHost(String workerHost) {
+        this.workerHost = workerHost;
+    }
+
+    /**
+     * Set whether the coordinator starts its own worker processes.
+     * Defaults to true.
+     */
+    public void setSpawnWorkers(boolean spawnWorkers) {
+        this.spawnWorkers = spawnWorkers;
+    }
+
+    /**
+     * Set whether workers print progress messages. Defaults to false.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Perform the run, returning when every worker has finished.
+     */
+    public void run() throws IOException, InterruptedException {
+        new File(outputDirectory).mkdirs();
+        ServerSocket server = new ServerSocket(port, numWorkers,
+            bindAddress == null ? InetAddress.getLoopbackAddress() :
+            InetAddress.getByName(bindAddress));
+        ArrayList<Process> processes = new ArrayList<Process>();
+        Socket[] sockets = new Socket[numWorkers];
+        try {
+            if (spawnWorkers) {
+                for (int w=0; w<numWorkers; w++) {
+                    processes.add(spawnWorker(server.getLocalPort()));
+                }
+            } else {
+                System.out.println("Waiting for " + numWorkers +
+                    " workers on " + server.getInetAddress().getHostAddress() +
+                    " port " + server.getLocalPort() + "...");
+            }
+            connect(server, sockets);
+            for (int year=HumanTrafficking.FIRST_YEAR; year<=horizonYear;
+                    year++) {
+                runYear(year);
+            }
+            for (int w=0; w<numWorkers; w++) {
+                outs[w].writeInt(FINISH);
+                outs[w].flush();
+            }
+        } finally {
+            for (int w=0; w<numWorkers; w++) {
+                if (sockets[w] != null) {
+                    sockets[w].close();
+                }
+            }
+            server.close();
+        }
+        for (Process p : processes) {
+            p.waitFor();
+        }
+    }
+
+    private Process spawnWorker(int port) throws IOException {
+        String java = System.getProperty("java.home") + File.separator +
+            "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+            System.getProperty("java.class.path"),
+            DistributedWorker.class.getName(), workerHost,
+            String.valueOf(port));
+        builder.inheritIO();
+        return builder.start();
+    }
+
+    // Accept every worker's connection, tell it its partition, and learn
+    //   which locations it owns.
+    private void connect(ServerSocket server, Socket[] sockets)
+        throws IOException {
+        ins = new DataInputStream[numWorkers];
+        outs = new DataOutputStream[numWorkers];
+        pending = new int[numWorkers][64];
+        pendingKeys = new long[numWorkers][64];
+        numPending = new int[numWorkers];
+        for (int w=0; w<numWorkers; w++) {
+            sockets[w] = server.accept();
+            ins[w] = new DataInputStream(
+                new BufferedInputStream(sockets[w].getInputStream()));
+            outs[w] = new DataOutputStream(
+                new BufferedOutputStream(sockets[w].getOutputStream()));
+            outs[w].writeInt(w);
+            outs[w].writeInt(numWorkers);
+            outs[w].writeUTF(scenarioFile);
+            outs[w].writeLong(seed);
+            outs[w].writeInt(stepsPerYear);
+            outs[w].writeUTF(new File(outputDirectory, "worker" + w).
+                getPath());
+            outs[w].writeBoolean(verbose);
+            outs[w].flush();
+        }
+        for (int w=0; w<numWorkers; w++) {
+            int numLocations = ins[w].readInt();
+            if (owners == null) {
+                owners = new int[numLocations];
+                names = new String[numLocations];
+            }
+            int numLocal = ins[w].readInt();
+            for (int i=0; i<numLocal; i++) {
+                int id = ins[w].readInt();
+                owners[id] = w;
+                names[id] = ins[w].readUTF();
+            }
+        }
+    }
+
+    // Have every worker simulate one year, then route the victims that
+    //   crossed region boundaries and write the year's counts.
+    private void runYear(int year) throws IOException {
+        for (int w=0; w<numWorkers; w++) {
+            outs[w].writeInt(STEP);
+            outs[w].writeInt(numPending[w]);
+            for (int i=0; i<numPending[w]; i++) {
+                outs[w].writeInt(pending[w][3*i]);
+                outs[w].writeInt(pending[w][3*i + 1]);
+                outs[w].writeInt(pending[w][3*i + 2]);
+                outs[w].writeLong(pendingKeys[w][i]);
+            }
+            numPending[w] = 0;
+            outs[w].flush();
+        }
+
+        int[][] counts = new int[owners.length][];
+        for (int w=0; w<numWorkers; w++) {
+            int workerYear = ins[w].readInt();
+            if (workerYear != year) {
+                throw new IOException("Worker " + w + " simulated " +
+                    workerYear + ", not " + year);
+            }
+            int numMoved = ins[w].readInt();
+            for (int i=0; i<numMoved; i++) {
+                int id = ins[w].readInt();
+                int birthYear = ins[w].readInt();
+                int attributes = ins[w].readInt();
+                long key = ins[w].readLong();
+                addPending(owners[id], id, birthYear, attributes, key);
+            }
+            int numLocal = ins[w].readInt();
+            for (int i=0; i<numLocal; i++) {
+                int id = ins[w].readInt();
+                counts[id] = new int[] { ins[w].readInt(), ins[w].readInt(),
+                    ins[w].readInt() };
+            }
+        }
+        writeCounts(year, counts);
+    }
+
+    private void addPending(int worker, int id, int birthYear,
+        int attributes, long key) {
+        if (3*numPending[worker] + 3 > pending[worker].length) {
+            pending[worker] = java.util.Arrays.copyOf(pending[worker],
+                2 * pending[worker].length);
+        }
+        if (numPending[worker] == pendingKeys[worker].length) {
+            pendingKeys[worker] = java.util.Arrays.copyOf(
+                pendingKeys[worker], 2 * numPending[worker]);
+        }
+        pendingKeys[worker][numPending[worker]] = key;
+        pending[worker][3*numPending[worker]] = id;
+        pending[worker][3*numPending[worker] + 1] = birthYear;
+        pending[worker][3*numPending[worker] + 2] = attributes;
+        numPending[worker]++;
+    }
+
+    private void writeCounts(int year, int[][] counts) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(
+            new File(outputDirectory, "Counts" + year + ".data"))));
+        for (int id=0; id<counts.length; id++) {
+            out.println(names[id].replace(" ","") + " " + counts[id][0] +
+                " " + counts[id][1] + " " + counts[id][2]);
+        }
+        out.close();
+    }
+
+    /**
+     * Run one distributed simulation as directed by the command-line
+     * arguments described above. Arguments not given take their defaults:
+     * 2 workers, the scenario <code>routes.txt</code>, the horizon {@link
+     * BatchRunner#DEFAULT_HORIZON_YEAR}, seed 0, the output directory
+     * {@link StatsPrinter#OUTPUT_DIRECTORY}, one timestep per year, any
+     * free port on the loopback address, and workers started on this
+     * host.
+     */
+    public static void main(String[] args) throws Exception {
+        String scenarioFile = "routes.txt";
+        int horizonYear = BatchRunner.DEFAULT_HORIZON_YEAR;
+        long seed = 0;
+        int numWorkers = 2;
+        String outputDirectory = StatsPrinter.OUTPUT_DIRECTORY;
+        int stepsPerYear = 1;
+        int port = 0;
+        String bindAddress = null;
+        String workerHost = "localhost";
+        boolean spawnWorkers = true;
+        boolean verbose = false;
+
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-nospawn")) {
+                spawnWorkers = false;
+            } else if (arg.equals("-verbose")) {
+                verbose = true;
+            } else if (i+1 == args.length) {
+                throw new IllegalArgumentException("No value for " + arg);
+            } else if (arg.equals("-workers")) {
+                numWorkers = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-scenario")) {
+                scenarioFile = args[++i];
+            } else if (arg.equals("-until")) {
+                horizonYear = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("-output")) {
+                outputDirectory = args[++i];
+            } else if (arg.equals("-steps")) {
+                stepsPerYear = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-bind")) {
+                bindAddress = args[++i];
+            } else if (arg.equals("-host")) {
+                workerHost = args[++i];
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        DistributedCoordinator coordinator = new DistributedCoordinator(
+            scenarioFile, horizonYear, seed, numWorkers, outputDirectory);
+        coordinator.setStepsPerYear(stepsPerYear);
+        coordinator.setPort(port);
+        coordinator.setBindAddress(bindAddress);
+        coordinator.setWorkerHost(workerHost);
+        coordinator.setSpawnWorkers(spawnWorkers);
+        coordinator.setVerbose(verbose);
+        coordinator.run();
+    }
+}
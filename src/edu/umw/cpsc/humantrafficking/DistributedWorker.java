@@ -0,0 +1,140 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * One worker process of a distributed run. A worker connects to the
+ * {@link DistributedCoordinator}, is told which partition (region) of the
+ * scenario to simulate, and then simulates one year at a time, as the
+ * coordinator directs. At each year barrier it reports the victims its
+ * routes have moved to other regions, and its locations' counts, and
+ * receives the victims other regions have moved to it.
+ * <p>
+ * Workers are normally started by the coordinator itself, but can be
+ * started by hand (on the same host) with:
+ * <pre>
+ *   java edu.umw.cpsc.humantrafficking.DistributedWorker host port
+ * </pre>
+ */
+public class DistributedWorker {
+
+    private String host;
+    private int port;
+
+    /**
+     * Create a worker that will connect to the coordinator at the host
+     * and port passed.
+     */
+    public DistributedWorker(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Connect to the coordinator and simulate this worker's partition
+     * until told to finish.
+     */
+    public void run() throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+
+            int partitionIndex = in.readInt();
+            int numPartitions = in.readInt();
+            String scenarioFile = in.readUTF();
+            long seed = in.readLong();
+            int stepsPerYear = in.readInt();
+            String outputDirectory = in.readUTF();
+            boolean verbose = in.readBoolean();
+
+            HumanTrafficking sim = HumanTrafficking.newBoundInstance(seed);
+            try {
+                sim.setScenarioFile(scenarioFile);
+                sim.setOutputDirectory(outputDirectory);
+                sim.setVerbose(verbose);
+                sim.setStepsPerYear(stepsPerYear);
+                sim.setPartition(partitionIndex, numPartitions);
+                sim.start();
+                writeLocations(sim, out);
+                out.flush();
+
+                while (in.readInt() == DistributedCoordinator.STEP) {
+                    VictimExchange.admit(in, sim);
+                    int year = sim.getYear();
+                    while (sim.getYear() == year && sim.schedule.step(sim)) {
+                        // (keep stepping to the end of the year)
+                    }
+                    out.writeInt(year);
+                    sim.getExchange().writeBatch(out);
+                    writeCounts(sim, out);
+                    out.flush();
+                }
+            } finally {
+                sim.finish();
+                HumanTrafficking.unbindInstance();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    // Tell the coordinator how many locations there are in all, and the
+    //   id and name of each location this worker owns.
+    private void writeLocations(HumanTrafficking sim, DataOutputStream out)
+        throws IOException {
+        out.writeInt(sim.getNumLocations());
+        out.writeInt(countLocal(sim));
+        for (int id=0; id<sim.getNumLocations(); id++) {
+            if (sim.getLocation(id).isLocal()) {
+                out.writeInt(id);
+                out.writeUTF(sim.getLocation(id).getName());
+            }
+        }
+    }
+
+    // Report the victims, escapees and population of each location this
+    //   worker owns.
+    private void writeCounts(HumanTrafficking sim, DataOutputStream out)
+        throws IOException {
+        out.writeInt(countLocal(sim));
+        for (int id=0; id<sim.getNumLocations(); id++) {
+            Location l = sim.getLocation(id);
+            if (l.isLocal()) {
+                out.writeInt(id);
+                out.writeInt(l.getNumVics());
+                out.writeInt(l.getNumEscapees());
+                out.writeInt(l.getPop());
+            }
+        }
+    }
+
+    private int countLocal(HumanTrafficking sim) {
+        int n = 0;
+        for (int id=0; id<sim.getNumLocations(); id++) {
+            if (sim.getLocation(id).isLocal()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Run a worker for the coordinator at the host and port given on the
+     * command line.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException(
+                "Usage: DistributedWorker host port");
+        }
+        new DistributedWorker(args[0], Integer.parseInt(args[1])).run();
+    }
+}
@@ -0,0 +1,137 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * Counts the victims moved from each location to each other (the
+ * origin-destination matrix of the trafficking network), both this year
+ * and since the simulation began. Only pairs of locations between which
+ * victims have ever moved are stored, in an open-addressed hash table of
+ * primitive keys (the two location ids, packed into a long) and counts,
+ * so that counting a move costs O(1) and allocates nothing.
+ * <p>
+ * Every move made by a {@link Route} is counted (including those to
+ * another process's locations, in a distributed run). The counts are
+ * written out with the yearly statistics (see {@link StatsPrinter}), and
+ * this year's are cleared as the year rolls over.
+ */
+class FlowMatrix implements java.io.Serializable {
+
+    private static final long EMPTY = -1;
+
+    private long[] keys = newKeys(64);
+    private int[] yearFlows = new int[64];
+    private long[] totalFlows = new long[64];
+    private int size;
+
+    private static long[] newKeys(int capacity) {
+        long[] keys = new long[capacity];
+        java.util.Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private static long key(int from, int to) {
+        return ((long) from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    // Return the index of the key passed in the table, or of the empty
+    //   entry where it would go.
+    private int find(long key) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int i = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Count one victim moved from the location with the first id passed
+     * to the location with the second.
+     */
+    void add(int from, int to) {
+        long key = key(from, to);
+        int i = find(key);
+        if (keys[i] == EMPTY) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                i = find(key);
+            }
+            keys[i] = key;
+            size++;
+        }
+        yearFlows[i]++;
+        totalFlows[i]++;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldYearFlows = yearFlows;
+        long[] oldTotalFlows = totalFlows;
+        keys = newKeys(2 * oldKeys.length);
+        yearFlows = new int[keys.length];
+        totalFlows = new long[keys.length];
+        for (int j=0; j<oldKeys.length; j++) {
+            if (oldKeys[j] != EMPTY) {
+                int i = find(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                yearFlows[i] = oldYearFlows[j];
+                totalFlows[i] = oldTotalFlows[j];
+            }
+        }
+    }
+
+    /**
+     * Return the number of victims moved, this year, from the location
+     * with the first id passed to the location with the second.
+     */
+    int getYearFlow(int from, int to) {
+        int i = find(key(from, to));
+        return keys[i] == EMPTY ? 0 : yearFlows[i];
+    }
+
+    /**
+     * Return the number of victims moved, since the simulation began, from
+     * the location with the first id passed to the location with the
+     * second.
+     */
+    long getTotalFlow(int from, int to) {
+        int i = find(key(from, to));
+        return keys[i] == EMPTY ? 0 : totalFlows[i];
+    }
+
+    /**
+     * Return the number of pairs of locations between which victims have
+     * moved.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return every pair of locations between which victims have moved,
+     * in order of origin id and then destination id, as an array of
+     * {origin, destination} pairs.
+     */
+    int[][] getPairs() {
+        long[] sorted = new long[size];
+        int n = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                sorted[n++] = key;
+            }
+        }
+        java.util.Arrays.sort(sorted);
+        int[][] pairs = new int[size][];
+        for (int i=0; i<size; i++) {
+            pairs[i] = new int[] { (int) (sorted[i] >>> 32), (int) sorted[i] };
+        }
+        return pairs;
+    }
+
+    /**
+     * Clear this year's counts, as a new year begins.
+     */
+    void endYear() {
+        java.util.Arrays.fill(yearFlows, 0);
+    }
+}
@@ -0,0 +1,115 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * Rebuilds a simulation's state from a stream of frames, in the format
+ * described by {@link FrameFormat}. Delta frames arriving before the
+ * first key frame cannot be decoded, and are skipped.
+ */
+public class FrameDecoder {
+
+    private FrameFormat.Scene scene;
+    private int numLocations;
+    private int year;
+    private int step;
+    private int[] values;
+    private boolean synced;
+    private byte[] buf = new byte[256];
+    private int[] pos = new int[1];
+
+    /**
+     * Create a decoder for frames of the scene passed.
+     */
+    public FrameDecoder(FrameFormat.Scene scene) {
+        this.scene = scene;
+        numLocations = scene.names.length;
+        values = new int[scene.getFrameSize()];
+    }
+
+    /**
+     * Return the scene whose frames this decoder decodes.
+     */
+    public FrameFormat.Scene getScene() {
+        return scene;
+    }
+
+    /**
+     * Read the next frame from the stream passed, and apply it.
+     * @return true if this decoder now holds a valid state, or false if
+     * the frame was a delta frame that could not be applied (because no
+     * key frame has been seen yet).
+     * @throws java.io.EOFException at the end of the stream.
+     */
+    public boolean readFrame(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length > buf.length) {
+            buf = new byte[length];
+        }
+        in.readFully(buf, 0, length);
+        return decode(buf, 0);
+    }
+
+    /**
+     * Apply the frame whose body (everything after its length) starts at
+     * the offset passed in the buffer passed.
+     * @return as for {@link #readFrame}.
+     */
+    public boolean decode(byte[] frame, int offset) {
+        byte type = frame[offset];
+        if (type == FrameFormat.DELTA_FRAME && !synced) {
+            return false;
+        }
+        pos[0] = offset + 1;
+        year = FrameFormat.getVarint(frame, pos);
+        step = FrameFormat.getVarint(frame, pos);
+        if (type == FrameFormat.KEY_FRAME) {
+            for (int i=0; i<values.length; i++) {
+                values[i] = FrameFormat.getVarint(frame, pos);
+            }
+            synced = true;
+        } else {
+            for (int i=0; i<values.length; i++) {
+                values[i] += FrameFormat.getVarint(frame, pos);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the year of the last frame applied.
+     */
+    public int getYear() {
+        return year;
+    }
+
+    /**
+     * Return the timestep (within its year) of the last frame applied.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * Return the number of victims at the location with the id passed.
+     */
+    public int getVictims(int id) {
+        return values[id];
+    }
+
+    /**
+     * Return the number of escapees at the location with the id passed.
+     */
+    public int getEscapees(int id) {
+        return values[numLocations + id];
+    }
+
+    /**
+     * Return the number of victims moved along the route with the index
+     * passed, in the last frame's timestep.
+     */
+    public int getFlow(int route) {
+        return values[2*numLocations + route];
+    }
+}
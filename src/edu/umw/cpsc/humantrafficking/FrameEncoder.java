@@ -0,0 +1,86 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * Turns successive states of a running simulation into frames, in the
+ * format described by {@link FrameFormat}. Each timestep, the state is
+ * {@link #capture}d, encoded as a key frame and/or as a delta frame (the
+ * latter against the state captured the timestep before), and then
+ * {@link #advance}d past.
+ */
+class FrameEncoder {
+
+    // Enough room for a frame's length, type, year and step.
+    private static final int HEADER_BYTES = 4 + 1 + 5 + 5;
+
+    private int numLocations;
+    private int numRoutes;
+    private int year;
+    private int step;
+    private int[] values;
+    private int[] previous;
+    private byte[] buf;
+
+    /**
+     * Create an encoder for the scene passed.
+     */
+    FrameEncoder(FrameFormat.Scene scene) {
+        numLocations = scene.names.length;
+        numRoutes = scene.routeSources.length;
+        values = new int[scene.getFrameSize()];
+        previous = new int[values.length];
+        buf = new byte[HEADER_BYTES + 5 * values.length];
+    }
+
+    /**
+     * Record the simulation's current state: every location's victims and
+     * escapees, and every route's flow this timestep.
+     */
+    void capture(HumanTrafficking world) {
+        year = world.getYear();
+        step = world.getStepOfYear();
+        for (int id=0; id<numLocations; id++) {
+            Location l = world.getLocation(id);
+            values[id] = l.getNumVics();
+            values[numLocations + id] = l.getNumEscapees();
+        }
+        for (int i=0; i<numRoutes; i++) {
+            values[2*numLocations + i] = world.getRoute(i).getFlow();
+        }
+    }
+
+    /**
+     * Encode the state last captured as a frame of the type passed, and
+     * return its bytes (length prefix included).
+     */
+    byte[] encode(byte type) {
+        int pos = 4;
+        buf[pos++] = type;
+        pos = FrameFormat.putVarint(buf, pos, year);
+        pos = FrameFormat.putVarint(buf, pos, step);
+        if (type == FrameFormat.KEY_FRAME) {
+            for (int i=0; i<values.length; i++) {
+                pos = FrameFormat.putVarint(buf, pos, values[i]);
+            }
+        } else {
+            for (int i=0; i<values.length; i++) {
+                pos = FrameFormat.putVarint(buf, pos, values[i] - previous[i]);
+            }
+        }
+        int length = pos - 4;
+        buf[0] = (byte) (length >>> 24);
+        buf[1] = (byte) (length >>> 16);
+        buf[2] = (byte) (length >>> 8);
+        buf[3] = (byte) length;
+        return java.util.Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * Make the state last captured the one that the next delta frame is
+     * relative to.
+     */
+    void advance() {
+        int[] swap = previous;
+        previous = values;
+        values = swap;
+    }
+}
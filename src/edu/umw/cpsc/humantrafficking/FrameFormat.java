@@ -0,0 +1,176 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The binary format in which a running simulation's state is streamed to
+ * a separate viewer (see {@link FramePublisher} and {@link FrameViewer}).
+ * <p>
+ * A stream begins with a <i>scene</i>, which describes everything that
+ * doesn't change during a run: the magic number {@link #MAGIC}, the
+ * number of timesteps per year, then each location (its name, longitude
+ * and latitude) and each route (the ids of its source, transit (or -1)
+ * and destination locations), each list preceded by its length.
+ * <p>
+ * After that comes one <i>frame</i> per timestep. A frame is an int
+ * giving the number of bytes that follow, a type byte ({@link #KEY_FRAME}
+ * or {@link #DELTA_FRAME}), the year and timestep, and then one value for
+ * each location's victims, each location's escapees, and each route's
+ * flow (the victims moved along it that timestep), in that order. In a
+ * key frame the values are given outright; in a delta frame, as the
+ * change since the previous frame, so a delta frame can only be decoded
+ * after the frame before it. Every number in a frame is written as a
+ * variable-length integer (seven bits per byte, low-order bits first,
+ * signed values zigzag-encoded), so an unchanged value costs one byte.
+ */
+public final class FrameFormat {
+
+    /** The first four bytes of every stream: "HTF1". */
+    public static final int MAGIC = 0x48544631;
+
+    /** The type of a frame whose values are given outright. */
+    public static final byte KEY_FRAME = 1;
+
+    /** The type of a frame whose values are changes since the last. */
+    public static final byte DELTA_FRAME = 2;
+
+    private FrameFormat() {
+    }
+
+    /**
+     * The unchanging description of a simulation, with which every stream
+     * of frames begins.
+     */
+    public static class Scene {
+        public int stepsPerYear;
+        public String[] names;
+        public double[] longitudes;
+        public double[] latitudes;
+        public int[] routeSources;
+        public int[] routeTransits;
+        public int[] routeDestinations;
+
+        /**
+         * Return the number of values in each frame of this scene.
+         */
+        public int getFrameSize() {
+            return 2 * names.length + routeSources.length;
+        }
+    }
+
+    /**
+     * Describe the (started) simulation passed as a Scene.
+     */
+    static Scene describe(HumanTrafficking world) {
+        Scene scene = new Scene();
+        int n = world.getNumLocations();
+        scene.stepsPerYear = world.getStepsPerYear();
+        scene.names = new String[n];
+        scene.longitudes = new double[n];
+        scene.latitudes = new double[n];
+        for (int id=0; id<n; id++) {
+            Location l = world.getLocation(id);
+            scene.names[id] = l.getName();
+            scene.longitudes[id] = l.getLong();
+            scene.latitudes[id] = l.getLat();
+        }
+        int r = world.getNumRoutes();
+        scene.routeSources = new int[r];
+        scene.routeTransits = new int[r];
+        scene.routeDestinations = new int[r];
+        for (int i=0; i<r; i++) {
+            Route route = world.getRoute(i);
+            scene.routeSources[i] = route.getSource().getId();
+            scene.routeTransits[i] = route.getTransit() == null ? -1 :
+                route.getTransit().getId();
+            scene.routeDestinations[i] = route.getDestination().getId();
+        }
+        return scene;
+    }
+
+    /**
+     * Write the Scene passed, in the format described above.
+     */
+    public static void writeScene(Scene scene, DataOutput out)
+        throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(scene.stepsPerYear);
+        out.writeInt(scene.names.length);
+        for (int id=0; id<scene.names.length; id++) {
+            out.writeUTF(scene.names[id]);
+            out.writeDouble(scene.longitudes[id]);
+            out.writeDouble(scene.latitudes[id]);
+        }
+        out.writeInt(scene.routeSources.length);
+        for (int i=0; i<scene.routeSources.length; i++) {
+            out.writeInt(scene.routeSources[i]);
+            out.writeInt(scene.routeTransits[i]);
+            out.writeInt(scene.routeDestinations[i]);
+        }
+    }
+
+    /**
+     * Read a Scene in the format described above.
+     * @throws IOException if the stream does not begin with {@link
+     * #MAGIC}, or cannot be read.
+     */
+    public static Scene readScene(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a stream of simulation frames");
+        }
+        Scene scene = new Scene();
+        scene.stepsPerYear = in.readInt();
+        int n = in.readInt();
+        scene.names = new String[n];
+        scene.longitudes = new double[n];
+        scene.latitudes = new double[n];
+        for (int id=0; id<n; id++) {
+            scene.names[id] = in.readUTF();
+            scene.longitudes[id] = in.readDouble();
+            scene.latitudes[id] = in.readDouble();
+        }
+        int r = in.readInt();
+        scene.routeSources = new int[r];
+        scene.routeTransits = new int[r];
+        scene.routeDestinations = new int[r];
+        for (int i=0; i<r; i++) {
+            scene.routeSources[i] = in.readInt();
+            scene.routeTransits[i] = in.readInt();
+            scene.routeDestinations[i] = in.readInt();
+        }
+        return scene;
+    }
+
+    /**
+     * Write the (signed) value passed into the buffer at the position
+     * passed, as a zigzag variable-length integer, and return the position
+     * after it. The buffer must have room for five bytes.
+     */
+    static int putVarint(byte[] buf, int pos, int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        buf[pos++] = (byte) zigzag;
+        return pos;
+    }
+
+    /**
+     * Read a zigzag variable-length integer from the buffer at
+     * <code>pos[0]</code>, advancing <code>pos[0]</code> past it.
+     */
+    static int getVarint(byte[] buf, int[] pos) {
+        int zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf[pos[0]++];
+            zigzag |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,184 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import sim.engine.*;
+
+/**
+ * Publishes a frame (see {@link FrameFormat}) of the simulation's state
+ * every timestep, to any number of viewers connected to a local socket
+ * (see {@link FrameViewer}). Publishing never slows the simulation down
+ * to a viewer's pace: each viewer has its own sending thread and a short
+ * queue of frames, and if a viewer falls so far behind that its queue is
+ * full, frames are dropped for it, and it is sent a key frame as soon as
+ * there is room again.
+ * <p>
+ * The FramePublisher runs, with the {@link StatsPrinter}, near the end of
+ * each timestep.
+ */
+class FramePublisher implements Steppable {
+
+    // The number of frames that may wait to be sent to one viewer.
+    private static final int QUEUE_LENGTH = 64;
+
+    // How long, in milliseconds, closing waits for viewers to be sent the
+    //   frames still queued for them.
+    private static final long DRAIN_MILLIS = 1000;
+
+    // Queued to tell a viewer's thread that no more frames will come.
+    private static final byte[] END = new byte[0];
+
+    private ServerSocket server;
+    private byte[] sceneBytes;
+    private FrameEncoder encoder;
+    private CopyOnWriteArrayList<Viewer> viewers =
+        new CopyOnWriteArrayList<Viewer>();
+
+    /**
+     * Start listening for viewers, on the local port passed (or, if 0, any
+     * free port), of the (started) simulation passed.
+     */
+    FramePublisher(int port, HumanTrafficking world) throws IOException {
+        FrameFormat.Scene scene = FrameFormat.describe(world);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrameFormat.writeScene(scene, new DataOutputStream(bytes));
+        sceneBytes = bytes.toByteArray();
+        encoder = new FrameEncoder(scene);
+
+        server = new ServerSocket(port, 4, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                acceptViewers();
+            }
+        }, "FramePublisher-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Return the port on which viewers may connect.
+     */
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    private void acceptViewers() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Viewer viewer = new Viewer(socket);
+                viewers.add(viewer);
+                viewer.start();
+            } catch (IOException e) {
+                // (The server has been closed, or the viewer has gone.)
+            }
+        }
+    }
+
+    /**
+     * Publish this timestep's frame to every connected viewer.
+     * @param state the HumanTrafficking simulation.
+     */
+    public void step(SimState state) {
+        if (viewers.isEmpty()) {
+            return;
+        }
+        encoder.capture((HumanTrafficking) state);
+        byte[] delta = encoder.encode(FrameFormat.DELTA_FRAME);
+        byte[] key = null;
+        for (Viewer viewer : viewers) {
+            if (viewer.needsKey) {
+                if (key == null) {
+                    key = encoder.encode(FrameFormat.KEY_FRAME);
+                }
+                viewer.needsKey = !viewer.queue.offer(key);
+            } else {
+                viewer.needsKey = !viewer.queue.offer(delta);
+            }
+        }
+        encoder.advance();
+    }
+
+    /**
+     * Stop listening, and disconnect every viewer once it has been sent
+     * the frames queued for it (or, if that takes too long, at once).
+     */
+    void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // (Nothing more to do.)
+        }
+        for (Viewer viewer : viewers) {
+            if (!viewer.queue.offer(END)) {
+                viewer.close();
+            }
+        }
+        long deadline = System.currentTimeMillis() + DRAIN_MILLIS;
+        for (Viewer viewer : viewers) {
+            try {
+                viewer.join(Math.max(1,
+                    deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            viewer.close();
+        }
+    }
+
+    // One connected viewer, and the thread sending it frames.
+    private class Viewer extends Thread {
+        final ArrayBlockingQueue<byte[]> queue =
+            new ArrayBlockingQueue<byte[]>(QUEUE_LENGTH);
+        volatile boolean needsKey = true;
+        private Socket socket;
+
+        Viewer(Socket socket) {
+            super("FrameViewer-" + socket.getPort());
+            setDaemon(true);
+            this.socket = socket;
+        }
+
+        public void run() {
+            try {
+                OutputStream out = new BufferedOutputStream(
+                    socket.getOutputStream());
+                out.write(sceneBytes);
+                out.flush();
+                byte[] frame;
+                while ((frame = queue.take()) != END) {
+                    out.write(frame);
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+                out.flush();
+            } catch (IOException e) {
+                // (The viewer has disconnected.)
+            } catch (InterruptedException e) {
+                // (The publisher has been closed.)
+            } finally {
+                viewers.remove(this);
+                close();
+            }
+        }
+
+        void close() {
+            interrupt();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // (Nothing more to do.)
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import sim.engine.*;
+
+/**
+ * Records a frame (see {@link FrameFormat}) of the simulation's state
+ * every timestep to a file, for replaying later without re-running the
+ * simulation (see {@link FrameRecording} and {@link ReplayViewer}). The
+ * file holds exactly what a {@link FramePublisher} would send a viewer
+ * connecting at the start: the scene, then one frame per timestep. Every
+ * {@link #KEY_INTERVAL}th frame (starting with the first) is a key frame,
+ * so that a replay can seek to any timestep by decoding at most that many
+ * frames.
+ * <p>
+ * The FrameRecorder runs, with the {@link StatsPrinter}, near the end of
+ * each timestep.
+ */
+class FrameRecorder implements Steppable {
+
+    /** The number of frames from one key frame to the next. */
+    static final int KEY_INTERVAL = 64;
+
+    private String path;
+    private DataOutputStream out;
+    private FrameEncoder encoder;
+    private int numFrames;
+
+    /**
+     * Start recording, into the file at the path passed (which is
+     * replaced), the (started) simulation passed.
+     */
+    FrameRecorder(String path, HumanTrafficking world) throws IOException {
+        this.path = path;
+        FrameFormat.Scene scene = FrameFormat.describe(world);
+        out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(path), 1 << 16));
+        FrameFormat.writeScene(scene, out);
+        encoder = new FrameEncoder(scene);
+    }
+
+    /**
+     * Record this timestep's frame.
+     * @param state the HumanTrafficking simulation.
+     */
+    public void step(SimState state) {
+        encoder.capture((HumanTrafficking) state);
+        byte type = numFrames % KEY_INTERVAL == 0 ? FrameFormat.KEY_FRAME :
+            FrameFormat.DELTA_FRAME;
+        try {
+            out.write(encoder.encode(type));
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(
+                "Could not record frames to " + path, e);
+        }
+        encoder.advance();
+        numFrames++;
+    }
+
+    /**
+     * Return the number of frames recorded so far.
+     */
+    int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Write out any frames not yet written, and close the file.
+     */
+    void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(
+                "Could not record frames to " + path, e);
+        }
+    }
+}
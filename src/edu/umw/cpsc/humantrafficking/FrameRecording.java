@@ -0,0 +1,195 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A recording of a simulation's frames (see {@link FrameRecorder}), opened
+ * for random access. The file is memory-mapped, and opening it reads only
+ * the scene and each frame's length and type (to find where every frame,
+ * and every key frame, begins); frames are decoded only when {@link
+ * #seek}ed to. Seeking forward decodes just the frames in between (or,
+ * if there is a key frame among them, those from it on); seeking backward
+ * decodes from the last key frame at or before the one sought.
+ * <p>
+ * A recording cut short (say, by a crash) is read up to its last complete
+ * frame. Recordings larger than 2 GB cannot be opened.
+ */
+public class FrameRecording implements java.io.Closeable {
+
+    private RandomAccessFile file;
+    private MappedByteBuffer map;
+    private FrameFormat.Scene scene;
+    private FrameDecoder decoder;
+
+    // Where each frame (its length) begins, and the numbers of the frames
+    //   that are key frames, in order.
+    private int[] offsets = new int[1024];
+    private int numFrames;
+    private int[] keyFrames = new int[64];
+    private int numKeyFrames;
+
+    // The frame the decoder holds (or -1, for none).
+    private int current = -1;
+    private byte[] buf = new byte[256];
+
+    /**
+     * Open the recording at the path passed.
+     * @throws IOException if the file cannot be read, does not begin with
+     * a scene, or is too large.
+     */
+    public FrameRecording(String path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        FileChannel channel = file.getChannel();
+        if (channel.size() > Integer.MAX_VALUE) {
+            file.close();
+            throw new IOException("Recording too large to map: " + path);
+        }
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        final ByteBuffer in = map.duplicate();
+        scene = FrameFormat.readScene(new DataInputStream(new InputStream() {
+            public int read() {
+                return in.hasRemaining() ? in.get() & 0xFF : -1;
+            }
+        }));
+        decoder = new FrameDecoder(scene);
+
+        int pos = in.position();
+        int limit = map.limit();
+        while (limit - pos >= 5) {
+            int length = map.getInt(pos);
+            if (length < 1 || length > limit - pos - 4) {
+                break;
+            }
+            if (numFrames == offsets.length) {
+                offsets = java.util.Arrays.copyOf(offsets, 2 * numFrames);
+            }
+            if (map.get(pos + 4) == FrameFormat.KEY_FRAME) {
+                if (numKeyFrames == keyFrames.length) {
+                    keyFrames = java.util.Arrays.copyOf(keyFrames,
+                        2 * numKeyFrames);
+                }
+                keyFrames[numKeyFrames++] = numFrames;
+            }
+            offsets[numFrames++] = pos;
+            pos += 4 + length;
+        }
+    }
+
+    /**
+     * Return the scene of this recording.
+     */
+    public FrameFormat.Scene getScene() {
+        return scene;
+    }
+
+    /**
+     * Return the number of frames (timesteps) recorded.
+     */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Return the number of the frame last sought (or -1, if none has
+     * been).
+     */
+    public int getFrameNumber() {
+        return current;
+    }
+
+    /**
+     * Decode the frame with the number passed (counting from 0), and
+     * return the decoder holding its state. (The decoder is this
+     * recording's own, and holds the state of whichever frame was sought
+     * last.)
+     * @throws IndexOutOfBoundsException if there is no such frame, or no
+     * key frame at or before it.
+     */
+    public FrameDecoder seek(int frame) {
+        if (frame < 0 || frame >= numFrames) {
+            throw new IndexOutOfBoundsException("No frame " + frame +
+                " of " + numFrames);
+        }
+        int key = lastKeyFrame(frame);
+        if (key < 0) {
+            throw new IndexOutOfBoundsException("No key frame before " +
+                frame);
+        }
+        int from = current >= key && current <= frame ? current + 1 : key;
+        for (int i=from; i<=frame; i++) {
+            decode(i);
+        }
+        current = frame;
+        return decoder;
+    }
+
+    // Return the number of the last key frame at or before the frame
+    //   passed (or -1, if there is none).
+    private int lastKeyFrame(int frame) {
+        int lo = 0;
+        int hi = numKeyFrames - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyFrames[mid] <= frame) {
+                found = keyFrames[mid];
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private void decode(int frame) {
+        int length = map.getInt(offsets[frame]);
+        if (length > buf.length) {
+            buf = new byte[length];
+        }
+        ByteBuffer in = map.duplicate();
+        in.position(offsets[frame] + 4);
+        in.get(buf, 0, length);
+        decoder.decode(buf, 0);
+    }
+
+    /**
+     * Return the number of the first frame of the year and timestep (within
+     * the year) passed, or later; or {@link #getNumFrames} if every frame
+     * is earlier. Only each frame's year and timestep are decoded.
+     */
+    public int findFrame(int year, int step) {
+        int lo = 0;
+        int hi = numFrames;
+        int[] pos = new int[1];
+        byte[] header = new byte[11];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            ByteBuffer in = map.duplicate();
+            in.position(offsets[mid] + 4);
+            in.get(header, 0, Math.min(header.length, in.remaining()));
+            pos[0] = 1;
+            int frameYear = FrameFormat.getVarint(header, pos);
+            int frameStep = FrameFormat.getVarint(header, pos);
+            if (frameYear < year || frameYear == year && frameStep < step) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Close the recording's file. (The mapping is released when this
+     * recording is garbage-collected.)
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,211 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+/**
+ * A lightweight viewer, run in its own process, for a simulation that is
+ * publishing frames (see {@link FramePublisher}). It draws each location
+ * as a circle whose area is proportional to its number of victims (with
+ * a ring for its escapees), and each route as a line whose width grows
+ * with the number of victims moved along it that timestep. Frames are
+ * read as fast as they arrive; the display simply shows the latest.
+ * <p>
+ * From the command line:
+ * <pre>
+ *   java edu.umw.cpsc.humantrafficking.FrameViewer [host] port [-text]
+ * </pre>
+ * With <code>-text</code>, no window is opened; instead, a line of totals
+ * is printed for each frame.
+ */
+public class FrameViewer {
+
+    /**
+     * A panel drawing the state last shown to it.
+     */
+    public static class MapPanel extends JPanel {
+
+        private static final int MARGIN = 40;
+
+        private FrameFormat.Scene scene;
+        private int[] victims;
+        private int[] escapees;
+        private int[] flows;
+        private String caption = "";
+
+        /**
+         * Create a panel for frames of the scene passed.
+         */
+        public MapPanel(FrameFormat.Scene scene) {
+            this.scene = scene;
+            victims = new int[scene.names.length];
+            escapees = new int[scene.names.length];
+            flows = new int[scene.routeSources.length];
+            setPreferredSize(new java.awt.Dimension(900, 700));
+            setBackground(Color.WHITE);
+        }
+
+        /**
+         * Copy the state held by the decoder passed, and redraw. May be
+         * called from any thread.
+         */
+        public void show(FrameDecoder decoder) {
+            synchronized (this) {
+                for (int id=0; id<victims.length; id++) {
+                    victims[id] = decoder.getVictims(id);
+                    escapees[id] = decoder.getEscapees(id);
+                }
+                for (int i=0; i<flows.length; i++) {
+                    flows[i] = decoder.getFlow(i);
+                }
+                caption = decoder.getYear() + (scene.stepsPerYear == 1 ? "" :
+                    ", step " + (decoder.getStep() + 1) + " of " +
+                    scene.stepsPerYear);
+            }
+            repaint();
+        }
+
+        protected synchronized void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+
+            double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int id=0; id<victims.length; id++) {
+                minX = Math.min(minX, scene.longitudes[id]);
+                maxX = Math.max(maxX, scene.longitudes[id]);
+                minY = Math.min(minY, scene.latitudes[id]);
+                maxY = Math.max(maxY, scene.latitudes[id]);
+            }
+            double scale = Math.min(
+                (getWidth() - 2*MARGIN) / Math.max(maxX - minX, 1e-9),
+                (getHeight() - 2*MARGIN) / Math.max(maxY - minY, 1e-9));
+            int[] xs = new int[victims.length];
+            int[] ys = new int[victims.length];
+            for (int id=0; id<victims.length; id++) {
+                xs[id] = MARGIN + (int) ((scene.longitudes[id] - minX) * scale);
+                ys[id] = getHeight() - MARGIN -
+                    (int) ((scene.latitudes[id] - minY) * scale);
+            }
+
+            g2.setColor(Color.GRAY);
+            for (int i=0; i<flows.length; i++) {
+                g2.setStroke(new BasicStroke(
+                    1 + (float) Math.log1p(flows[i])));
+                int from = scene.routeSources[i];
+                int via = scene.routeTransits[i];
+                int to = scene.routeDestinations[i];
+                if (via >= 0) {
+                    g2.drawLine(xs[from], ys[from], xs[via], ys[via]);
+                    from = via;
+                }
+                g2.drawLine(xs[from], ys[from], xs[to], ys[to]);
+            }
+
+            g2.setStroke(new BasicStroke(2));
+            for (int id=0; id<victims.length; id++) {
+                int r = 3 + (int) Math.sqrt(victims[id]);
+                int e = r + (int) Math.sqrt(escapees[id]);
+                g2.setColor(Color.ORANGE);
+                g2.drawOval(xs[id] - e, ys[id] - e, 2*e, 2*e);
+                g2.setColor(Color.RED);
+                g2.fillOval(xs[id] - r, ys[id] - r, 2*r, 2*r);
+                g2.setColor(Color.BLACK);
+                g2.drawString(scene.names[id] + " (" + victims[id] + ")",
+                    xs[id] + r + 2, ys[id] - r - 2);
+            }
+            g2.drawString(caption, MARGIN / 2, MARGIN / 2);
+        }
+    }
+
+    /**
+     * Connect to a publishing simulation, and display its frames until it
+     * finishes.
+     */
+    public static void main(String[] args) throws IOException {
+        java.util.ArrayList<String> place = new java.util.ArrayList<String>();
+        boolean text = false;
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-text")) {
+                text = true;
+            } else {
+                place.add(args[i]);
+            }
+        }
+        if (place.size() < 1 || place.size() > 2) {
+            throw new IllegalArgumentException(
+                "Usage: FrameViewer [host] port [-text]");
+        }
+        String host = place.size() == 2 ? place.get(0) : "localhost";
+        int port = Integer.parseInt(place.get(place.size() - 1));
+
+        Socket socket = new Socket(host, port);
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream()));
+        final FrameFormat.Scene scene = FrameFormat.readScene(in);
+        FrameDecoder decoder = new FrameDecoder(scene);
+
+        MapPanel panel = null;
+        if (!text) {
+            final MapPanel p = new MapPanel(scene);
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    JFrame frame = new JFrame(
+                        "Human Trafficking simulation -- live");
+                    frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                    frame.setContentPane(p);
+                    frame.pack();
+                    frame.setVisible(true);
+                }
+            });
+            panel = p;
+        }
+
+        try {
+            while (true) {
+                if (!decoder.readFrame(in)) {
+                    continue;
+                }
+                if (panel != null) {
+                    panel.show(decoder);
+                } else {
+                    printTotals(decoder);
+                }
+            }
+        } catch (EOFException e) {
+            // (The simulation has finished.)
+        } finally {
+            socket.close();
+        }
+    }
+
+    static void printTotals(FrameDecoder decoder) {
+        FrameFormat.Scene scene = decoder.getScene();
+        int victims = 0;
+        int escapees = 0;
+        int flow = 0;
+        for (int id=0; id<scene.names.length; id++) {
+            victims += decoder.getVictims(id);
+            escapees += decoder.getEscapees(id);
+        }
+        for (int i=0; i<scene.routeSources.length; i++) {
+            flow += decoder.getFlow(i);
+        }
+        System.out.println(decoder.getYear() + " " + decoder.getStep() +
+            " victims=" + victims + " escapees=" + escapees +
+            " moved=" + flow);
+    }
+}
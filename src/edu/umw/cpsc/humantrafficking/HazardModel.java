@@ -0,0 +1,186 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * The per-timestep probabilities ("hazards") with which each victim
+ * escapes, retires, and (once escaped) is reacquired. Each is the model's
+ * annual probability (see {@link Parameters}; for retirement, a linear
+ * function of age) multiplied by a factor for each of the victim's
+ * {@link VictimAttributes} and for her location, then converted to the
+ * timestep (see {@link HumanTrafficking#perStep}). All factors are 1
+ * unless the scenario file's <code>Hazards:</code> section says otherwise
+ * (see {@link #readFactor}).
+ * <p>
+ * So that the per-victim pass needs neither arithmetic nor branches for
+ * this, the hazards are looked up in tables, indexed by location, and then
+ * by combination of attributes and age (0 through {@link
+ * PopulationPyramid#MAX_AGE}; older victims use the last). A location's
+ * tables are computed when first needed, and recomputed after the
+ * parameters change; locations without victims never have any.
+ */
+class HazardModel implements java.io.Serializable {
+
+    /** The hazard of escaping. */
+    static final int ESCAPE = 0;
+
+    /** The hazard of retiring. */
+    static final int RETIRE = 1;
+
+    /** The hazard of an escapee being reacquired. */
+    static final int REACQUIRE = 2;
+
+    /** The name of each hazard, as used in the scenario file. */
+    static final String[] HAZARD_NAMES = { "escape", "retire",
+        "reacquire" };
+
+    private static final int AGES = PopulationPyramid.MAX_AGE + 1;
+
+    // The factors for each hazard: by education level, religion, and
+    //   location, and for having been reacquired.
+    private double[][] educationFactors;
+    private double[][] religionFactors;
+    private double[][] locationFactors;
+    private double[] reacquiredFactors;
+
+    // Indexed by hazard, then location id, then (attributes * AGES + age).
+    //   Null until needed.
+    private double[][][] tables;
+
+    // The largest hazard in each location's table, by hazard.
+    private double[][] maxima;
+
+    /**
+     * Create a model, with all factors 1, for the number of locations
+     * passed.
+     */
+    HazardModel(int numLocations) {
+        int n = HAZARD_NAMES.length;
+        educationFactors = ones(n, VictimAttributes.EDUCATION_LEVELS.length);
+        religionFactors = ones(n, VictimAttributes.RELIGIONS.length);
+        locationFactors = ones(n, numLocations);
+        reacquiredFactors = ones(1, n)[0];
+        tables = new double[n][numLocations][];
+        maxima = new double[n][numLocations];
+    }
+
+    private static double[][] ones(int rows, int columns) {
+        double[][] a = new double[rows][columns];
+        for (double[] row : a) {
+            java.util.Arrays.fill(row, 1.0);
+        }
+        return a;
+    }
+
+    /**
+     * Set one factor from a line of the scenario file's
+     * <code>Hazards:</code> section. Each line has four comma-separated
+     * fields: the hazard (<code>escape</code>, <code>retire</code> or
+     * <code>reacquire</code>); the attribute (<code>education</code>,
+     * <code>religion</code>, <code>reacquired</code>, or
+     * <code>location</code>); its value (a name from {@link
+     * VictimAttributes#EDUCATION_LEVELS} or {@link
+     * VictimAttributes#RELIGIONS}, <code>yes</code>, or a location's name);
+     * and the factor. For example:
+     * <pre>
+     *   escape,education,tertiary,1.5
+     *   reacquire,reacquired,yes,2
+     *   retire,location,Thailand,0.8
+     * </pre>
+     * @throws IllegalArgumentException if the line is malformed.
+     */
+    void readFactor(String line, HumanTrafficking world) {
+        String[] fields = line.split(",");
+        if (fields.length != 4) {
+            throw new IllegalArgumentException("Bad hazard: " + line);
+        }
+        int hazard = VictimAttributes.codeOf(HAZARD_NAMES, fields[0].trim());
+        String attribute = fields[1].trim();
+        String value = fields[2].trim();
+        double factor = Double.parseDouble(fields[3].trim());
+        if (attribute.equals("education")) {
+            educationFactors[hazard][VictimAttributes.codeOf(
+                VictimAttributes.EDUCATION_LEVELS, value)] = factor;
+        } else if (attribute.equals("religion")) {
+            religionFactors[hazard][VictimAttributes.codeOf(
+                VictimAttributes.RELIGIONS, value)] = factor;
+        } else if (attribute.equals("reacquired") && value.equals("yes")) {
+            reacquiredFactors[hazard] = factor;
+        } else if (attribute.equals("location") &&
+                world.getLocations().containsKey(value)) {
+            locationFactors[hazard][world.getLocations().get(value).getId()] =
+                factor;
+        } else {
+            throw new IllegalArgumentException("Bad hazard: " + line);
+        }
+        reset();
+    }
+
+    /**
+     * Forget every table, so that each is recomputed (with the current
+     * parameters) when next needed.
+     */
+    void reset() {
+        for (double[][] byLocation : tables) {
+            java.util.Arrays.fill(byLocation, null);
+        }
+    }
+
+    /**
+     * Return the probability, this timestep, of the hazard passed, for a
+     * victim with the attributes and age passed at the location passed.
+     */
+    double get(int hazard, int locationId, int attributes, int age) {
+        double[] table = tables[hazard][locationId];
+        if (table == null) {
+            table = computeTable(hazard, locationId);
+        }
+        return table[(attributes & 0xFF) * AGES +
+            Math.max(0, Math.min(AGES - 1, age))];
+    }
+
+    /**
+     * Return the largest probability, this timestep, of the hazard passed
+     * for any victim at the location passed.
+     */
+    double getMax(int hazard, int locationId) {
+        if (tables[hazard][locationId] == null) {
+            computeTable(hazard, locationId);
+        }
+        return maxima[hazard][locationId];
+    }
+
+    private double[] computeTable(int hazard, int locationId) {
+        HumanTrafficking world = HumanTrafficking.instance();
+        Parameters p = world.getParameters();
+        double[] table = new double[VictimAttributes.COMBINATIONS * AGES];
+        double max = 0;
+        for (int a=0; a<VictimAttributes.COMBINATIONS; a++) {
+            int education = VictimAttributes.getEducationLevel(a);
+            int religion = VictimAttributes.getReligion(a);
+            if (religion >= VictimAttributes.RELIGIONS.length) {
+                continue;
+            }
+            double factor = educationFactors[hazard][education] *
+                religionFactors[hazard][religion] *
+                locationFactors[hazard][locationId];
+            if (VictimAttributes.isReacquired(a)) {
+                factor *= reacquiredFactors[hazard];
+            }
+            for (int age=0; age<AGES; age++) {
+                double annual;
+                if (hazard == ESCAPE) {
+                    annual = p.getProbEscape();
+                } else if (hazard == RETIRE) {
+                    annual = p.getRetireProbIntercept() +
+                        age * p.getRetireProbSlope();
+                } else {
+                    annual = p.getProbReacquireVictim();
+                }
+                table[a * AGES + age] = world.perStep(annual * factor);
+                max = Math.max(max, table[a * AGES + age]);
+            }
+        }
+        tables[hazard][locationId] = table;
+        maxima[hazard][locationId] = max;
+        return table;
+    }
+}
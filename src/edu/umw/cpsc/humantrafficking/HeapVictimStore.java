@@ -0,0 +1,66 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * A {@link VictimStore} holding its records in primitive arrays on the
+ * Java heap (one array per field).
+ */
+class HeapVictimStore extends VictimStore {
+
+    private int[] birthYears = new int[1024];
+    private int[] locationIds = new int[1024];
+    private byte[] statuses = new byte[1024];
+    private byte[] attributes = new byte[1024];
+    private long[] keys = new long[1024];
+
+    protected void ensureCapacity(int capacity) {
+        if (capacity <= birthYears.length) {
+            return;
+        }
+        int newLength = Math.max(capacity, 2 * birthYears.length);
+        birthYears = java.util.Arrays.copyOf(birthYears, newLength);
+        locationIds = java.util.Arrays.copyOf(locationIds, newLength);
+        statuses = java.util.Arrays.copyOf(statuses, newLength);
+        attributes = java.util.Arrays.copyOf(attributes, newLength);
+        keys = java.util.Arrays.copyOf(keys, newLength);
+    }
+
+    public int getBirthYear(int slot) {
+        return birthYears[slot];
+    }
+
+    public void setBirthYear(int slot, int birthYear) {
+        birthYears[slot] = birthYear;
+    }
+
+    public int getLocationId(int slot) {
+        return locationIds[slot];
+    }
+
+    public void setLocationId(int slot, int locationId) {
+        locationIds[slot] = locationId;
+    }
+
+    public byte getStatus(int slot) {
+        return statuses[slot];
+    }
+
+    public void setStatus(int slot, byte status) {
+        statuses[slot] = status;
+    }
+
+    public byte getAttributes(int slot) {
+        return attributes[slot];
+    }
+
+    public void setAttributes(int slot, byte attributes) {
+        this.attributes[slot] = attributes;
+    }
+
+    public long getKey(int slot) {
+        return keys[slot];
+    }
+
+    public void setKey(int slot, long key) {
+        keys[slot] = key;
+    }
+}
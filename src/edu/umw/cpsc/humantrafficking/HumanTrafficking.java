@@ -1,5 +1,6 @@
 package edu.umw.cpsc.humantrafficking;
 
+import ec.util.MersenneTwisterFast;
 import sim.engine.*;
 import sim.field.continuous.*;
 import java.util.Hashtable;
@@ -19,6 +20,12 @@ import java.util.Enumeration;
  * <ul>
  *   <li>The time for this simulation is in <i>years</i>. (<i>i.e.</i>, if 
  *     the current time step is 0.5, that represents July 1st, 2013.)</li>
+ *   <li>Each year is divided into {@link #getStepsPerYear} equal timesteps
+ *     (by default, just one). Everything described below as happening 
+ *     "once per year" actually happens once per timestep, at the
+ *     corresponding point <i>within</i> the timestep, using per-step
+ *     probabilities derived from the model's annual ones (see {@link
+ *     #perStep}).</li>
  *   <li>This object will run once per year, on Dec. 31st, incrementing the
  *     value of getYear() so that objects scheduled to run immediately
  *     hereafter will see the new year.</li>
@@ -29,25 +36,147 @@ public class HumanTrafficking extends SimState implements Steppable {
 
     private static HumanTrafficking theInstance;
 
+    // Simulations created for batch runs are bound to the thread running
+    //   them, so that several of them can be run (one after another, or
+    //   side by side) in one JVM without touching the shared instance.
+    private static final ThreadLocal<HumanTrafficking> boundInstance =
+        new ThreadLocal<HumanTrafficking>();
+
+    // Where each victim is drawn. Only used when a GUI is displaying the
+    //   simulation; otherwise victims are never put in it.
     Continuous2D victimsField = new Continuous2D(.1, 800, 600);
 
-    private int year = 2013;
+    /**
+     * The calendar year in which every simulation begins.
+     */
+    public static final int FIRST_YEAR = 2013;
+
+    private int year = FIRST_YEAR;
     private static final String ROUTE_FILE = "routes.txt";
 
+    private String scenarioFile = ROUTE_FILE;
+    private String outputDirectory = StatsPrinter.OUTPUT_DIRECTORY;
+    private boolean verbose = true;
+    // Whether a GUI is displaying this simulation, and the stream from
+    //   which victims' on-screen offsets are drawn (so that drawing them
+    //   does not change the model's results).
+    private boolean displayed;
+    private MersenneTwisterFast displayRandom;
+    private StatsPrinter statsPrinter;
+    private String victimStorage = "heap";
+    private VictimStore victimStore;
+    private Parameters parameters = Parameters.DEFAULTS;
+
+    // The local port on which frames are published to viewers (or -1, for
+    //   none).
+    private int framePort = -1;
+    private transient FramePublisher framePublisher;
+    // The file into which frames are recorded (or null, for none).
+    private String recordFile;
+    private transient FrameRecorder frameRecorder;
+    // The JDBC URL of the database into which statistics are written (or
+    //   null, for none).
+    private String databaseUrl;
+    private transient StatsDatabase statsDatabase;
+    private double traceRate = 0;
+    private TrajectoryTracer tracer;
+    private FlowMatrix flows;
+
+    // In common-random-numbers mode, the keyed streams from which the
+    //   model's main decisions are drawn (or null, if they come from
+    //   random).
+    private boolean commonRandomNumbers;
+    private RandomStreams streams;
+
+    // With more than one victim thread, victims are run by the victimPass
+    //   rather than stepping themselves.
+    private int victimThreads = 1;
+    private VictimPass victimPass;
+
+    // For distributed runs: which of how many partitions this process
+    //   simulates, and where victims bound for other partitions go.
+    private int partitionIndex = 0;
+    private int numPartitions = 1;
+    private VictimExchange exchange;
+
+    private int stepsPerYear = 1;
+    private int stepOfYear = 0;
+
+    // The fixed points within each timestep (as fractions of the step) at
+    //   which each Phase runs. With one step per year, these are Jan. 1st,
+    //   July 1st, Dec. 30th and Dec. 31st.
+    private static final double ROUTE_PHASE_OFFSET = 0;
+    private static final double VICTIM_PHASE_OFFSET = 0.5;
+    private static final double STATS_PHASE_OFFSET = 363.0/365.0;
+    private static final double YEAR_END_PHASE_OFFSET = 364.0/365.0;
+
+    private Phase routePhase;
+    private Phase locationPhase;
+    private Phase victimPhase;
+    private Phase statsPhase;
+    private Phase yearEndPhase;
+
     private Hashtable<String,Location> locations = 
         new Hashtable<String, Location> ();
     private ArrayList<Route> routes = new ArrayList<Route> ();
+    // The routes from the Routes: section, which open at the start, come
+    //   first; any others are opened by the RouteChanges.
+    private int numInitialRoutes;
+    private RouteChanges routeChanges;
+    private ArrayList<Location> locationsById = new ArrayList<Location> ();
+    private Hashtable<String,ArrayList<Location>> countries =
+        new Hashtable<String,ArrayList<Location>> ();
+    private LocationIndex locationIndex;
+    private DemandModel demandModel;
+    private HazardModel hazardModel;
 
     /**
-     * Singleton pattern.
+     * Singleton pattern. If the calling thread is running a simulation
+     * created by {@link #newBoundInstance}, that simulation is returned
+     * instead of the shared one.
      */
-    public static synchronized HumanTrafficking instance(){
+    public static HumanTrafficking instance(){
+        HumanTrafficking bound = boundInstance.get();
+        if (bound != null) {
+            return bound;
+        }
+        return sharedInstance();
+    }
+
+    private static synchronized HumanTrafficking sharedInstance(){
         if (theInstance == null) {
             theInstance = new HumanTrafficking(0);
         }
         return theInstance;
     }
 
+    /**
+     * Create a fresh simulation with the seed passed, and bind it to the
+     * calling thread, so that {@link #instance} returns it (on this thread
+     * only) until {@link #unbindInstance} is called.
+     */
+    static HumanTrafficking newBoundInstance(long seed){
+        HumanTrafficking sim = new HumanTrafficking(seed);
+        bindInstance(sim);
+        return sim;
+    }
+
+    /**
+     * Bind an existing simulation (<i>e.g.</i>, one forked from a {@link
+     * BranchPoint}) to the calling thread, as {@link #newBoundInstance}
+     * does a new one.
+     */
+    static void bindInstance(HumanTrafficking sim){
+        boundInstance.set(sim);
+    }
+
+    /**
+     * Undo {@link #newBoundInstance} for the calling thread.
+     */
+    static void unbindInstance(){
+        boundInstance.remove();
+    }
+
     private void incrementYear() { 
         year++; 
     }
@@ -66,42 +195,132 @@ public class HumanTrafficking extends SimState implements Steppable {
      *  <li>When routes run, they will acquire {@link Victim}s, and those
      *  victims will run on July 1st of every year.</li> 
      *  </ul></li>
-     * <li>The {@link StatsPrinter} will run on Dec. 30th of every year.</li>
+     * <li>Each {@link Location} on a route will run on Jan 1st of every
+     * year, right after all routes have run.</li>
+     * <li>The {@link StatsPrinter} (and, if frames are being published,
+     * the {@link FramePublisher}) will run on Dec. 30th of every year.</li>
      * <li>This object itself will run on Dec. 31st of every year.</li>
      * </ul>
+     * None of these objects is on the MASON schedule individually.
+     * Instead, each of the points in the year above is a {@link Phase},
+     * scheduled once to repeat every timestep, and the objects that run at
+     * that point join it. The schedule therefore holds just five entries,
+     * however many routes and victims there are, and each Phase runs its
+     * participants in one sweep, in the order they joined.
      */
     public void start(){
         super.start();
+        year = FIRST_YEAR;
+        stepOfYear = 0;
 
-        System.out.println("Loading route data...");
+        log("Loading route data...");
         try {
             loadRouteData();
         } catch (java.io.IOException e) {
-            e.printStackTrace();
-            System.out.println("Could not load route file " + ROUTE_FILE +
-                    "?");
-            System.exit(1);
+            throw new java.io.UncheckedIOException(
+                "Could not load route file " + scenarioFile + "?", e);
+        }
+        if (numPartitions > 1) {
+            assignPartitions();
+        }
+        try {
+            closeVictimStore();
+            victimStore = VictimStore.create(victimStorage);
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(
+                "Could not create victim store " + victimStorage, e);
+        }
+        log("----------------------------------------------");
+
+        statsPrinter = new StatsPrinter(outputDirectory);
+        tracer = new TrajectoryTracer(this, traceRate, outputDirectory);
+        flows = new FlowMatrix();
+        streams = commonRandomNumbers ? new RandomStreams(seed()) : null;
+        displayRandom = new MersenneTwisterFast(
+            RandomStreams.deriveSeed(seed(), RandomStreams.JITTER));
+        closeFramePublisher();
+        if (framePort >= 0) {
+            try {
+                framePublisher = new FramePublisher(framePort, this);
+            } catch (java.io.IOException e) {
+                throw new java.io.UncheckedIOException(
+                    "Could not publish frames on port " + framePort, e);
+            }
+            log("Publishing frames on port " + framePublisher.getPort());
+        }
+        closeFrameRecorder();
+        if (recordFile != null) {
+            try {
+                frameRecorder = new FrameRecorder(recordFile, this);
+            } catch (java.io.IOException e) {
+                throw new java.io.UncheckedIOException(
+                    "Could not record frames to " + recordFile, e);
+            }
+            log("Recording frames to " + recordFile);
         }
-        System.out.println("----------------------------------------------");
+        closeStatsDatabase();
+        if (databaseUrl != null) {
+            try {
+                statsDatabase = new StatsDatabase(databaseUrl, this,
+                    statsPrinter);
+            } catch (java.sql.SQLException e) {
+                throw new IllegalStateException(
+                    "Could not write statistics to " + databaseUrl, e);
+            }
+            log("Writing statistics to " + databaseUrl + " as run " +
+                statsDatabase.getRun());
+        }
+
+        log("Performing initial scheduling...");
+        // Put the (initially empty) Phases on the schedule. (Victims will
+        //   join theirs as they are acquired.)
+        schedulePhases();
 
-        System.out.println("Performing initial scheduling...");
         // Schedule every route to run immediately when the simulation
         //   begins (i.e., January 1st of 2013.)
         scheduleRoutes();
 
+        // Apply any changes to the route network dated this year (or
+        //   earlier).
+        routeChanges.applyThrough(year, this);
+
         // Schedule this object to run on Dec. 31st of 2013.
         scheduleSelf();
 
 
         // Schedule the StatsPrinter to run on Dec. 30th of 2013.
         scheduleStatsPrinter();
-        System.out.println("==============================================");
-        System.out.println("It's now " + year + ".");
+        log("==============================================");
+        log("It's now " + year + ".");
+    }
+
+    /**
+     * Create each Phase and schedule it to repeat every timestep, starting
+     * at its point within the first one.
+     **/
+    private void schedulePhases() {
+        routePhase = schedulePhase(ROUTE_PHASE_OFFSET, 0);
+        locationPhase = schedulePhase(ROUTE_PHASE_OFFSET, 1);
+        victimPhase = schedulePhase(VICTIM_PHASE_OFFSET, 0);
+        statsPhase = schedulePhase(STATS_PHASE_OFFSET, 0);
+        yearEndPhase = schedulePhase(YEAR_END_PHASE_OFFSET, 0);
+        if (victimPass != null) {
+            victimPass.shutdown();
+        }
+        victimPass = victimThreads > 1 ?
+            new VictimPass(victimThreads, seed()) : null;
+        if (victimPass != null) {
+            victimPhase.add(victimPass);
+        }
     }
 
-    private void sceduleStatsPrinter(){
-        schedule.scheduleOnce(364.0/365.0, StatsPrinter.instance());
-        schedule.scheduleOnceIn(1, StatsPrinter.instance());
+    // (Of two Phases at the same time, the one with the lower ordering
+    //   runs first.)
+    private Phase schedulePhase(double offset, int ordering) {
+        Phase phase = new Phase();
+        schedule.scheduleRepeating(getStepLength() * offset, ordering, phase,
+            getStepLength());
+        return phase;
     }
 
     /**
@@ -110,36 +329,48 @@ public class HumanTrafficking extends SimState implements Steppable {
      * after that. 
      **/
     private void scheduleRoutes() {
-        // All routes are scheduled to step at the beginning of Jan. 1st,
-        //   2013. They will schedule themselves each succeeding year from 
-        //   there.
-        for (int i=0; i<routes.size(); i++) {
-            schedule.scheduleOnce(0,routes.get(i));
+        // The demand model goes first, so that every route sees this
+        //   timestep's demand.
+        routePhase.add(demandModel);
+
+        // All routes join the Phase that runs at the beginning of Jan. 1st,
+        //   so they will step on Jan. 1st, 2013 and each succeeding year
+        //   from there.
+        for (int i=0; i<numInitialRoutes; i++) {
+            routes.get(i).open();
+        }
+
+        // Every (local) location on a route runs right after all the 
+        //   routes.
+        for (int i=0; i<locationsById.size(); i++) {
+            if (locationsById.get(i).isOnRoute() &&
+                    locationsById.get(i).isLocal()) {
+                locationPhase.add(locationsById.get(i));
+            }
         }
     }    
 
     /**
-     * Run this simulation "headless"; <i>i.e.</i>, without a GUI.
+     * Run this simulation "headless"; <i>i.e.</i>, without a GUI, using
+     * MASON's standard command-line options. (See {@link BatchRunner} for
+     * a simpler entry point suitable for scripted and embedded runs.)
      */
     public static void main(String[] args) throws Exception {
         doLoop(new MakesSimState() {
             public SimState newInstance(long seed, String[] args) {
-                // you should actually be passing a seed here.
-                return HumanTrafficking.instance(); 
+                return HumanTrafficking.newBoundInstance(seed); 
             }
 
             public Class simulationClass() {
                 return HumanTrafficking.class;
             }
         }, args);
-
-        System.exit(0);
     }
 
     // For debug only.
     private void printRouteData() {
         for (int i=0; i<routes.size(); i++) {
-            System.out.println(routes.get(i));
+            log(routes.get(i).toString());
         }
     }
 
@@ -153,115 +384,895 @@ public class HumanTrafficking extends SimState implements Steppable {
 
     }
 
+    /**
+     * Return the locations in the country named (see {@link
+     * Location#getCountry}), or null if there are none.
+     */
+    public ArrayList<Location> getLocationsInCountry(String country){
+        return countries.get(country);
+    }
+
+    /**
+     * Return the names of the countries this simulation's locations are
+     * in.
+     */
+    public java.util.Set<String> getCountries(){
+        return countries.keySet();
+    }
+
+    /**
+     * Return the spatial index of this simulation's locations, for finding
+     * the nearest location to a point, or the locations in a region.
+     */
+    public LocationIndex getLocationIndex(){
+        return locationIndex;
+    }
+
+    /**
+     * Set the path of the scenario (route) file to be read by {@link
+     * #start}. Defaults to <code>routes.txt</code> in the current
+     * directory.
+     */
+    public void setScenarioFile(String scenarioFile){
+        this.scenarioFile = scenarioFile;
+    }
+
+    /**
+     * Return the path of the scenario (route) file.
+     */
+    public String getScenarioFile(){
+        return scenarioFile;
+    }
+
+    /**
+     * Set the directory into which the {@link StatsPrinter} will write
+     * its files. Defaults to {@link StatsPrinter#OUTPUT_DIRECTORY}. Must
+     * be called before {@link #start}.
+     */
+    public void setOutputDirectory(String outputDirectory){
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Return the directory into which statistical output is written.
+     */
+    public String getOutputDirectory(){
+        return outputDirectory;
+    }
+
+    /**
+     * Choose where the records of victims are stored: one of the
+     * descriptions accepted by {@link VictimStore#create} (<i>e.g.</i>,
+     * "heap", "offheap", or "file:victims.bin"). Must be called before 
+     * {@link #start}. Defaults to "heap".
+     */
+    public void setVictimStorage(String victimStorage){
+        this.victimStorage = victimStorage;
+    }
+
+    /**
+     * Set the parameters of this simulation's model. Must be called before
+     * {@link #start}. Defaults to {@link Parameters#DEFAULTS}.
+     */
+    public void setParameters(Parameters parameters){
+        this.parameters = parameters;
+        if (hazardModel != null) {
+            hazardModel.reset();
+        }
+    }
+
+    /**
+     * Return the parameters of this simulation's model.
+     */
+    public Parameters getParameters(){
+        return parameters;
+    }
+
+    /**
+     * Return the store holding the records of every victim.
+     */
+    public VictimStore getVictimStore(){
+        return victimStore;
+    }
+
+    /**
+     * Publish a frame of this simulation's state every timestep, to
+     * viewers connecting to the local port passed (or, if 0, to any free
+     * port, which is logged). See {@link FramePublisher}. Must be called
+     * before {@link #start}. Defaults to -1: no frames are published.
+     */
+    public void setFramePort(int framePort){
+        this.framePort = framePort;
+    }
+
+    /**
+     * Record a frame of this simulation's state every timestep, into the
+     * file at the path passed, for replaying later. See {@link
+     * FrameRecorder} and {@link ReplayViewer}. Must be called before
+     * {@link #start}. Defaults to null: no frames are recorded.
+     */
+    public void setRecordFile(String recordFile){
+        this.recordFile = recordFile;
+    }
+
+    /**
+     * Write the statistics of every timestep, as a new run, into the
+     * database at the JDBC URL passed (<i>e.g.</i>,
+     * <code>jdbc:sqlite:runs.db</code>), as well as to flat files. See
+     * {@link StatsDatabase}. Must be called before {@link #start}.
+     * Defaults to null: no database is written.
+     */
+    public void setDatabaseUrl(String databaseUrl){
+        this.databaseUrl = databaseUrl;
+    }
+
+    /**
+     * Trace the trajectories of the fraction passed (from 0 to 1) of
+     * victims, chosen by hashing, into the output directory. See {@link
+     * TrajectoryTracer}. Must be called before {@link #start}. Defaults
+     * to 0: no victims are traced.
+     */
+    public void setTraceRate(double traceRate){
+        this.traceRate = traceRate;
+    }
+
+    /**
+     * Choose whether to run with common random numbers. In this mode, each
+     * route's abductions, each victim's age, escapes and retirement, and
+     * each location's immigration searches are decided by numbers drawn
+     * not from {@link #random} in turn, but from streams keyed by the
+     * route, victim or location and the timestep (see {@link
+     * RandomStreams}). Two runs with the same seed, say with and without
+     * an intervention, then make the same draws for every decision that
+     * the intervention does not change, so the difference between them
+     * is far less noisy than between runs with different seeds. (Other
+     * decisions, such as which victims move along a route, are still
+     * drawn from {@link #random}.) Must be called before {@link #start}.
+     * Defaults to false.
+     */
+    public void setCommonRandomNumbers(boolean commonRandomNumbers){
+        this.commonRandomNumbers = commonRandomNumbers;
+    }
+
+    /**
+     * Tell this simulation whether a GUI is displaying it (see {@link
+     * HumanTraffickingWithUI}). Only then are victims placed in the {@link
+     * #victimsField}. Must be called before {@link #start}. Defaults to
+     * false.
+     */
+    void setDisplayed(boolean displayed){
+        this.displayed = displayed;
+    }
+
+    /**
+     * Return whether a GUI is displaying this simulation.
+     */
+    boolean isDisplayed(){
+        return displayed;
+    }
+
+    /**
+     * Return the stream from which victims' on-screen offsets are drawn.
+     */
+    MersenneTwisterFast getDisplayRandom(){
+        return displayRandom;
+    }
+
+    /**
+     * Return whether this simulation runs with common random numbers.
+     */
+    public boolean getCommonRandomNumbers(){
+        return commonRandomNumbers;
+    }
+
+    /**
+     * Return a number, uniform on [0,1), for the decision (one of the
+     * constants of {@link RandomStreams}) and key passed: in
+     * common-random-numbers mode, from the keyed streams, and otherwise
+     * the next from {@link #random}.
+     */
+    double nextDouble(int decision, long key){
+        if (streams == null) {
+            return random.nextDouble();
+        }
+        return streams.nextDouble(decision, key, getTimestep());
+    }
+
+    /**
+     * Return a number from 0 to n-1, each equally likely, for the decision
+     * and key passed, as {@link #nextDouble(int,long)} does.
+     */
+    int nextInt(int decision, long key, int n){
+        if (streams == null) {
+            return random.nextInt(n);
+        }
+        return (int) (streams.nextDouble(decision, key, getTimestep()) * n);
+    }
+
+    /**
+     * Return a number from the standard normal distribution, for the
+     * decision and key passed, as {@link #nextDouble(int,long)} does.
+     */
+    double nextGaussian(int decision, long key){
+        if (streams == null) {
+            return random.nextGaussian();
+        }
+        return streams.nextGaussian(decision, key, getTimestep());
+    }
+
+    /**
+     * Return the number of timesteps since the start of the simulation.
+     */
+    long getTimestep(){
+        return (long) (year - FIRST_YEAR) * stepsPerYear + stepOfYear;
+    }
+
+    /**
+     * Reseed this simulation's random numbers (and, in
+     * common-random-numbers mode, its keyed streams) with the seed passed.
+     */
+    void reseed(long seed){
+        random.setSeed(seed);
+        if (streams != null) {
+            streams = new RandomStreams(seed);
+        }
+        if (victimPass != null) {
+            victimPass.reseed(seed);
+        }
+    }
+
+    /**
+     * Run victims, each timestep, on the number of threads passed (see
+     * {@link VictimPass}). With one, each victim steps herself, in turn.
+     * Must be called before {@link #start}. Defaults to 1.
+     */
+    public void setVictimThreads(int victimThreads){
+        this.victimThreads = victimThreads;
+    }
+
+    /**
+     * Return whether victims are run by a {@link VictimPass} (rather than
+     * stepping themselves).
+     */
+    boolean hasVictimPass(){
+        return victimPass != null;
+    }
+
+    /**
+     * Return the tracer recording the trajectories of sampled victims.
+     */
+    public TrajectoryTracer getTracer(){
+        return tracer;
+    }
+
+    /**
+     * Return the counts of victims moved between each pair of locations.
+     */
+    FlowMatrix getFlows(){
+        return flows;
+    }
+
+    /**
+     * End the simulation, writing out any trajectory events, frames and
+     * statistics not yet written, releasing the victim store and
+     * disconnecting any viewers.
+     */
+    public void finish(){
+        super.finish();
+        if (tracer != null) {
+            tracer.flush();
+        }
+        closeVictimStore();
+        closeFramePublisher();
+        closeFrameRecorder();
+        closeStatsDatabase();
+        if (victimPass != null) {
+            victimPass.shutdown();
+        }
+    }
+
+    private void closeStatsDatabase(){
+        if (statsDatabase != null) {
+            statsDatabase.close();
+            statsDatabase = null;
+        }
+    }
+
+    private void closeFrameRecorder(){
+        if (frameRecorder != null) {
+            frameRecorder.close();
+            frameRecorder = null;
+        }
+    }
+
+    private void closeFramePublisher(){
+        if (framePublisher != null) {
+            framePublisher.close();
+            framePublisher = null;
+        }
+    }
+
+    private void closeVictimStore(){
+        if (victimStore == null) {
+            return;
+        }
+        try {
+            victimStore.close();
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Prepare this simulation, just forked from a {@link BranchPoint}, to
+     * continue as a branch of its own: with the parameters passed, writing
+     * into the output directory passed (whose contents are deleted), and
+     * publishing and recording no frames.
+     */
+    void becomeBranch(Parameters parameters, String outputDirectory){
+        setParameters(parameters);
+        this.outputDirectory = outputDirectory;
+        statsPrinter.setOutputDirectory(outputDirectory);
+        tracer.setOutputDirectory(outputDirectory);
+        framePort = -1;
+        recordFile = null;
+        databaseUrl = null;
+    }
+
+    /**
+     * Make this simulation one partition of a distributed run (see {@link
+     * DistributedCoordinator}). The locations are divided into
+     * <code>numPartitions</code> regions of (nearly) equal size, by 
+     * longitude, and this simulation owns only region 
+     * <code>partitionIndex</code>: it acquires, moves, and runs victims 
+     * only from that region's locations, and hands victims bound for other
+     * regions to its {@link VictimExchange}. Must be called before {@link
+     * #start}.
+     */
+    public void setPartition(int partitionIndex, int numPartitions){
+        this.partitionIndex = partitionIndex;
+        this.numPartitions = numPartitions;
+    }
+
+    /**
+     * Return where victims bound for locations in other partitions go, or
+     * null if this simulation is not partitioned.
+     */
+    public VictimExchange getExchange(){
+        return exchange;
+    }
+
+    // Sort the locations by longitude and split them into contiguous
+    //   bands, one per partition. The random number stream is then set
+    //   apart from other partitions' (except for the demand model's, which
+    //   all partitions must share).
+    private void assignPartitions(){
+        ArrayList<Location> byLongitude = new ArrayList<Location>(
+            locationsById);
+        java.util.Collections.sort(byLongitude,
+            new java.util.Comparator<Location>() {
+                public int compare(Location a, Location b) {
+                    return Double.compare(a.getLong(), b.getLong());
+                }
+            });
+        for (int i=0; i<byLongitude.size(); i++) {
+            int owner = (int) ((long) i * numPartitions / byLongitude.size());
+            byLongitude.get(i).setLocal(owner == partitionIndex);
+        }
+        random.setSeed(seed() + 1000003L * (partitionIndex + 1));
+        exchange = new VictimExchange();
+    }
+
+    /**
+     * Turn the progress messages printed to standard out on or off.
+     */
+    public void setVerbose(boolean verbose){
+        this.verbose = verbose;
+    }
+
+    /**
+     * Return whether progress messages are printed to standard out.
+     */
+    public boolean isVerbose(){
+        return verbose;
+    }
+
+    /**
+     * Print a progress message to standard out, unless this simulation is
+     * running quietly.
+     */
+    void log(String message){
+        if (verbose) {
+            System.out.println(message);
+        }
+    }
+
     /** 
-     * This function reads from a text file at location {@link ROUTE_FILE}. The
+     * This function reads from the scenario file (by default,
+     * <code>routes.txt</code>; see {@link #setScenarioFile}). The
      * file contains the following information:
      *
      * <ol>
      * <li>The string <code>Locations:</code> on a line by itself.</li>
      * <li>A line for each location, containing comma-separated fields for
      * location name, lat, long, population, fraction of females, and fraction 
-     * of individuals in the age range 12-30. </li>
+     * of individuals in the age range 12-30, and optionally the name of the
+     * country the location is in (if it is, say, a city or province). </li>
      * <li>The string <code>Routes:</code> on a line by itself.</li>
      * <li>A line for each route, in the following format: source (-&gt;
      * transit) -&gt; destination. All locations (source, transit, destination)
      * in a route must have appeared previously in the "Locations:" section of
-     * the file.</li>
+     * the file. Instead of its name, a location may be given as
+     * <code>@</code><i>lat</i><code>:</code><i>long</i>, meaning the
+     * location nearest that point.</li>
+     * <li>Optionally, the string <code>Demand:</code> on a line by itself,
+     * followed by a line for each yearly or seasonal demand factor (see
+     * {@link DemandModel}).</li>
+     * <li>Optionally, the string <code>Attributes:</code> on a line by
+     * itself, followed by lines giving the distribution of an attribute of
+     * the victims abducted at a location: the location name, the attribute
+     * (<code>education</code> or <code>religion</code>), and the relative 
+     * share of each of its known values (see {@link VictimAttributes}),
+     * comma-separated.</li>
+     * <li>Optionally, the string <code>Hazards:</code> on a line by itself,
+     * followed by a line for each factor by which an attribute or location
+     * multiplies a hazard (see {@link HazardModel#readFactor}).</li>
+     * <li>Optionally, the string <code>Changes:</code> on a line by itself,
+     * followed by a line for each dated change to the route network (see
+     * {@link RouteChanges}).</li>
      * </ol>
+     * The optional sections may come in any order.
      **/
 
     private void loadRouteData() throws java.io.IOException {
         BufferedReader br = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(ROUTE_FILE)));
+                    new FileInputStream(scenarioFile)));
 
         locations = new Hashtable<String,Location>();
         routes = new ArrayList<Route>();
+        locationsById = new ArrayList<Location>();
+
+        countries = new Hashtable<String,ArrayList<Location>>();
 
+        // (Lines are split, rather than scanned, so that scenarios with
+        //   thousands of locations and routes still load quickly.)
         String line = br.readLine();  // throw away "Locations:"
         line = br.readLine();
         while (!line.equals("Routes:")) {
-            Scanner s = new Scanner(line);
-            s.useDelimiter(",");
-            String name = s.next().trim();
-            double latitude = Double.valueOf(s.next());
-            double longitude = Double.valueOf(s.next());
-            int pop = Integer.valueOf(s.next().trim());
-            double gender = Double.valueOf(s.next());
-            double ageGroup = Double.valueOf(s.next());
-            locations.put(name,new Location(name, latitude, longitude,
-                        pop, gender, ageGroup)); 
+            String[] fields = line.split(",");
+            String name = fields[0].trim();
+            double latitude = Double.parseDouble(fields[1]);
+            double longitude = Double.parseDouble(fields[2]);
+            int pop = Integer.parseInt(fields[3].trim());
+            double gender = Double.parseDouble(fields[4]);
+            double ageGroup = Double.parseDouble(fields[5]);
+            Location location = new Location(name, latitude, longitude,
+                        pop, gender, ageGroup);
+            if (fields.length > 6) {
+                location.setCountry(fields[6].trim());
+            }
+            location.setId(locationsById.size());
+            locationsById.add(location);
+            locations.put(name,location); 
+            ArrayList<Location> country = countries.get(
+                location.getCountry());
+            if (country == null) {
+                country = new ArrayList<Location>();
+                countries.put(location.getCountry(), country);
+            }
+            country.add(location);
             line = br.readLine();
         }
+        locationIndex = new LocationIndex(locationsById);
+        // (The demand noise has a stream of its own, so that it does not
+        //   repeat the numbers random draws for the rest of the model.)
+        demandModel = new DemandModel(locationsById.size(), FIRST_YEAR,
+            RandomStreams.deriveSeed(seed(), RandomStreams.DEMAND));
+        hazardModel = new HazardModel(locationsById.size());
         line = br.readLine();
-        while (line != null) {
-            Scanner s = new Scanner(line);
-            s.useDelimiter(",");
-            String locs = s.next();
-            int sourceVol = Integer.parseInt(s.next().trim());
-            int transitVol = Integer.parseInt(s.next().trim());
-            int destVol = 0;
-            try {
-                destVol = Integer.parseInt(s.next().trim());
-            } catch (java.util.NoSuchElementException e){
-                destVol = 0;
+        // (Routes are also looked up by their stops, for the Changes:
+        //   section.)
+        Hashtable<String,Route> routesByStops = new Hashtable<String,Route>();
+        while (line != null && !isSectionHeading(line)) {
+            String[] fields = line.split(",");
+            Route route = addRoute(fields[0], routesByStops);
+            int[] volumes = readVolumes(fields, 1, route);
+            route.setVolumes(volumes[0], volumes[1], volumes[2]);
+            line = br.readLine();
+        }
+        numInitialRoutes = routes.size();
+        routeChanges = new RouteChanges();
+        String section = null;
+        for ( ; line != null; line = br.readLine()) {
+            if (isSectionHeading(line)) {
+                section = line.trim();
+            } else if (line.trim().isEmpty()) {
+                continue;
+            } else if (section.equals("Demand:")) {
+                readDemand(line);
+            } else if (section.equals("Attributes:")) {
+                readAttributeShares(line);
+            } else if (section.equals("Changes:")) {
+                readRouteChange(line, routesByStops);
+            } else {
+                hazardModel.readFactor(line, this);
             }
-            s = new Scanner(locs);
-            s.useDelimiter("->");
-            String source = s.next().trim();
-            String transit = s.next().trim();
-            try {
-                String dest = s.next().trim();
-                routes.add(new Route(locations.get(source),
-                            locations.get(transit),
-                            locations.get(dest),sourceVol, transitVol, destVol));
-            } catch (java.util.NoSuchElementException e) {
-                routes.add(new Route(locations.get(source),
-                            locations.get(transit), sourceVol, transitVol));
+        }
+        br.close();
+        for (int i=0; i<routes.size(); i++) {
+            routes.get(i).setIndex(i);
+        }
+    }
+
+    // Return the route with the stops passed (as in a Routes: line),
+    //   creating it (closed, with no volumes) if there is none.
+    private Route findRoute(String stopsField,
+        Hashtable<String,Route> routesByStops) {
+        Route existing = routesByStops.get(stopsKey(stopsField));
+        return existing != null ? existing :
+            addRoute(stopsField, routesByStops);
+    }
+
+    // Create a route (closed, with no volumes) with the stops passed, and
+    //   add it to the routes.
+    private Route addRoute(String stopsField,
+        Hashtable<String,Route> routesByStops) {
+        String[] stops = stopsField.split("->");
+        Location source = findLocation(stops[0]);
+        Location transit = findLocation(stops[1]);
+        Route route = null;
+        if (stops.length > 2) {
+            Location dest = findLocation(stops[2]);
+            route = new Route(source, transit, dest, 0, 0, 0);
+        } else {
+            route = new Route(source, transit, 0, 0);
+        }
+        routes.add(route);
+        routesByStops.put(stopsKey(stopsField), route);
+        return route;
+    }
+
+    // (So that spacing does not matter.)
+    private String stopsKey(String stopsField) {
+        String key = "";
+        for (String stop : stopsField.split("->")) {
+            key += findLocation(stop).getId() + "->";
+        }
+        return key;
+    }
+
+    // Read a route's source, transit and destination volumes from the
+    //   fields passed, starting at the one passed. (A route without a
+    //   transit location has just two.)
+    private static int[] readVolumes(String[] fields, int first,
+        Route route) {
+        int sourceVol = Integer.parseInt(fields[first].trim());
+        int transitVol = Integer.parseInt(fields[first+1].trim());
+        int destVol = 0;
+        if (fields.length > first+2) {
+            destVol = Integer.parseInt(fields[first+2].trim());
+        }
+        if (route.getTransit() == null) {
+            return new int[] { sourceVol, 0, transitVol };
+        }
+        return new int[] { sourceVol, transitVol, destVol };
+    }
+
+    private void readRouteChange(String line,
+        Hashtable<String,Route> routesByStops) {
+        String[] fields = line.split(",");
+        if (fields.length < 3) {
+            throw new IllegalArgumentException("Bad route change: " + line);
+        }
+        int year = Integer.parseInt(fields[0].trim());
+        byte action = RouteChanges.actionOf(fields[1].trim());
+        Route route = findRoute(fields[2], routesByStops);
+        int[] volumes = null;
+        if (action != RouteChanges.CLOSE) {
+            if (fields.length < 5) {
+                throw new IllegalArgumentException("Bad route change: " +
+                    line);
             }
-            line = br.readLine();
+            volumes = readVolumes(fields, 3, route);
+        }
+        routeChanges.add(year, action, route, volumes);
+    }
+
+    /**
+     * Open the route passed (see {@link Route#open}), and have any of its
+     * locations that were not yet part of the network run from now on, as
+     * {@link #start} does for those of the initial routes.
+     */
+    void openRoute(Route route) {
+        Location[] stops = { route.getSource(), route.getTransit(),
+            route.getDestination() };
+        boolean[] wasOnRoute = new boolean[stops.length];
+        for (int i=0; i<stops.length; i++) {
+            wasOnRoute[i] = stops[i] == null || stops[i].isOnRoute();
+        }
+        route.open();
+        for (int i=0; i<stops.length; i++) {
+            if (!wasOnRoute[i] && stops[i].isLocal()) {
+                locationPhase.add(stops[i]);
+            }
+        }
+    }
+
+    // Return the location named in a route: either by its name, or as
+    //   "@lat:long", the location nearest that point.
+    private Location findLocation(String name) {
+        name = name.trim();
+        if (name.startsWith("@")) {
+            String[] point = name.substring(1).split(":");
+            return locationIndex.nearest(Double.parseDouble(point[0]),
+                Double.parseDouble(point[1]));
         }
+        Location location = locations.get(name);
+        if (location == null) {
+            throw new IllegalArgumentException("No location named " + name +
+                " in " + scenarioFile);
+        }
+        return location;
+    }
+
+    private static boolean isSectionHeading(String line) {
+        line = line.trim();
+        return line.equals("Demand:") || line.equals("Attributes:") ||
+            line.equals("Hazards:") || line.equals("Changes:");
+    }
 
+    private void readDemand(String line) {
+        Scanner s = new Scanner(line);
+        s.useDelimiter(",");
+        Location location = locations.get(s.next().trim());
+        String when = s.next().trim();
+        if (when.equals("seasonal")) {
+            ArrayList<Double> factors = new ArrayList<Double>();
+            while (s.hasNext()) {
+                factors.add(Double.valueOf(s.next()));
+            }
+            double[] seasons = new double[factors.size()];
+            for (int i=0; i<seasons.length; i++) {
+                seasons[i] = factors.get(i);
+            }
+            demandModel.setSeasonalFactors(location.getId(), seasons);
+        } else {
+            demandModel.setYearFactor(location.getId(),
+                Integer.parseInt(when), Double.valueOf(s.next()));
+        }
+    }
+
+    private void readAttributeShares(String line) {
+        String[] fields = line.split(",");
+        if (fields.length < 2) {
+            throw new IllegalArgumentException("Bad attributes: " + line);
+        }
+        Location location = locations.get(fields[0].trim());
+        String attribute = fields[1].trim();
+        String[] names = attribute.equals("education") ?
+            VictimAttributes.EDUCATION_LEVELS : VictimAttributes.RELIGIONS;
+        if (location == null || fields.length != names.length + 1 ||
+                !(attribute.equals("education") ||
+                  attribute.equals("religion"))) {
+            throw new IllegalArgumentException("Bad attributes: " + line);
+        }
+        double[] shares = new double[names.length - 1];
+        for (int i=0; i<shares.length; i++) {
+            shares[i] = Double.parseDouble(fields[i+2].trim());
+        }
+        location.setAttributeShares(attribute.equals("education") ?
+            VictimAttributes.EDUCATION : VictimAttributes.RELIGION, shares);
     }
 
     /**
-     * Schedules the HumanTrafficking object one time. The step method will 
-     * then schedule it each successive year.
+     * Schedules the HumanTrafficking object to run at the end of every
+     * year.
      **/
     private void scheduleSelf() {
         // The HumanTrafficking object will run at the end of each year
-        //   (Dec. 31st). We schedule it once here, for Dec. 31st, 2013,
-        //   and in its step() method it will schedule itself for the next
-        //   year.
-        schedule.scheduleOnce(364.0/365.0, this);
+        //   (Dec. 31st), starting with Dec. 31st, 2013.
+        yearEndPhase.add(this);
     }
 
     /**
-     * Schedules the StatsPrinter object one time. It will then schedule 
-     * itself each successive year.
+     * Schedules the StatsPrinter object to run near the end of every year.
      **/
     private void scheduleStatsPrinter() {
         // The StatsPrinter object will run near the end of each year
-        //   (Dec. 30th). We schedule it once here, for Dec. 30th, 2013,
-        //   and in its step() method it will schedule itself for the next
-        //   year.
-        schedule.scheduleOnce(363.0/365.0, StatsPrinter.instance());
+        //   (Dec. 30th), starting with Dec. 30th, 2013.
+        statsPhase.add(statsPrinter);
+        if (framePublisher != null) {
+            statsPhase.add(framePublisher);
+        }
+        if (frameRecorder != null) {
+            statsPhase.add(frameRecorder);
+        }
+        if (statsDatabase != null) {
+            statsPhase.add(statsDatabase);
+        }
     }
 
     /**
      * Maintains necessary simulation state (<i>e.g.</i>, incrementing the
-     * year), and schedules the HumanTrafficking object for next year).
+     * year, and aging every location's population, at the end of its last
+     * timestep).
      * @param state the HumanTrafficking simulation.
      **/
     public void step(SimState state) {
+        stepOfYear++;
+        if (stepOfYear < stepsPerYear) {
+            return;
+        }
+        stepOfYear = 0;
+        // (Escapees retire at their ages in the year just ended, before it
+        //   rolls over.)
+        for (int i=0; i<locationsById.size(); i++) {
+            locationsById.get(i).retireEscapees();
+        }
+        tracer.flush();
+        flows.endYear();
         incrementYear();
-        HumanTrafficking ht = (HumanTrafficking) state;
-        // Schedule myself to run again one calendar year from now.
-        schedule.scheduleOnceIn(1, this);
-        System.out.println("----------------------------------------------");
-        System.out.println("Happy new year! It's now " + year + 
+        routeChanges.applyThrough(year, this);
+        for (int i=0; i<locationsById.size(); i++) {
+            locationsById.get(i).advancePopulation();
+        }
+        log("----------------------------------------------");
+        log("Happy new year! It's now " + year + 
                 ". (simtime=" + getSimTime() + ")");
     }
 
+    /**
+     * Set the number of timesteps into which each year is divided 
+     * (<i>e.g.</i>, 12 for monthly or 52 for weekly resolution). Must be 
+     * called before {@link #start}. Defaults to 1.
+     */
+    public void setStepsPerYear(int stepsPerYear) {
+        if (stepsPerYear < 1) {
+            throw new IllegalArgumentException(
+                "Need at least one step per year, not " + stepsPerYear);
+        }
+        this.stepsPerYear = stepsPerYear;
+    }
+
+    /**
+     * Return the number of timesteps into which each year is divided.
+     */
+    public int getStepsPerYear() {
+        return stepsPerYear;
+    }
+
+    /**
+     * Return the length of one timestep, in years.
+     */
+    public double getStepLength() {
+        return 1.0 / stepsPerYear;
+    }
+
+    /**
+     * Return which timestep of the current year this is, counting from 0.
+     */
+    public int getStepOfYear() {
+        return stepOfYear;
+    }
+
+    /**
+     * Return the model of demand at every location.
+     */
+    DemandModel getDemandModel() {
+        return demandModel;
+    }
+
+    /**
+     * Return the Location with the id passed. (Locations are numbered
+     * from 0, in the order they appear in the scenario file.)
+     */
+    public Location getLocation(int id) {
+        return locationsById.get(id);
+    }
+
+    /**
+     * Return the number of Locations in this simulation.
+     */
+    public int getNumLocations() {
+        return locationsById.size();
+    }
+
+    /**
+     * Return the Route with the index passed. (Routes are numbered from 0,
+     * in the order they appear in the scenario file.)
+     */
+    public Route getRoute(int index) {
+        return routes.get(index);
+    }
+
+    /**
+     * Return the number of Routes in this simulation.
+     */
+    public int getNumRoutes() {
+        return routes.size();
+    }
+
+    /**
+     * Return the model of victims' hazards of escaping, retiring and being
+     * reacquired.
+     */
+    HazardModel getHazardModel() {
+        return hazardModel;
+    }
+
+    /**
+     * Return the Phase in which every Route runs, at the start of each
+     * timestep.
+     */
+    Phase getRoutePhase() {
+        return routePhase;
+    }
+
+    /**
+     * Return the Phase in which every Victim runs, in the middle of each
+     * timestep.
+     */
+    Phase getVictimPhase() {
+        return victimPhase;
+    }
+
+    /**
+     * Return the Phase in which statistics are output, near the end of
+     * each timestep.
+     */
+    Phase getStatsPhase() {
+        return statsPhase;
+    }
+
+    /**
+     * Convert an annual probability of some event into the probability of
+     * that event in one timestep of this simulation. (See {@link
+     * #perStepProbability}.)
+     */
+    public double perStep(double annualProbability) {
+        return perStepProbability(annualProbability, stepsPerYear);
+    }
+
+    /**
+     * Convert an annual probability of some event into the probability of
+     * that event in each of <code>steps</code> equal parts of a year, such
+     * that the chance of it happening at least once in the year is
+     * unchanged: 1 - (1-p)<sup>1/steps</sup>. Annual "probabilities"
+     * outside [0,1] are clamped. With one step per year, the probability
+     * is returned as is.
+     */
+    public static double perStepProbability(double annualProbability,
+        int steps) {
+        if (steps == 1) {
+            return annualProbability;
+        }
+        if (annualProbability <= 0) {
+            return 0;
+        }
+        if (annualProbability >= 1) {
+            return 1;
+        }
+        return 1 - Math.pow(1 - annualProbability, 1.0 / steps);
+    }
+
+    /**
+     * Turn an expected (possibly fractional) number of occurrences into a
+     * whole number, rounding the fraction up with a probability equal to
+     * the fraction, so that the expected value is preserved. (This lets
+     * annual counts be spread over short timesteps without every step
+     * rounding down to zero.) Whole numbers are returned without consuming
+     * a random number. (The decision and key are as for {@link
+     * #nextDouble(int,long)}.)
+     */
+    int apportion(double expected, int decision, long key) {
+        int whole = (int) Math.floor(expected);
+        double fraction = expected - whole;
+        if (fraction > 0 && nextDouble(decision, key) < fraction) {
+            whole++;
+        }
+        return whole;
+    }
+
     /** 
      * Get the current simulation time, as a formatted string.
      */
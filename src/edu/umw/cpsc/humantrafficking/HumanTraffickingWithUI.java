@@ -31,9 +31,48 @@ import sim.portrayal.simple.OvalPortrayal2D;
 public class HumanTraffickingWithUI extends GUIState{
         
     JFrame displayFrame;
-    private static HumanTraffickingWithUI theInstance;
+    private static volatile HumanTraffickingWithUI theInstance;
 
-    FieldPortrayal2D myVictimPortrayal = new ContinuousPortrayal2D();
+    /**
+     * The zoom (screen pixels per unit of the victims' field) at and above
+     * which individual victims are drawn, whatever their number.
+     */
+    public static final double DETAIL_SCALE = 4.0;
+
+    /**
+     * The number of victims at and below which individual victims are
+     * drawn, whatever the zoom.
+     */
+    public static final int DETAIL_MAX_VICTIMS = 5000;
+
+    // The victims at every location, counted once per frame, as each
+    //   field portrayal starts drawing, rather than by every location's
+    //   portrayal (which would cost, each frame, the square of the number
+    //   of locations).
+    private static volatile int frameVictims;
+
+    // Individual victims are only drawn when the display is zoomed in or
+    //   there are few of them. Otherwise, the aggregate portrayal of each
+    //   location and route (which is always drawn) stands for them, and
+    //   drawing costs the same however many victims there are.
+    FieldPortrayal2D myVictimPortrayal = new ContinuousPortrayal2D() {
+        public void draw(Object object, Graphics2D graphics,
+            DrawInfo2D info) {
+            countVictims();
+            double width = 
+                ((HumanTrafficking) state).victimsField.getWidth();
+            if (isDetailed(info.draw.width / width)) {
+                super.draw(object, graphics, info);
+            }
+        }
+    };
+    FieldPortrayal2D myAggregatePortrayal = new ContinuousPortrayal2D() {
+        public void draw(Object object, Graphics2D graphics,
+            DrawInfo2D info) {
+            countVictims();
+            super.draw(object, graphics, info);
+        }
+    };
     FieldPortrayal2D myMapPortrayal = new ContinuousPortrayal2D();
     Display2D myDisplay = new Display2D(800, 600, this, 1);
     
@@ -56,11 +95,66 @@ public class HumanTraffickingWithUI extends GUIState{
     private HumanTraffickingWithUI() throws ParseException {
         super(HumanTrafficking.instance());
     }
+
+    /**
+     * Set the portrayal (an oval of the color passed) with which a victim
+     * is drawn. If no GUI is displaying the simulation this victim belongs
+     * to (<i>e.g.</i>, in a headless or batch run), this has no effect,
+     * and in particular does not bring up a GUI.
+     */
+    static void paintVictim(Object victim, Color color, boolean filled) {
+        HumanTraffickingWithUI gui = theInstance;
+        if (gui != null && gui.state == HumanTrafficking.instance()) {
+            gui.myVictimPortrayal.setPortrayalForObject(victim,
+                new OvalPortrayal2D(color,2,filled));
+        }
+    }
+
+    /**
+     * Stop drawing the victim passed. (As with {@link #paintVictim}, this
+     * has no effect if no GUI is displaying the simulation.)
+     */
+    static void hideVictim(Object victim) {
+        HumanTraffickingWithUI gui = theInstance;
+        if (gui != null && gui.state == HumanTrafficking.instance()) {
+            gui.myVictimPortrayal.setPortrayalForObject(victim,null);
+        }
+    }
     
     /**
-     * Start the simulation with graphical display.
+     * Return whether individual victims are being drawn, given the
+     * DrawInfo2D passed to a portrayal of a single object in the victims'
+     * field (whose width is the display's zoom). See {@link
+     * #DETAIL_SCALE} and {@link #DETAIL_MAX_VICTIMS}.
      */
-    public static void main(String[] args){
+    static boolean isDetailed(DrawInfo2D info) {
+        return isDetailed(info.draw.width);
+    }
+
+    private static boolean isDetailed(double scale) {
+        return scale >= DETAIL_SCALE || frameVictims <= DETAIL_MAX_VICTIMS;
+    }
+
+    private static void countVictims() {
+        HumanTrafficking world = HumanTrafficking.instance();
+        int numVics = 0;
+        for (int id=0; id<world.getNumLocations(); id++) {
+            numVics += world.getLocation(id).getNumVics();
+        }
+        frameVictims = numVics;
+    }
+
+    /**
+     * Start the simulation with graphical display; or, given the arguments
+     * <code>-replay file</code> (and any others {@link ReplayViewer}
+     * takes), replay a recording of one without running it.
+     */
+    public static void main(String[] args) throws java.io.IOException {
+        if (args.length > 1 && args[0].equals("-replay")) {
+            ReplayViewer.main(java.util.Arrays.copyOfRange(args, 1,
+                args.length));
+            return;
+        }
         HumanTraffickingWithUI worldGUI = null;
         
         worldGUI = HumanTraffickingWithUI.instance();
@@ -74,6 +168,7 @@ public class HumanTraffickingWithUI extends GUIState{
      * with the portrayals for the victims on the map.
      */
     public void start(){
+        ((HumanTrafficking) state).setDisplayed(true);
         super.start();
         setupPortrayals();
 	}
@@ -96,9 +191,32 @@ public class HumanTraffickingWithUI extends GUIState{
         Image image = myImageIcon.getImage();
         myMapPortrayal.setPortrayalForAll(new ImagePortrayal2D(image, 1000));
         myVictimPortrayal.setField(world.victimsField);
+
+        // Each location (on a route) is drawn at its position, and each
+        //   route from its source's position.
+        Continuous2D aggregateField = new Continuous2D(10,
+            world.victimsField.getWidth(), world.victimsField.getHeight());
+        for (int id=0; id<world.getNumLocations(); id++) {
+            Location l = world.getLocation(id);
+            if (l.isOnRoute()) {
+                aggregateField.setObjectLocation(l,
+                    new Double2D(l.getLong(), l.getLat()));
+            }
+        }
+        for (int i=0; i<world.getNumRoutes(); i++) {
+            Location source = world.getRoute(i).getSource();
+            aggregateField.setObjectLocation(world.getRoute(i),
+                new Double2D(source.getLong(), source.getLat()));
+        }
+        myAggregatePortrayal.setField(aggregateField);
+        myAggregatePortrayal.setPortrayalForClass(Location.class,
+            new LocationPortrayal2D());
+        myAggregatePortrayal.setPortrayalForClass(Route.class,
+            new RoutePortrayal2D());
                 
 //myVictimPortrayal.setPortrayalForAll(new OvalPortrayal2D(java.awt.Color.GREEN,1));
         myDisplay.attach(myMapPortrayal, "Map");
+        myDisplay.attach(myAggregatePortrayal, "Locations and routes");
         myDisplay.attach(myVictimPortrayal, "Victims");
         
 
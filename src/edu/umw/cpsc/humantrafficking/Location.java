@@ -1,45 +1,58 @@
 package edu.umw.cpsc.humantrafficking;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
 import ec.util.MersenneTwisterFast;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import sim.engine.*;
 
 /** 
  * Locations represent places where human trafficking victims can be
  * present. They may be sources (where victims are abducted), destinations
  * (where they are transported to serve as prostitutes), and/or transit
  * locations (intermediate points on a route).  A Location object keeps
- * track of the location's victims, demand and export rate. It has its own
- * function to schedule itself for the next step.
+ * track of the location's victims, demand and export rate. Once per year,
+ * after all routes have run, each location on a route runs its own step,
+ * to reacquire escapees and perform immigration searches.
  */
-public class Location {
+public class Location implements Steppable {
 
     /**
-     * The annual probability that an immigration search in this location
-     * will be successful this year, (possibly) resulting in existing
-     * victims being set free.
+     * The default annual probability that an immigration search in this
+     * location will be successful this year, (possibly) resulting in 
+     * existing victims being set free. (See {@link Parameters}.)
      */
     public static final double PROB_IMMIGRATION_SEARCH_SUCCESS = .01;
 
-    private double longitude;
-    private double latitude;
-    private int population;
+    // The location's coordinates, in degrees, and (computed once, since
+    //   they are needed whenever a victim is drawn) their projection onto
+    //   the map, in pixels.
+    private double latN;
+    private double longE;
+    private double x;
+    private double y;
+    private String country;
+    private PopulationPyramid population;
     private double povertyRate;
     private double employmentRate;
     private double genderRatio;
     private double appAgeRatio;
-    private Hashtable<String, Double> religions;
-    private double demand;
+    // For each attribute (see VictimAttributes), the cumulative shares of
+    //   its known values (codes 1 and up) among victims abducted here, or
+    //   null if unknown.
+    private double[][] attributeShares = new double[2][];
     private String name;    
+    private int id;
+    private boolean onRoute;
+    private boolean searched;
+    private boolean local = true;
     private double exportRate;
     private ArrayList<Victim> victims = new ArrayList<Victim>();
     private ArrayList<Victim> escapees = new ArrayList<Victim>();
-    private MersenneTwisterFast generator = 
-        HumanTrafficking.instance().random;
     
     
+    // The map's equirectangular projection: where the prime meridian and
+    //   the equator fall, and the map's extent, in pixels.
     private static final int PRIME_MERIDIAN_PIXEL = 360;
     private static final int EQUATOR_PIXEL = 335;
     private static final int TOP_MAP_PIXEL = 0;
@@ -65,30 +78,94 @@ public class Location {
         double genderRatio, double appAgeRatio) {
 
         this.name = name;
-        this.longitude = 
-            (RIGHT_MAP_PIXEL - LEFT_MAP_PIXEL) * (longE)/360 +
-            PRIME_MERIDIAN_PIXEL;
-        this.latitude = (BOTTOM_MAP_PIXEL - TOP_MAP_PIXEL)*(-latN)/360 +
-            EQUATOR_PIXEL;
-        this.population = population;
+        this.country = name;
+        this.latN = latN;
+        this.longE = longE;
+        this.x = projectLongitude(longE);
+        this.y = projectLatitude(latN);
+        this.population = 
+            new PopulationPyramid(population, genderRatio, appAgeRatio);
         this.genderRatio = genderRatio;
         this.appAgeRatio = appAgeRatio;
-        System.out.println("Just instantiated " + name + 
+        HumanTrafficking.instance().log("Just instantiated " + name + 
             " with a population of " + population + " and " +
             getNumVics() + " victims.");
     }
 
+    /**
+     * Return the horizontal map position, in pixels, of the longitude
+     * passed (in degrees East).
+     */
+    public static double projectLongitude(double longE) {
+        return (RIGHT_MAP_PIXEL - LEFT_MAP_PIXEL) * (longE)/360 +
+            PRIME_MERIDIAN_PIXEL;
+    }
+
+    /**
+     * Return the vertical map position, in pixels, of the latitude passed
+     * (in degrees North).
+     */
+    public static double projectLatitude(double latN) {
+        return (BOTTOM_MAP_PIXEL - TOP_MAP_PIXEL)*(-latN)/360 +
+            EQUATOR_PIXEL;
+    }
+
     /**
      * Add a victim to this Location's collection of victims and removes 
-     * them from the current population. This function is used when 
-     * instantiating new victims.
+     * them from the current population (at their age). This function is
+     * used when instantiating new victims.
      * @param v a Victim.
      */
     public void addVictimFromLocalPopulation(Victim v){
         victims.add(v);
-        population --;
+        v.setStatus(VictimStore.CAPTIVE);
+        population.removeFemale(v.getAge());
     }
     
+    /**
+     * Return this location's id: a number from 0 up, unique among the
+     * simulation's locations.
+     */
+    public int getId(){
+        return id;
+    }
+
+    void setId(int id){
+        this.id = id;
+    }
+
+    /**
+     * Record that this location is part of a route. Locations on any 
+     * route reacquire escapees each year; transit and destination
+     * locations also have immigration searches.
+     * @param transitOrDestination whether this location is a transit or
+     * destination location on the route.
+     */
+    void joinRoute(boolean transitOrDestination){
+        onRoute = true;
+        searched = searched || transitOrDestination;
+    }
+
+    /**
+     * Return whether this location is part of any route.
+     */
+    public boolean isOnRoute(){
+        return onRoute;
+    }
+
+    /**
+     * Return whether this location is simulated by this process. (Only in
+     * a distributed run can this be false; see {@link 
+     * HumanTrafficking#setPartition}.)
+     */
+    public boolean isLocal(){
+        return local;
+    }
+
+    void setLocal(boolean local){
+        this.local = local;
+    }
+
     /**
      * Return the name of this location (possibly containing spaces).
      */
@@ -104,6 +181,7 @@ public class Location {
     public void addVictimFromExternalLocation(Victim v) {
         victims.add(v);
         v.setLocation(this);
+        v.setStatus(VictimStore.CAPTIVE);
     }
     
     /**
@@ -111,6 +189,7 @@ public class Location {
      */
     public void addEscapee(Victim v){
         escapees.add(v);
+        v.setStatus(VictimStore.ESCAPED);
     }
     
     /**
@@ -137,21 +216,63 @@ public class Location {
     public void removeVictim(Victim v){
         victims.remove(v);
     }
+
+    /**
+     * Remove, in one pass, the victims at the positions (in {@link
+     * #getVics}) marked in the array passed.
+     */
+    void removeVictims(boolean[] leaving){
+        int kept = 0;
+        for (int i=0; i<victims.size(); i++) {
+            if (!leaving[i]) {
+                victims.set(kept++, victims.get(i));
+            }
+        }
+        victims.subList(kept, victims.size()).clear();
+    }
     
+    /**
+     * Return the horizontal position of this location on the map, in
+     * pixels (see {@link #projectLongitude}).
+     */
+    public double getLong(){
+        return x;
+    }
+
     /**
      * Return the longitude of this location, in degrees (positive numbers
      * mean "East", negative "West".)
      */
-    public double getLong(){
-        return longitude;
+    public double getLongitudeDegrees(){
+        return longE;
     }
 
     /**
      * Return the latitude of this location, in degrees (positive numbers
      * mean "North", negative "South".)
      */
+    public double getLatitudeDegrees(){
+        return latN;
+    }
+
+    /**
+     * Return the name of the country this location is in: by default, its
+     * own name (for a location that is a whole country).
+     */
+    public String getCountry(){
+        return country;
+    }
+
+    void setCountry(String country){
+        this.country = country;
+    }
+
+    /**
+     * Return the vertical position of this location on the map, in pixels
+     * (see {@link #projectLatitude}).
+     */
     public double getLat(){
-        return latitude;
+        return y;
     }
 
     /**
@@ -198,38 +319,109 @@ public class Location {
         int escNum = HumanTrafficking.instance().random.nextInt(
             getNumEscapees());
         Victim extractedEscapee = escapees.get(escNum);
+        extractEscapee(extractedEscapee);
+        return extractedEscapee;
+    }
 
+    private void extractEscapee(Victim escapee) {
         // temporarily set the location to null, to indicate she's in the
         // process of moving locations.
-        extractedEscapee.setLocation(null);
-        escapees.remove(extractedEscapee);
-        return extractedEscapee;
+        escapee.setLocation(null);
+        escapees.remove(escapee);
+    }
+
+    /**
+     * Set the distribution of one of the {@link VictimAttributes} among
+     * the victims abducted here.
+     * @param attribute {@link VictimAttributes#EDUCATION} or {@link
+     * VictimAttributes#RELIGION}.
+     * @param shares the relative share of each known value of the
+     * attribute, in order of code from 1 (<i>e.g.</i>, for education, the
+     * shares of "primary", "secondary" and "tertiary").
+     */
+    public void setAttributeShares(int attribute, double[] shares){
+        double[] cumulative = new double[shares.length];
+        double total = 0;
+        for (int i=0; i<shares.length; i++) {
+            total += shares[i];
+            cumulative[i] = total;
+        }
+        attributeShares[attribute] = cumulative;
+    }
+
+    /**
+     * Choose the attributes of a victim being abducted here, at random
+     * from this location's distributions, drawn (with common random
+     * numbers) with the victim's key passed. (Attributes whose
+     * distribution is unknown are "unknown", and cost no random numbers.)
+     */
+    byte drawAttributes(long key){
+        return VictimAttributes.encode(
+            drawAttribute(VictimAttributes.EDUCATION, key),
+            drawAttribute(VictimAttributes.RELIGION, key));
+    }
+
+    private int drawAttribute(int attribute, long key) {
+        double[] cumulative = attributeShares[attribute];
+        if (cumulative == null) {
+            return 0;
+        }
+        double u = HumanTrafficking.instance().nextDouble(
+            RandomStreams.ATTRIBUTES, 2 * key + attribute) *
+            cumulative[cumulative.length - 1];
+        int code = 0;
+        while (code < cumulative.length - 1 && u >= cumulative[code]) {
+            code++;
+        }
+        return code + 1;
     }
     
     
     /**
-     * Returns the number of non-Victims, but "eligible" potential Victims,
-     *   currently at this location (not in captivity.)
+     * Returns the number of non-Victims currently at this location (not in
+     *   captivity.)
      */
     public int getPop(){
-        return population;   
+        return (int) Math.round(population.getTotal());   
     }
     
-    void setPop(int population){
-        this.population = population;
+    /**
+     * Return the age- and sex-structured non-victim population of this 
+     * location.
+     */
+    public PopulationPyramid getPopulation(){
+        return population;
+    }
+
+    /**
+     * Return a former victim, of the age passed, to this location's
+     * population.
+     */
+    void returnToPopulation(int age){
+        population.addFemale(age);
+    }
+
+    /**
+     * Age this location's population by one year, including births and 
+     * deaths.
+     */
+    void advancePopulation(){
+        population.advance();
     }
 
     
     /**
      * Determine whether an immigration search in this location is
-     * successful this year, and if so, set a random number of its victims 
+     * successful this timestep, and if so, set a random number of its victims 
      * free.
      */
     public void performImmigrationSearch(){
-        double imm = (HumanTrafficking.instance().random.nextDouble());
-        if(imm < PROB_IMMIGRATION_SEARCH_SUCCESS){
+        HumanTrafficking world = HumanTrafficking.instance();
+        double imm = world.nextDouble(RandomStreams.SEARCH, id);
+        if(imm < world.perStep(
+                world.getParameters().getProbImmigrationSearchSuccess())){
             if(getNumVics() != 0){
-                int vicNum = HumanTrafficking.instance().random.nextInt(
+                int vicNum = world.nextInt(RandomStreams.SEARCH_VICTIM, id,
                     getNumVics());
                 Victim extractedVic = victims.get(vicNum);
 
@@ -239,41 +431,111 @@ public class Location {
     }
 
     /**
-     * TODO
-     * Generates demand based off of factors in the location.
-     * Returns a number in the range [0.9,1.1] indicating a multiplicative
-     * factor for victims on this route.
-     * @return a multiplicative factor for victims on this route. Numbers
-     * greater than 1 indicate a higher-than-usual demand on the
-     * destination side, while numbers less than 1 indicate
-     * lower-than-usual demand.
+     * Give each of this location's escapees a chance to be reacquired by
+     * the system (and so become a victim here again). Each escapee's
+     * chance depends on her attributes and age (see {@link HazardModel}).
      */
-    public double getDemand(){
-        //calculate demand based off of external factors. Ex) military
-        //or sporting events like the super bowl
+    public void reacquireEscapees(){
+        HumanTrafficking world = HumanTrafficking.instance();
+        HazardModel hazards = world.getHazardModel();
+        
+        int numEscapees = getNumEscapees();
+        int numReacquires = 0;
+        // (Escapees are chosen at the largest hazard of any, and each one
+        //   chosen is kept with the ratio of her own hazard to that.)
+        double probReacquire = hazards.getMax(HazardModel.REACQUIRE, id);
         
-        // For now, generate a random number (uniform) from .9 to 1.1 and
-        // return that.
-        // TODO
+        for(int i=0; i<numEscapees; i++){
+            if(world.random.nextDouble() < probReacquire){
+                Victim v = escapees.get(world.random.nextInt(
+                    getNumEscapees()));
+                double hazard = hazards.get(HazardModel.REACQUIRE, id,
+                    v.getAttributes(), v.getAge());
+                if (hazard < probReacquire &&
+                        world.random.nextDouble() * probReacquire >= hazard) {
+                    continue;
+                }
+                extractEscapee(v);
+                addVictimFromExternalLocation(v);
+                v.markReacquired();
+                v.startRunning();
+                world.getTracer().record(v, TrajectoryTracer.REACQUIRED,
+                    this, -1);
+                numReacquires++;
+            }
+        }
+        world.log("  Reacquiring " + numReacquires +  
+            (numEscapees == 1 ? " victim" : " victims") + " from "
+            + this + "...");
+        
+        printNumbers();
+    }
+
+    /**
+     * Give each of this location's escapees her chance, over the year just
+     * ended, of retiring (from her hazard of retiring each timestep; see
+     * {@link HazardModel}). Those who retire leave the simulation, so that
+     * escapees do not accumulate without limit. Run at the end of each
+     * year, before it rolls over.
+     */
+    void retireEscapees(){
+        if (escapees.isEmpty()) {
+            return;
+        }
+        HumanTrafficking world = HumanTrafficking.instance();
+        HazardModel hazards = world.getHazardModel();
+        int kept = 0;
+        for (int i=0; i<escapees.size(); i++) {
+            Victim v = escapees.get(i);
+            double hazard = hazards.get(HazardModel.RETIRE, id,
+                v.getAttributes(), v.getAge());
+            double annual = 1 - Math.pow(1 - hazard, world.getStepsPerYear());
+            if (world.nextDouble(RandomStreams.ESCAPEE_RETIREMENT,
+                    v.getKey()) < annual) {
+                v.retire(this);
+            } else {
+                escapees.set(kept++, v);
+            }
+        }
+        escapees.subList(kept, escapees.size()).clear();
+    }
 
+    /**
+     * Perform this location's actions for the year, once all routes have
+     * run: reacquire escapees, and (at transit and destination locations)
+     * perform an immigration search. Doing this once per location, rather
+     * than once for each route through it, keeps the results (and the
+     * cost) independent of how many routes share the location.
+     * @param state the HumanTrafficking simulation.
+     */
+    public void step(SimState state){
+        reacquireEscapees();
+        if (searched) {
+            performImmigrationSearch();
+        }
+    }
 
-        demand = generator.nextDouble();
-                
-        return demand;
+    /**
+     * Returns this location's demand for the current timestep: a
+     * multiplicative factor for victims on routes to this location, which
+     * is the same for every route (and every call) during the timestep.
+     * See {@link DemandModel} for how it is computed, including external 
+     * factors such as military or sporting events.
+     * @return a multiplicative factor for victims on this route. Larger
+     * numbers indicate a higher demand on the destination side.
+     */
+    public double getDemand(){
+        return HumanTrafficking.instance().getDemandModel().getDemand(id);
     }
 
     /**
      * Computes eligible victims based off of the properties at the current 
-     * location.
+     * location: the number of females of "prostitution age" in its 
+     * population.
      * @return the number of eligible victims at this location.
      */
     public int getEligibleVics(){
-        int value = 0; 
-        //actually compute eligible victims based off of properties of the 
-        //current location.
-        value = (int)
-            (this.population * (this.genderRatio) * (this.appAgeRatio));
-        return value;
+        return (int) population.getEligible();
     }
 
     /**
@@ -287,7 +549,11 @@ public class Location {
      * Print statistical information about this route to standard out.
      */
     public void printNumbers() {
-        System.out.println("    (" + this + " now has " + 
+        HumanTrafficking world = HumanTrafficking.instance();
+        if (!world.isVerbose()) {
+            return;
+        }
+        world.log("    (" + this + " now has " + 
             getNumVics() + (getNumVics() == 1 ? " victim, " : " victims, ") + 
             getNumEscapees() + 
                 (getNumEscapees() == 1 ? " escapee" : " escapees") +
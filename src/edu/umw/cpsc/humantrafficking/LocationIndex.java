@@ -0,0 +1,178 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A spatial index of a simulation's locations, by latitude and longitude,
+ * for finding the location nearest a point and the locations in a
+ * region, without examining every location. The bounding box of the
+ * locations is divided into a uniform grid of about one cell per
+ * location, and each cell's locations are listed contiguously in one
+ * array (so the index is built in two linear passes, and holds no objects
+ * but the locations themselves).
+ * <p>
+ * Distances are measured on an equirectangular projection centered at the
+ * point queried (longitudes scaled by the cosine of its latitude), which
+ * is accurate at the distances between neighbouring cities and provinces.
+ * Longitudes do not wrap around at 180 degrees.
+ */
+public class LocationIndex implements java.io.Serializable {
+
+    private Location[] locations;
+    private double south;
+    private double west;
+    private double cellHeight;
+    private double cellWidth;
+    private int rows;
+    private int columns;
+
+    // The locations in cell (row, column) are those from
+    //   cellStarts[row*columns + column] (inclusive) to the next cell's start.
+    private int[] cellStarts;
+
+    /**
+     * Build an index of the locations passed.
+     */
+    public LocationIndex(List<Location> all) {
+        int n = all.size();
+        south = Double.POSITIVE_INFINITY;
+        west = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        for (Location l : all) {
+            south = Math.min(south, l.getLatitudeDegrees());
+            north = Math.max(north, l.getLatitudeDegrees());
+            west = Math.min(west, l.getLongitudeDegrees());
+            east = Math.max(east, l.getLongitudeDegrees());
+        }
+        if (n == 0) {
+            south = north = west = east = 0;
+        }
+        double height = Math.max(north - south, 1e-6);
+        double width = Math.max(east - west, 1e-6);
+        double cellSize = Math.sqrt(height * width / Math.max(n, 1));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        // (Stretched slightly so that the northern and eastern edges fall
+        //   inside the last cells.)
+        cellHeight = height * (1 + 1e-9) / rows;
+        cellWidth = width * (1 + 1e-9) / columns;
+
+        // Count each cell's locations, then place them.
+        cellStarts = new int[rows * columns + 1];
+        int[] cells = new int[n];
+        for (int i=0; i<n; i++) {
+            cells[i] = cellOf(all.get(i));
+            cellStarts[cells[i] + 1]++;
+        }
+        for (int c=0; c<rows * columns; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        int[] next = java.util.Arrays.copyOf(cellStarts, rows * columns);
+        locations = new Location[n];
+        for (int i=0; i<n; i++) {
+            locations[next[cells[i]]++] = all.get(i);
+        }
+    }
+
+    private int cellOf(Location l) {
+        return row(l.getLatitudeDegrees()) * columns +
+            column(l.getLongitudeDegrees());
+    }
+
+    private int row(double latN) {
+        return Math.max(0, Math.min(rows - 1,
+            (int) Math.floor((latN - south) / cellHeight)));
+    }
+
+    private int column(double longE) {
+        return Math.max(0, Math.min(columns - 1,
+            (int) Math.floor((longE - west) / cellWidth)));
+    }
+
+    /**
+     * Return the location nearest the point passed, or null if there are
+     * no locations.
+     * @param latN the latitude, in degrees North.
+     * @param longE the longitude, in degrees East.
+     */
+    public Location nearest(double latN, double longE) {
+        double scale = Math.cos(Math.toRadians(latN));
+        int row = row(latN);
+        int column = column(longE);
+        Location best = null;
+        double bestDistance = Double.POSITIVE_INFINITY;
+
+        // Search rings of cells ever further out, until every location
+        //   outside the rings searched must be further than the best.
+        for (int r=0; ; r++) {
+            for (int i=row-r; i<=row+r; i++) {
+                if (i < 0 || i >= rows) {
+                    continue;
+                }
+                int step = (i == row-r || i == row+r) ? 1 : 2*r;
+                for (int j=column-r; j<=column+r; j+=Math.max(step, 1)) {
+                    if (j < 0 || j >= columns) {
+                        continue;
+                    }
+                    int cell = i * columns + j;
+                    for (int k=cellStarts[cell]; k<cellStarts[cell+1]; k++) {
+                        double d = distance(latN, longE, scale, locations[k]);
+                        if (d < bestDistance) {
+                            bestDistance = d;
+                            best = locations[k];
+                        }
+                    }
+                }
+            }
+            if (row-r <= 0 && row+r >= rows-1 && column-r <= 0 &&
+                    column+r >= columns-1) {
+                return best;
+            }
+            double bound = Math.min(
+                Math.min(latN - (south + (row-r) * cellHeight),
+                    south + (row+r+1) * cellHeight - latN),
+                scale * Math.min(longE - (west + (column-r) * cellWidth),
+                    west + (column+r+1) * cellWidth - longE));
+            if (bound >= bestDistance) {
+                return best;
+            }
+        }
+    }
+
+    private static double distance(double latN, double longE, double scale,
+        Location l) {
+        double dy = l.getLatitudeDegrees() - latN;
+        double dx = (l.getLongitudeDegrees() - longE) * scale;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Return every location within the region passed (bounds inclusive),
+     * in no particular order.
+     * @param south the southernmost latitude, in degrees North.
+     * @param west the westernmost longitude, in degrees East.
+     * @param north the northernmost latitude.
+     * @param east the easternmost longitude.
+     */
+    public ArrayList<Location> inRegion(double south, double west,
+        double north, double east) {
+        ArrayList<Location> found = new ArrayList<Location>();
+        for (int i=row(south); i<=row(north); i++) {
+            for (int j=column(west); j<=column(east); j++) {
+                int cell = i * columns + j;
+                for (int k=cellStarts[cell]; k<cellStarts[cell+1]; k++) {
+                    Location l = locations[k];
+                    if (l.getLatitudeDegrees() >= south &&
+                            l.getLatitudeDegrees() <= north &&
+                            l.getLongitudeDegrees() >= west &&
+                            l.getLongitudeDegrees() <= east) {
+                        found.add(l);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
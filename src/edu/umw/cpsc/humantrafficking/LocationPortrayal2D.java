@@ -0,0 +1,84 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
+import sim.portrayal.DrawInfo2D;
+import sim.portrayal.SimplePortrayal2D;
+
+/**
+ * Draws a {@link Location} as one marker summarizing all its victims: a
+ * disc whose area is proportional to its number of victims, ringed by a
+ * band whose area is proportional to its escapees. When the display is
+ * showing individual victims (see {@link
+ * HumanTraffickingWithUI#isDetailed}), only the outline is drawn, so the
+ * victims' own dots show through. Either way the cost of drawing is the
+ * same however many victims there are.
+ */
+public class LocationPortrayal2D extends SimplePortrayal2D {
+
+    /**
+     * The radius, in screen pixels, of the marker of a location with no
+     * victims.
+     */
+    public static final double MIN_RADIUS = 3.0;
+
+    /**
+     * The growth of a marker's radius, in screen pixels, per square root
+     * of a victim.
+     */
+    public static final double RADIUS_PER_ROOT_VICTIM = 0.5;
+
+    private static final Color VICTIM_COLOR = new Color(255, 0, 0, 160);
+    private static final Color ESCAPEE_COLOR = new Color(255, 165, 0, 120);
+
+    private double victimRadius(Location l) {
+        return MIN_RADIUS + RADIUS_PER_ROOT_VICTIM * Math.sqrt(l.getNumVics());
+    }
+
+    private double escapeeRadius(Location l) {
+        return victimRadius(l) +
+            RADIUS_PER_ROOT_VICTIM * Math.sqrt(l.getNumEscapees());
+    }
+
+    /**
+     * Draw the Location passed, centered where the DrawInfo2D passed says.
+     */
+    public void draw(Object object, Graphics2D graphics, DrawInfo2D info) {
+        Location l = (Location) object;
+        double x = info.draw.x;
+        double y = info.draw.y;
+        double r = victimRadius(l);
+        double e = escapeeRadius(l);
+        boolean detailed = HumanTraffickingWithUI.isDetailed(info);
+
+        graphics.setColor(ESCAPEE_COLOR);
+        if (detailed) {
+            graphics.setStroke(new BasicStroke(1));
+            graphics.draw(new Ellipse2D.Double(x - e, y - e, 2*e, 2*e));
+        } else {
+            graphics.fill(new Ellipse2D.Double(x - e, y - e, 2*e, 2*e));
+        }
+        graphics.setColor(VICTIM_COLOR);
+        if (detailed) {
+            graphics.draw(new Ellipse2D.Double(x - r, y - r, 2*r, 2*r));
+        } else {
+            graphics.fill(new Ellipse2D.Double(x - r, y - r, 2*r, 2*r));
+        }
+        graphics.setColor(Color.BLACK);
+        graphics.drawString(l.getName() + " (" + l.getNumVics() + ")",
+            (float) (x + e + 2), (float) (y - 2));
+    }
+
+    /**
+     * Return whether the Location passed (drawn as a disc) falls within
+     * the range passed, so that it can be inspected.
+     */
+    public boolean hitObject(Object object, DrawInfo2D range) {
+        Location l = (Location) object;
+        double e = escapeeRadius(l);
+        return new Ellipse2D.Double(range.draw.x - e, range.draw.y - e,
+            2*e, 2*e).intersects(range.clip);
+    }
+}
@@ -0,0 +1,161 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * A {@link VictimStore} holding its records outside the Java heap, either
+ * in direct memory or in a memory-mapped file. Records are packed
+ * back-to-back in fixed-size chunks (so the store can grow without
+ * copying), each record being the birth year (4 bytes), location id (4
+ * bytes), status (1 byte), attributes (1 byte) and key (8 bytes).
+ * <p>
+ * When serialized (<i>e.g.</i>, to fork a simulation; see {@link
+ * BranchPoint}), the records in use are copied out in bulk, chunk by
+ * chunk, and a deserialized store always holds them in direct memory:
+ * a file can be mapped by only one store.
+ */
+class OffHeapVictimStore extends VictimStore {
+
+    private static final int RECORD_SIZE = 18;
+    private static final int BIRTH_YEAR_OFFSET = 0;
+    private static final int LOCATION_ID_OFFSET = 4;
+    private static final int STATUS_OFFSET = 8;
+    private static final int ATTRIBUTES_OFFSET = 9;
+    private static final int KEY_OFFSET = 10;
+
+    private static final int CHUNK_SHIFT = 20;
+    private static final int RECORDS_PER_CHUNK = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = RECORDS_PER_CHUNK - 1;
+    private static final long CHUNK_SIZE = 
+        (long) RECORDS_PER_CHUNK * RECORD_SIZE;
+
+    private transient ArrayList<ByteBuffer> chunks =
+        new ArrayList<ByteBuffer>();
+    private transient RandomAccessFile file;
+    private transient FileChannel channel;
+
+    /**
+     * Create an empty store.
+     * @param path the file to map the records to, or null to hold them in
+     * direct memory.
+     */
+    OffHeapVictimStore(String path) throws IOException {
+        if (path != null) {
+            file = new RandomAccessFile(path, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+        }
+    }
+
+    protected void ensureCapacity(int capacity) {
+        while ((long) chunks.size() * RECORDS_PER_CHUNK < capacity) {
+            chunks.add(newChunk(chunks.size()));
+        }
+    }
+
+    private ByteBuffer newChunk(int index) {
+        ByteBuffer chunk;
+        if (channel == null) {
+            chunk = ByteBuffer.allocateDirect((int) CHUNK_SIZE);
+        } else {
+            try {
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE,
+                    index * CHUNK_SIZE, CHUNK_SIZE);
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+        return chunk.order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer chunk(int slot) {
+        return chunks.get(slot >>> CHUNK_SHIFT);
+    }
+
+    private static int offset(int slot) {
+        return (slot & CHUNK_MASK) * RECORD_SIZE;
+    }
+
+    public int getBirthYear(int slot) {
+        return chunk(slot).getInt(offset(slot) + BIRTH_YEAR_OFFSET);
+    }
+
+    public void setBirthYear(int slot, int birthYear) {
+        chunk(slot).putInt(offset(slot) + BIRTH_YEAR_OFFSET, birthYear);
+    }
+
+    public int getLocationId(int slot) {
+        return chunk(slot).getInt(offset(slot) + LOCATION_ID_OFFSET);
+    }
+
+    public void setLocationId(int slot, int locationId) {
+        chunk(slot).putInt(offset(slot) + LOCATION_ID_OFFSET, locationId);
+    }
+
+    public byte getStatus(int slot) {
+        return chunk(slot).get(offset(slot) + STATUS_OFFSET);
+    }
+
+    public void setStatus(int slot, byte status) {
+        chunk(slot).put(offset(slot) + STATUS_OFFSET, status);
+    }
+
+    public byte getAttributes(int slot) {
+        return chunk(slot).get(offset(slot) + ATTRIBUTES_OFFSET);
+    }
+
+    public void setAttributes(int slot, byte attributes) {
+        chunk(slot).put(offset(slot) + ATTRIBUTES_OFFSET, attributes);
+    }
+
+    public long getKey(int slot) {
+        return chunk(slot).getLong(offset(slot) + KEY_OFFSET);
+    }
+
+    public void setKey(int slot, long key) {
+        chunk(slot).putLong(offset(slot) + KEY_OFFSET, key);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] copy = new byte[(int) CHUNK_SIZE];
+        for (int first=0; first<size; first+=RECORDS_PER_CHUNK) {
+            int length = Math.min(size - first, RECORDS_PER_CHUNK) *
+                RECORD_SIZE;
+            ByteBuffer chunk = chunk(first).duplicate();
+            chunk.position(0);
+            chunk.get(copy, 0, length);
+            out.write(copy, 0, length);
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        chunks = new ArrayList<ByteBuffer>();
+        ensureCapacity(size);
+        byte[] copy = new byte[(int) CHUNK_SIZE];
+        for (int first=0; first<size; first+=RECORDS_PER_CHUNK) {
+            int length = Math.min(size - first, RECORDS_PER_CHUNK) *
+                RECORD_SIZE;
+            in.readFully(copy, 0, length);
+            ByteBuffer chunk = chunk(first).duplicate();
+            chunk.position(0);
+            chunk.put(copy, 0, length);
+        }
+    }
+
+    public void close() throws IOException {
+        chunks.clear();
+        if (file != null) {
+            file.close();
+        }
+    }
+}
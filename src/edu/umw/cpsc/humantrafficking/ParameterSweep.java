@@ -0,0 +1,720 @@
+package edu.umw.cpsc.humantrafficking;
+
+import ec.util.MersenneTwisterFast;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the simulation over many combinations of its {@link Parameters}.
+ * Each varied parameter (a <i>factor</i>) is given a range, and a design
+ * chooses the points in those ranges to run:
+ * <ul>
+ * <li><code>grid</code>: every combination of <i>n</i> evenly spaced
+ * levels of each factor (<i>n</i><sup>factors</sup> points).</li>
+ * <li><code>lhs</code>: a Latin hypercube of <i>n</i> points, which
+ * samples each factor's range evenly, in <i>n</i> strata, with the
+ * factors' strata randomly paired.</li>
+ * <li><code>sobol</code>: the first <i>n</i> points of a Sobol sequence,
+ * which fills the space of factors more evenly than random points.</li>
+ * </ul>
+ * Each point is run with several replicate seeds (the sweep's seed plus
+ * 0, 1, ...), each run writing to its own subdirectory,
+ * <code>run</code><i>k</i>, of the output directory. The runs are spread
+ * across a pool of worker threads, each running one {@link BatchRunner}
+ * at a time.
+ * <p>
+ * With common random numbers (<code>-crn true</code>; see {@link
+ * HumanTrafficking#setCommonRandomNumbers}), replicate <i>r</i> of every
+ * point makes the same draws wherever the points' runs behave alike, so
+ * differences between points can be estimated, replicate by replicate,
+ * from far fewer replicates.
+ * <p>
+ * By default every point gets the same number of replicates. Given a
+ * target half-width (<code>-halfwidth</code>, absolute, or relative to
+ * the mean if it ends in <code>%</code>), replication is instead
+ * sequential (see {@link ReplicationEnsemble}): each point gets that
+ * number at first (but at least two), and then more only until the
+ * confidence intervals of the chosen outputs are that narrow, or the
+ * maximum is reached. An output is <code>victims</code> or
+ * <code>escapees</code> (the totals at the horizon) or the name of a
+ * location (its victims at the horizon).
+ * <p>
+ * As each run finishes, a line is appended to the checkpoint file {@link
+ * #CHECKPOINT_FILE} in the output directory, giving (tab-separated) the
+ * run's number, its seed, its final number of victims and escapees, its
+ * parameters, and each location's final victims (as 
+ * <i>name</i>=<i>count</i>, separated by semicolons). If a sweep is
+ * interrupted, running it again with the same settings performs only the
+ * runs the checkpoint doesn't mention (a line left incomplete by the
+ * interruption counts as not mentioning its run). When the sweep is done,
+ * the mean and confidence interval of each output, for each point, are
+ * written to {@link #SUMMARY_FILE}.
+ * <p>
+ * From the command line:
+ * <pre>
+ *   java edu.umw.cpsc.humantrafficking.ParameterSweep
+ *       -factor name:low:high [-factor name:low:high ...]
+ *       [-design grid|lhs|sobol] [-points n] [-replicates n]
+ *       [-threads n] [-seed n] [-scenario file] [-until year]
+ *       [-steps n] [-params name=value,...] [-output dir]
+ *       [-halfwidth h|h%] [-maxreplicates n] [-confidence c]
+ *       [-outputs name,...] [-crn true|false]
+ * </pre>
+ */
+public class ParameterSweep {
+
+    /**
+     * The name of the file, in the sweep's output directory, recording
+     * every finished run.
+     */
+    public static final String CHECKPOINT_FILE = "sweep.checkpoint";
+
+    /**
+     * The name of the file, in the sweep's output directory, summarizing
+     * each point's outputs.
+     */
+    public static final String SUMMARY_FILE = "sweep.summary";
+
+    // Direction numbers for the second and later dimensions of the Sobol
+    //   sequence (from Joe and Kuo's tables): the degree of each primitive
+    //   polynomial, its coefficients, and its initial direction numbers.
+    private static final int[] SOBOL_DEGREES = { 1, 2, 3, 3, 4, 4, 5 };
+    private static final int[] SOBOL_COEFFICIENTS = { 0, 1, 1, 2, 1, 4, 2 };
+    private static final int[][] SOBOL_INITIAL = {
+        { 1 }, { 1, 3 }, { 1, 3, 1 }, { 1, 1, 1 }, { 1, 1, 3, 3 },
+        { 1, 3, 5, 13 }, { 1, 1, 5, 5, 17 }
+    };
+
+    private String scenarioFile;
+    private int horizonYear;
+    private String outputDirectory;
+    private ArrayList<String> factorNames = new ArrayList<String>();
+    private ArrayList<double[]> factorRanges = new ArrayList<double[]>();
+    private String design = "grid";
+    private int points = 3;
+    private int replicates = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long seed = 0;
+    private int stepsPerYear = 1;
+    private Parameters baseParameters = Parameters.DEFAULTS;
+    private double targetHalfWidth = 0;
+    private boolean relative = false;
+    private int maxReplicates = 100;
+    private double confidence = .95;
+    private String[] outputs = { "victims" };
+    private boolean commonRandomNumbers = false;
+
+    private PrintWriter checkpoint;
+
+    // The final state of one run.
+    private static class RunResult {
+        int index;
+        long seed;
+        String parameters;
+        int numVics;
+        int numEscapees;
+        HashMap<String,Integer> locationVics = new HashMap<String,Integer>();
+    }
+
+    /**
+     * Create a sweep with no factors, of runs of the scenario passed, up
+     * to the year passed, writing into the directory passed.
+     */
+    public ParameterSweep(String scenarioFile, int horizonYear,
+        String outputDirectory) {
+
+        this.scenarioFile = scenarioFile;
+        this.horizonYear = horizonYear;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Vary the named parameter between the values passed.
+     * @throws IllegalArgumentException if there is no such parameter.
+     */
+    public void addFactor(String name, double low, double high) {
+        Parameters.indexOf(name);
+        factorNames.add(name);
+        factorRanges.add(new double[] { low, high });
+    }
+
+    /**
+     * Choose the design: "grid", "lhs" or "sobol". Defaults to "grid".
+     */
+    public void setDesign(String design) {
+        if (!design.equals("grid") && !design.equals("lhs") &&
+                !design.equals("sobol")) {
+            throw new IllegalArgumentException("No design named " + design);
+        }
+        this.design = design;
+    }
+
+    /**
+     * Set the number of levels of each factor (for a grid), or the number
+     * of points (otherwise). Defaults to 3.
+     */
+    public void setPoints(int points) {
+        this.points = points;
+    }
+
+    /**
+     * Set the number of seeds with which each point is run (or, if a
+     * target half-width is set, the least number). Defaults to 1.
+     */
+    public void setReplicates(int replicates) {
+        this.replicates = replicates;
+    }
+
+    /**
+     * Set the number of runs performed at once. Defaults to the number of
+     * processors.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set the seed of the first replicate of each point (and of the Latin
+     * hypercube's pairing of strata). Defaults to 0.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Choose whether every run uses common random numbers (see {@link
+     * HumanTrafficking#setCommonRandomNumbers}). Defaults to false.
+     */
+    public void setCommonRandomNumbers(boolean commonRandomNumbers) {
+        this.commonRandomNumbers = commonRandomNumbers;
+    }
+
+    /**
+     * Set the number of timesteps per year of every run. Defaults to 1.
+     */
+    public void setStepsPerYear(int stepsPerYear) {
+        this.stepsPerYear = stepsPerYear;
+    }
+
+    /**
+     * Set the values of the parameters that are not varied. Defaults to
+     * {@link Parameters#DEFAULTS}.
+     */
+    public void setBaseParameters(Parameters baseParameters) {
+        this.baseParameters = baseParameters;
+    }
+
+    /**
+     * Replicate each point only until the confidence interval for each
+     * output's mean has the half-width passed (or {@link
+     * #setMaxReplicates} runs have been performed). Defaults to 0: every
+     * point is run exactly {@link #setReplicates} times.
+     * @param relative whether the half-width is a fraction of the mean.
+     */
+    public void setTargetHalfWidth(double targetHalfWidth,
+        boolean relative) {
+        this.targetHalfWidth = targetHalfWidth;
+        this.relative = relative;
+    }
+
+    /**
+     * Set the most runs of any point, when replicating to a target
+     * half-width. Defaults to 100.
+     */
+    public void setMaxReplicates(int maxReplicates) {
+        this.maxReplicates = maxReplicates;
+    }
+
+    /**
+     * Set the confidence level of the intervals. Defaults to .95.
+     */
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    /**
+     * Choose the outputs whose intervals are estimated: each
+     * "victims", "escapees", or a location's name. Defaults to
+     * "victims".
+     */
+    public void setOutputs(String... outputs) {
+        this.outputs = outputs;
+    }
+
+    /**
+     * Return the parameters of every point of the design, in order.
+     */
+    public List<Parameters> generateDesign() {
+        int dims = factorNames.size();
+        double[][] unit;
+        if (design.equals("grid")) {
+            unit = grid(dims, points);
+        } else if (design.equals("lhs")) {
+            unit = latinHypercube(dims, points,
+                new MersenneTwisterFast(seed));
+        } else {
+            unit = sobol(dims, points);
+        }
+        ArrayList<Parameters> result = new ArrayList<Parameters>();
+        for (int i=0; i<unit.length; i++) {
+            Parameters p = baseParameters;
+            for (int j=0; j<dims; j++) {
+                double[] range = factorRanges.get(j);
+                p = p.with(factorNames.get(j),
+                    range[0] + unit[i][j] * (range[1] - range[0]));
+            }
+            result.add(p);
+        }
+        return result;
+    }
+
+    /**
+     * Return every combination of <code>levels</code> evenly spaced values
+     * (from 0 to 1) of each of <code>dims</code> coordinates. (A single
+     * level is 0.5.)
+     */
+    static double[][] grid(int dims, int levels) {
+        int n = 1;
+        for (int j=0; j<dims; j++) {
+            n *= levels;
+        }
+        double[][] result = new double[n][dims];
+        for (int i=0; i<n; i++) {
+            int rest = i;
+            for (int j=dims-1; j>=0; j--) {
+                int level = rest % levels;
+                rest /= levels;
+                result[i][j] = levels == 1 ? 0.5 :
+                    level / (double) (levels - 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return a Latin hypercube of <code>n</code> points in the unit cube
+     * of <code>dims</code> dimensions: in each dimension, exactly one
+     * point falls (at a random place) in each of <code>n</code> equal
+     * strata.
+     */
+    static double[][] latinHypercube(int dims, int n,
+        MersenneTwisterFast random) {
+
+        double[][] result = new double[n][dims];
+        int[] strata = new int[n];
+        for (int j=0; j<dims; j++) {
+            for (int i=0; i<n; i++) {
+                strata[i] = i;
+            }
+            for (int i=n-1; i>0; i--) {
+                int k = random.nextInt(i + 1);
+                int swap = strata[i];
+                strata[i] = strata[k];
+                strata[k] = swap;
+            }
+            for (int i=0; i<n; i++) {
+                result[i][j] = (strata[i] + random.nextDouble()) / n;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the first <code>n</code> points (after the origin) of the
+     * Sobol sequence in <code>dims</code> dimensions, generated in Gray
+     * code order.
+     */
+    static double[][] sobol(int dims, int n) {
+        if (dims > SOBOL_DEGREES.length + 1) {
+            throw new IllegalArgumentException("Sobol designs support at " +
+                "most " + (SOBOL_DEGREES.length + 1) + " factors");
+        }
+        final int BITS = 32;
+        long[][] directions = new long[dims][BITS + 1];
+        for (int k=1; k<=BITS; k++) {
+            directions[0][k] = 1L << (BITS - k);
+        }
+        for (int j=1; j<dims; j++) {
+            int s = SOBOL_DEGREES[j-1];
+            int a = SOBOL_COEFFICIENTS[j-1];
+            long[] v = directions[j];
+            for (int k=1; k<=s; k++) {
+                v[k] = (long) SOBOL_INITIAL[j-1][k-1] << (BITS - k);
+            }
+            for (int k=s+1; k<=BITS; k++) {
+                v[k] = v[k-s] ^ (v[k-s] >> s);
+                for (int i=1; i<s; i++) {
+                    if (((a >> (s - 1 - i)) & 1) != 0) {
+                        v[k] ^= v[k-i];
+                    }
+                }
+            }
+        }
+
+        double[][] result = new double[n][dims];
+        long[] x = new long[dims];
+        for (int i=0; i<n; i++) {
+            // (The direction to apply is that of the lowest zero bit of i.)
+            int c = Integer.numberOfTrailingZeros(~i) + 1;
+            for (int j=0; j<dims; j++) {
+                x[j] ^= directions[j][c];
+                result[i][j] = x[j] / (double) (1L << BITS);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Perform every run of the sweep not already recorded in its
+     * checkpoint (and, if replicating to a target half-width, needed),
+     * write the summary, and return the number of runs performed.
+     * @throws IllegalStateException if the checkpoint was written by a
+     * sweep with different settings.
+     */
+    public int run() throws IOException, InterruptedException {
+        List<Parameters> design = generateDesign();
+        int maxRuns = targetHalfWidth > 0 ?
+            Math.max(replicates, maxReplicates) : replicates;
+        File dir = new File(outputDirectory);
+        dir.mkdirs();
+        File checkpointFile = new File(dir, CHECKPOINT_FILE);
+        HashMap<Integer,RunResult> done = readCheckpoint(checkpointFile);
+
+        ReplicationEnsemble[] ensembles =
+            new ReplicationEnsemble[design.size()];
+        boolean torn = endsMidLine(checkpointFile);
+        checkpoint = new PrintWriter(new FileWriter(checkpointFile, true));
+        if (torn) {
+            // (Start afresh after the line cut short.)
+            checkpoint.println();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ExecutorCompletionService<RunResult> completed =
+            new ExecutorCompletionService<RunResult>(pool);
+        // The number of the next replicate of each point to be considered
+        //   for starting (those recorded are skipped).
+        int[] next = new int[design.size()];
+        int performed = 0;
+        int running = 0;
+        try {
+            // Give every point all its recorded runs (which, as runs finish
+            //   out of order, need not be its first few), then start
+            //   whatever more it needs.
+            for (int point=0; point<design.size(); point++) {
+                ensembles[point] = new ReplicationEnsemble(outputs.length,
+                    replicates, maxRuns, confidence, targetHalfWidth,
+                    relative);
+                for (int r=0; r<maxRuns; r++) {
+                    RunResult result = done.get(point * maxRuns + r);
+                    if (result == null) {
+                        continue;
+                    }
+                    if (result.seed != seed + r || !result.parameters.equals(
+                            design.get(point).toString())) {
+                        throw new IllegalStateException("Run " +
+                            result.index + " in " + checkpointFile +
+                            " does not match this sweep's settings");
+                    }
+                    ensembles[point].launch();
+                    ensembles[point].add(getOutputs(result));
+                }
+                running += launchMore(completed, design, point, maxRuns,
+                    ensembles[point], done, next);
+            }
+
+            // As each run finishes, see whether its point needs more.
+            while (running > 0) {
+                RunResult result = completed.take().get();
+                running--;
+                performed++;
+                int point = result.index / maxRuns;
+                ensembles[point].add(getOutputs(result));
+                running += launchMore(completed, design, point, maxRuns,
+                    ensembles[point], done, next);
+            }
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            throw new RuntimeException("A run of the sweep failed",
+                e.getCause());
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE,
+                java.util.concurrent.TimeUnit.MILLISECONDS);
+            checkpoint.close();
+        }
+        writeSummary(new File(dir, SUMMARY_FILE), design, ensembles);
+        return performed;
+    }
+
+    // Start as many runs of the point passed as its ensemble wants, and
+    //   return how many that was. Each is given the point's lowest
+    //   replicate number not yet started or recorded.
+    private int launchMore(ExecutorCompletionService<RunResult> completed,
+        List<Parameters> design, int point, int maxRuns,
+        ReplicationEnsemble ensemble, HashMap<Integer,RunResult> done,
+        int[] next) {
+
+        int n = ensemble.numToLaunch();
+        for (int i=0; i<n; i++) {
+            ensemble.launch();
+            while (done.containsKey(point * maxRuns + next[point])) {
+                next[point]++;
+            }
+            final int r = next[point]++;
+            final int index = point * maxRuns + r;
+            final Parameters parameters = design.get(point);
+            completed.submit(new java.util.concurrent.Callable<RunResult>() {
+                public RunResult call() {
+                    return performRun(index, seed + r, parameters);
+                }
+            });
+        }
+        return n;
+    }
+
+    private RunResult performRun(int index, long runSeed,
+        Parameters parameters) {
+        BatchRunner runner = new BatchRunner(scenarioFile, horizonYear,
+            runSeed, new File(outputDirectory, "run" + index).getPath(),
+            false);
+        runner.setStepsPerYear(stepsPerYear);
+        runner.setCommonRandomNumbers(commonRandomNumbers);
+        runner.setParameters(parameters);
+        HumanTrafficking sim = runner.run();
+
+        RunResult result = new RunResult();
+        result.index = index;
+        result.seed = runSeed;
+        result.parameters = parameters.toString();
+        StringBuilder locationVics = new StringBuilder();
+        for (int id=0; id<sim.getNumLocations(); id++) {
+            Location l = sim.getLocation(id);
+            result.numVics += l.getNumVics();
+            result.numEscapees += l.getNumEscapees();
+            result.locationVics.put(l.getName(), l.getNumVics());
+            locationVics.append(id == 0 ? "" : ";").append(l.getName()).
+                append('=').append(l.getNumVics());
+        }
+        synchronized (checkpoint) {
+            checkpoint.println(index + "\t" + runSeed + "\t" +
+                result.numVics + "\t" + result.numEscapees + "\t" +
+                parameters + "\t" + locationVics);
+            checkpoint.flush();
+        }
+        return result;
+    }
+
+    // Return the chosen outputs of the run passed.
+    private double[] getOutputs(RunResult result) {
+        double[] values = new double[outputs.length];
+        for (int i=0; i<outputs.length; i++) {
+            if (outputs[i].equals("victims")) {
+                values[i] = result.numVics;
+            } else if (outputs[i].equals("escapees")) {
+                values[i] = result.numEscapees;
+            } else if (result.locationVics.containsKey(outputs[i])) {
+                values[i] = result.locationVics.get(outputs[i]);
+            } else {
+                throw new IllegalArgumentException("No output named " +
+                    outputs[i]);
+            }
+        }
+        return values;
+    }
+
+    // Return every run the checkpoint file records, by run number.
+    private HashMap<Integer,RunResult> readCheckpoint(File file)
+        throws IOException {
+        HashMap<Integer,RunResult> done = new HashMap<Integer,RunResult>();
+        if (!file.exists()) {
+            return done;
+        }
+        // (The last line, if it has no newline, was cut short by an
+        //   interruption, even if what is left of it parses. A run cut
+        //   short and then rerun is recorded twice; its last line wins.)
+        boolean torn = endsMidLine(file);
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        String line;
+        String next = br.readLine();
+        while ((line = next) != null) {
+            next = br.readLine();
+            if (next == null && torn) {
+                break;
+            }
+            RunResult result = parseCheckpointLine(line);
+            if (result != null) {
+                done.put(result.index, result);
+            }
+        }
+        br.close();
+        return done;
+    }
+
+    // Return the run recorded by the checkpoint line passed, or null if
+    //   the line is incomplete (cut short by an interruption).
+    private static RunResult parseCheckpointLine(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 6) {
+            return null;
+        }
+        try {
+            RunResult result = new RunResult();
+            result.index = Integer.parseInt(fields[0]);
+            result.seed = Long.parseLong(fields[1]);
+            result.numVics = Integer.parseInt(fields[2]);
+            result.numEscapees = Integer.parseInt(fields[3]);
+            result.parameters = fields[4];
+            for (String count : fields[5].split(";")) {
+                int eq = count.lastIndexOf('=');
+                result.locationVics.put(count.substring(0, eq),
+                    Integer.valueOf(count.substring(eq + 1)));
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            return null;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // Return whether the file passed exists, and its last line has no
+    //   newline.
+    private static boolean endsMidLine(File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return false;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(in.length() - 1);
+            return in.read() != '\n';
+        } finally {
+            in.close();
+        }
+    }
+
+    // Write, for each point, its number of runs, each output's mean and
+    //   confidence interval half-width, and its parameters.
+    private void writeSummary(File file, List<Parameters> design,
+        ReplicationEnsemble[] ensembles) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        out.print("point\truns");
+        for (String output : outputs) {
+            out.print("\t" + output + "\t+/-");
+        }
+        out.println("\tparameters");
+        for (int point=0; point<design.size(); point++) {
+            ReplicationEnsemble ensemble = ensembles[point];
+            out.print(point + "\t" + ensemble.getNumFinished());
+            for (int i=0; i<outputs.length; i++) {
+                out.print("\t" + ensemble.getMean(i) + "\t" +
+                    ensemble.getHalfWidth(i));
+            }
+            out.println("\t" + design.get(point));
+        }
+        out.close();
+    }
+
+    /**
+     * Run one sweep as directed by the command-line arguments described
+     * above. Arguments not given take their defaults: a grid of 3 levels
+     * per factor, one replicate, a thread per processor, seed 0, the
+     * scenario <code>routes.txt</code>, the horizon {@link
+     * BatchRunner#DEFAULT_HORIZON_YEAR}, one timestep per year, the
+     * default parameters, the output directory <code>sweep</code>, and
+     * (when a half-width is given) at most 100 replicates, 95% confidence
+     * and the output <code>victims</code>, and independent random numbers.
+     */
+    public static void main(String[] args) throws Exception {
+        String usage = "Usage: ParameterSweep -factor name:low:high ... " +
+            "[-design grid|lhs|sobol] [-points n] [-replicates n] " +
+            "[-threads n] [-seed n] [-scenario file] [-until year] " +
+            "[-steps n] [-params name=value,...] [-output dir] " +
+            "[-halfwidth h|h%] [-maxreplicates n] [-confidence c] " +
+            "[-outputs name,...] [-crn true|false]";
+        String scenarioFile = "routes.txt";
+        int horizonYear = BatchRunner.DEFAULT_HORIZON_YEAR;
+        String outputDirectory = "sweep";
+        ArrayList<String> factors = new ArrayList<String>();
+        ArrayList<String[]> settings = new ArrayList<String[]>();
+
+        for (int i=0; i<args.length; i+=2) {
+            if (i+1 == args.length) {
+                throw new IllegalArgumentException(usage);
+            }
+            if (args[i].equals("-scenario")) {
+                scenarioFile = args[i+1];
+            } else if (args[i].equals("-until")) {
+                horizonYear = Integer.parseInt(args[i+1]);
+            } else if (args[i].equals("-output")) {
+                outputDirectory = args[i+1];
+            } else if (args[i].equals("-factor")) {
+                factors.add(args[i+1]);
+            } else {
+                settings.add(new String[] { args[i], args[i+1] });
+            }
+        }
+        if (factors.isEmpty()) {
+            throw new IllegalArgumentException(usage);
+        }
+
+        ParameterSweep sweep = new ParameterSweep(scenarioFile, horizonYear,
+            outputDirectory);
+        for (String factor : factors) {
+            String[] parts = factor.split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException(usage);
+            }
+            sweep.addFactor(parts[0], Double.parseDouble(parts[1]),
+                Double.parseDouble(parts[2]));
+        }
+        for (String[] setting : settings) {
+            String value = setting[1];
+            if (setting[0].equals("-design")) {
+                sweep.setDesign(value);
+            } else if (setting[0].equals("-points")) {
+                sweep.setPoints(Integer.parseInt(value));
+            } else if (setting[0].equals("-replicates")) {
+                sweep.setReplicates(Integer.parseInt(value));
+            } else if (setting[0].equals("-threads")) {
+                sweep.setThreads(Integer.parseInt(value));
+            } else if (setting[0].equals("-seed")) {
+                sweep.setSeed(Long.parseLong(value));
+            } else if (setting[0].equals("-steps")) {
+                sweep.setStepsPerYear(Integer.parseInt(value));
+            } else if (setting[0].equals("-params")) {
+                sweep.setBaseParameters(Parameters.parse(value));
+            } else if (setting[0].equals("-halfwidth")) {
+                boolean relative = value.endsWith("%");
+                sweep.setTargetHalfWidth(relative ?
+                    Double.parseDouble(value.substring(0,
+                        value.length() - 1)) / 100 :
+                    Double.parseDouble(value), relative);
+            } else if (setting[0].equals("-maxreplicates")) {
+                sweep.setMaxReplicates(Integer.parseInt(value));
+            } else if (setting[0].equals("-confidence")) {
+                sweep.setConfidence(Double.parseDouble(value));
+            } else if (setting[0].equals("-outputs")) {
+                sweep.setOutputs(value.split(","));
+            } else if (setting[0].equals("-crn")) {
+                sweep.setCommonRandomNumbers(Boolean.parseBoolean(value));
+            } else {
+                throw new IllegalArgumentException(usage);
+            }
+        }
+        int performed = sweep.run();
+        System.out.println("Performed " + performed + " runs; results in " +
+            new File(outputDirectory, SUMMARY_FILE));
+    }
+}
@@ -0,0 +1,196 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * The tunable parameters of one simulation run. A Parameters object is
+ * immutable: to vary a parameter, derive a new object with {@link #with}.
+ * Each parameter has a name (see {@link #NAMES}), by which it can be set
+ * from the command line or varied by a {@link ParameterSweep}, and a typed
+ * getter. Unless a simulation is given others (see {@link
+ * HumanTrafficking#setParameters}), it runs with the {@link #DEFAULTS},
+ * which are the model's historical constants.
+ */
+public final class Parameters implements java.io.Serializable {
+
+    /**
+     * The name of each parameter, in the order {@link #toString} lists
+     * them:
+     * <ul>
+     * <li><code>probEscape</code>: the annual probability that each victim
+     * escapes (default {@link Victim#PROB_ESCAPE}).</li>
+     * <li><code>retireProbIntercept</code> and
+     * <code>retireProbSlope</code>: the linear function of age giving each
+     * victim's annual probability of retiring (defaults {@link
+     * Victim#RETIRE_PROB_INTERCEPT} and {@link
+     * Victim#RETIRE_PROB_SLOPE}).</li>
+     * <li><code>probReacquireVictim</code>: the annual probability that
+     * each escapee is reacquired (default {@link
+     * Route#PROB_REACQUIRE_VICTIM}).</li>
+     * <li><code>probImmigrationSearchSuccess</code>: the annual probability
+     * that an immigration search frees victims (default {@link
+     * Location#PROB_IMMIGRATION_SEARCH_SUCCESS}).</li>
+     * <li><code>jitterMax</code>: the greatest on-screen offset of a
+     * victim from her location, in pixels (default {@link
+     * Victim#JITTER_MAX}).</li>
+     * </ul>
+     */
+    public static final String[] NAMES = {
+        "probEscape",
+        "retireProbIntercept",
+        "retireProbSlope",
+        "probReacquireVictim",
+        "probImmigrationSearchSuccess",
+        "jitterMax"
+    };
+
+    private static final int PROB_ESCAPE = 0;
+    private static final int RETIRE_PROB_INTERCEPT = 1;
+    private static final int RETIRE_PROB_SLOPE = 2;
+    private static final int PROB_REACQUIRE_VICTIM = 3;
+    private static final int PROB_IMMIGRATION_SEARCH_SUCCESS = 4;
+    private static final int JITTER_MAX = 5;
+
+    /**
+     * The parameters with which the model was originally built.
+     */
+    public static final Parameters DEFAULTS = new Parameters(new double[] {
+        Victim.PROB_ESCAPE,
+        Victim.RETIRE_PROB_INTERCEPT,
+        Victim.RETIRE_PROB_SLOPE,
+        Route.PROB_REACQUIRE_VICTIM,
+        Location.PROB_IMMIGRATION_SEARCH_SUCCESS,
+        Victim.JITTER_MAX
+    });
+
+    private final double[] values;
+
+    private Parameters(double[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Return the position of the named parameter in {@link #NAMES}.
+     * @throws IllegalArgumentException if there is no such parameter.
+     */
+    public static int indexOf(String name) {
+        for (int i=0; i<NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No parameter named " + name);
+    }
+
+    /**
+     * Return a copy of these parameters, with the named one changed to the
+     * value passed.
+     * @throws IllegalArgumentException if there is no such parameter.
+     */
+    public Parameters with(String name, double value) {
+        double[] copy = values.clone();
+        copy[indexOf(name)] = value;
+        return new Parameters(copy);
+    }
+
+    /**
+     * Return the value of the named parameter.
+     * @throws IllegalArgumentException if there is no such parameter.
+     */
+    public double get(String name) {
+        return values[indexOf(name)];
+    }
+
+    /**
+     * Return the annual probability that each victim escapes.
+     */
+    public double getProbEscape() {
+        return values[PROB_ESCAPE];
+    }
+
+    /**
+     * Return the "intercept" of the linear function of age giving each
+     * victim's annual probability of retiring.
+     */
+    public double getRetireProbIntercept() {
+        return values[RETIRE_PROB_INTERCEPT];
+    }
+
+    /**
+     * Return the "slope" of the linear function of age giving each
+     * victim's annual probability of retiring.
+     */
+    public double getRetireProbSlope() {
+        return values[RETIRE_PROB_SLOPE];
+    }
+
+    /**
+     * Return the annual probability that each escapee is reacquired.
+     */
+    public double getProbReacquireVictim() {
+        return values[PROB_REACQUIRE_VICTIM];
+    }
+
+    /**
+     * Return the annual probability that an immigration search succeeds.
+     */
+    public double getProbImmigrationSearchSuccess() {
+        return values[PROB_IMMIGRATION_SEARCH_SUCCESS];
+    }
+
+    /**
+     * Return the greatest on-screen offset of a victim from her location.
+     */
+    public double getJitterMax() {
+        return values[JITTER_MAX];
+    }
+
+    /**
+     * Parse parameters in the format of {@link #toString}. Parameters not
+     * mentioned take their {@link #DEFAULTS}.
+     * @throws IllegalArgumentException if the string is malformed.
+     */
+    public static Parameters parse(String s) {
+        Parameters p = DEFAULTS;
+        if (s.trim().isEmpty()) {
+            return p;
+        }
+        for (String setting : s.split(",")) {
+            int eq = setting.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value, " +
+                    "not " + setting);
+            }
+            try {
+                p = p.with(setting.substring(0, eq).trim(),
+                    Double.parseDouble(setting.substring(eq + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value in " +
+                    setting, e);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Return these parameters as comma-separated name=value pairs, in the
+     * order of {@link #NAMES}.
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<NAMES.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(NAMES[i]).append('=').append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof Parameters &&
+            java.util.Arrays.equals(values, ((Parameters) o).values);
+    }
+
+    public int hashCode() {
+        return java.util.Arrays.hashCode(values);
+    }
+}
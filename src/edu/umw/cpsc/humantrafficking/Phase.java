@@ -0,0 +1,96 @@
+package edu.umw.cpsc.humantrafficking;
+
+import sim.engine.*;
+
+/**
+ * A Phase is a group of Steppables that all run at the same point in
+ * every timestep. The Phase itself is scheduled once (as a repeating
+ * event), and when it steps, it steps each of its participants in turn,
+ * in the order they joined, in one sweep over an array. Joining or
+ * leaving a Phase costs O(1), and nothing on the MASON schedule, no
+ * matter how many participants it has.
+ * <p>
+ * Every fixed point in the simulation's year is one Phase; see {@link
+ * HumanTrafficking#start} for the list and their order.
+ */
+class Phase implements Steppable {
+
+    // One Entry per participant. Leaving the Phase just clears the Entry's
+    //   reference to its participant; the next sweep drops cleared Entries
+    //   while preserving the order of the rest.
+    private static class Entry implements Stoppable {
+        Steppable participant;
+        Phase phase;
+
+        Entry(Steppable participant, Phase phase) {
+            this.participant = participant;
+            this.phase = phase;
+        }
+
+        public void stop() {
+            if (participant != null) {
+                participant = null;
+                phase.numLive--;
+            }
+        }
+    }
+
+    private Entry[] entries = new Entry[16];
+    private int numEntries;
+    private int numLive;
+
+    /**
+     * Add a participant, which will be stepped from the next time this
+     * Phase runs on.
+     * @return a Stoppable which, when stopped, removes the participant
+     * from this Phase.
+     */
+    Stoppable add(Steppable participant) {
+        if (numEntries == entries.length) {
+            Entry[] bigger = new Entry[2 * entries.length];
+            System.arraycopy(entries, 0, bigger, 0, numEntries);
+            entries = bigger;
+        }
+        Entry entry = new Entry(participant, this);
+        entries[numEntries++] = entry;
+        numLive++;
+        return entry;
+    }
+
+    /**
+     * Return the number of participants in this Phase.
+     */
+    int size() {
+        return numLive;
+    }
+
+    /**
+     * Step every participant. Participants added while this is happening
+     * will not be stepped until the next time; participants removed while
+     * this is happening will not be stepped (if they haven't been yet).
+     * @param state the HumanTrafficking simulation.
+     */
+    public void step(SimState state) {
+        int n = numEntries;
+        int kept = 0;
+        for (int i=0; i<n; i++) {
+            Entry entry = entries[i];
+            Steppable participant = entry.participant;
+            if (participant == null) {
+                continue;
+            }
+            entries[kept++] = entry;
+            participant.step(state);
+        }
+
+        // Keep any participants added during the sweep, and forget the
+        //   removed ones.
+        for (int i=n; i<numEntries; i++) {
+            entries[kept++] = entries[i];
+        }
+        for (int i=kept; i<numEntries; i++) {
+            entries[i] = null;
+        }
+        numEntries = kept;
+    }
+}
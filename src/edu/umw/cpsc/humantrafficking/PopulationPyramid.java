@@ -0,0 +1,194 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * The non-victim population of a {@link Location}, broken down by sex and
+ * single year of age (0 through {@link #MAX_AGE}, the last bucket holding
+ * everyone that age or older). Counts are kept as (possibly fractional)
+ * expected numbers of people, in plain arrays, so that the whole
+ * population can be aged, thinned by mortality and replenished by births
+ * once a year in a few straight loops, with no per-person objects.
+ * <p>
+ * The number of people "eligible" to be trafficked (females aged {@link
+ * #MIN_ELIGIBLE_AGE} through {@link #MAX_ELIGIBLE_AGE}) is kept as a
+ * running total, so asking for it is O(1).
+ */
+public class PopulationPyramid implements java.io.Serializable {
+
+    /**
+     * The oldest age tracked individually; the last bucket holds everyone
+     * at least this old.
+     */
+    public static final int MAX_AGE = 100;
+
+    /**
+     * The youngest age at which a female is counted as a potential victim.
+     */
+    public static final int MIN_ELIGIBLE_AGE = 12;
+
+    /**
+     * The oldest age at which a female is counted as a potential victim.
+     */
+    public static final int MAX_ELIGIBLE_AGE = 30;
+
+    /**
+     * The annual number of births per woman of child-bearing age (15-49).
+     */
+    public static final double FERTILITY_RATE = .06;
+
+    /**
+     * The fraction of births that are female.
+     */
+    public static final double FEMALE_BIRTH_RATIO = .488;
+
+    /**
+     * The annual probability of death at age 0, in a Gompertz model in
+     * which mortality grows exponentially with age.
+     */
+    public static final double MORTALITY_INTERCEPT = .0002;
+
+    /**
+     * The exponential rate at which annual mortality grows with age.
+     */
+    public static final double MORTALITY_GROWTH = .085;
+
+    private static final int MIN_FERTILE_AGE = 15;
+    private static final int MAX_FERTILE_AGE = 49;
+
+    // The fraction of people of each age surviving one more year.
+    private static final double[] SURVIVAL = new double[MAX_AGE + 1];
+    static {
+        for (int age=0; age<=MAX_AGE; age++) {
+            SURVIVAL[age] = 1 - Math.min(1,
+                MORTALITY_INTERCEPT * Math.exp(MORTALITY_GROWTH * age));
+        }
+    }
+
+    private double[] females = new double[MAX_AGE + 1];
+    private double[] males = new double[MAX_AGE + 1];
+
+    // Scratch arrays, swapped with the above on each advance().
+    private double[] nextFemales = new double[MAX_AGE + 1];
+    private double[] nextMales = new double[MAX_AGE + 1];
+
+    private double total;
+    private double eligible;
+
+    /**
+     * Create a population pyramid consistent with the simple demographics
+     * given for a location: a fraction <code>appAgeRatio</code> of each
+     * sex falls evenly in the eligible age range, and the rest evenly
+     * across all other ages.
+     * @param population the number of people.
+     * @param genderRatio the fraction of them that are female.
+     * @param appAgeRatio the fraction of them that are of "prostitution
+     * age" ({@link #MIN_ELIGIBLE_AGE}-{@link #MAX_ELIGIBLE_AGE}).
+     */
+    public PopulationPyramid(int population, double genderRatio,
+        double appAgeRatio) {
+
+        int eligibleAges = MAX_ELIGIBLE_AGE - MIN_ELIGIBLE_AGE + 1;
+        int otherAges = MAX_AGE + 1 - eligibleAges;
+        double numFemales = population * genderRatio;
+        double numMales = population - numFemales;
+        for (int age=0; age<=MAX_AGE; age++) {
+            double share = isEligibleAge(age) ?
+                appAgeRatio / eligibleAges : (1 - appAgeRatio) / otherAges;
+            females[age] = numFemales * share;
+            males[age] = numMales * share;
+        }
+        recount();
+    }
+
+    private static boolean isEligibleAge(int age) {
+        return age >= MIN_ELIGIBLE_AGE && age <= MAX_ELIGIBLE_AGE;
+    }
+
+    private static int bucket(int age) {
+        return Math.max(0, Math.min(MAX_AGE, age));
+    }
+
+    /**
+     * Return the total number of people.
+     */
+    public double getTotal() {
+        return total;
+    }
+
+    /**
+     * Return the number of females of eligible age.
+     */
+    public double getEligible() {
+        return eligible;
+    }
+
+    /**
+     * Remove one female of the age passed (<i>e.g.</i>, because she has
+     * been abducted). If fewer than one remain at that age, all that
+     * remain are removed.
+     */
+    public void removeFemale(int age) {
+        int a = bucket(age);
+        double removed = Math.min(1, females[a]);
+        females[a] -= removed;
+        total -= removed;
+        if (isEligibleAge(a)) {
+            eligible -= removed;
+        }
+    }
+
+    /**
+     * Add one female of the age passed (<i>e.g.</i>, because she has been
+     * freed or has retired).
+     */
+    public void addFemale(int age) {
+        int a = bucket(age);
+        females[a]++;
+        total++;
+        if (isEligibleAge(a)) {
+            eligible++;
+        }
+    }
+
+    /**
+     * Advance the population by one year: everyone ages one year, each
+     * age's mortality is applied, and births (from females of
+     * child-bearing age) enter at age 0.
+     */
+    public void advance() {
+        double births = 0;
+        for (int age=MIN_FERTILE_AGE; age<=MAX_FERTILE_AGE; age++) {
+            births += females[age];
+        }
+        births *= FERTILITY_RATE;
+
+        nextFemales[0] = births * FEMALE_BIRTH_RATIO;
+        nextMales[0] = births * (1 - FEMALE_BIRTH_RATIO);
+        for (int age=1; age<MAX_AGE; age++) {
+            nextFemales[age] = females[age-1] * SURVIVAL[age-1];
+            nextMales[age] = males[age-1] * SURVIVAL[age-1];
+        }
+        nextFemales[MAX_AGE] = females[MAX_AGE-1] * SURVIVAL[MAX_AGE-1] +
+            females[MAX_AGE] * SURVIVAL[MAX_AGE];
+        nextMales[MAX_AGE] = males[MAX_AGE-1] * SURVIVAL[MAX_AGE-1] +
+            males[MAX_AGE] * SURVIVAL[MAX_AGE];
+
+        double[] swap = females;
+        females = nextFemales;
+        nextFemales = swap;
+        swap = males;
+        males = nextMales;
+        nextMales = swap;
+        recount();
+    }
+
+    private void recount() {
+        total = 0;
+        eligible = 0;
+        for (int age=0; age<=MAX_AGE; age++) {
+            total += females[age] + males[age];
+        }
+        for (int age=MIN_ELIGIBLE_AGE; age<=MAX_ELIGIBLE_AGE; age++) {
+            eligible += females[age];
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * Keyed random numbers, for running the simulation with common random
+ * numbers (see {@link HumanTrafficking#setCommonRandomNumbers}). Rather
+ * than being the next number of one sequential stream, each draw is a
+ * hash (SplitMix64's finalizer) of the seed, the kind of decision it is
+ * for (one of the constants below), a key naming what it is drawn for (a
+ * route, location or victim), and the timestep. So two runs with the same
+ * seed draw the same number for the same decision, however differently
+ * they have behaved elsewhere: a change that makes one location's
+ * searches succeed more often leaves every other route, location and
+ * victim's draws as they were.
+ */
+final class RandomStreams implements java.io.Serializable {
+
+    /** A route's estimate of the victims it abducts (key: route index). */
+    static final int ABDUCTION = 0;
+
+    /**
+     * The rounding of a route's abductions to a whole number (key: route
+     * index).
+     */
+    static final int ABDUCTION_ROUNDING = 1;
+
+    /**
+     * A new victim's age (key: her abduction key; see {@link
+     * #abductionKey}).
+     */
+    static final int AGE = 2;
+
+    /**
+     * Whether a victim escapes (key: her victim key; see {@link
+     * #victimKey}).
+     */
+    static final int ESCAPE = 3;
+
+    /** Whether a victim retires (key: her victim key). */
+    static final int RETIREMENT = 4;
+
+    /**
+     * Whether a location's immigration search succeeds (key: location id).
+     */
+    static final int SEARCH = 5;
+
+    /** Which victim a successful search frees (key: location id). */
+    static final int SEARCH_VICTIM = 6;
+
+    /**
+     * A chunk of a location's victims in a parallel pass (key: location id
+     * and chunk number; see {@link VictimPass}).
+     */
+    static final int VICTIM_CHUNK = 7;
+
+    /**
+     * The noise in each location's demand (the seed of the {@link
+     * DemandModel}'s own stream; see {@link #deriveSeed}).
+     */
+    static final int DEMAND = 8;
+
+    /**
+     * The on-screen offsets of victims drawn by a GUI (the seed of the
+     * simulation's display stream; see {@link #deriveSeed}).
+     */
+    static final int JITTER = 9;
+
+    /**
+     * A new victim's attributes (key: twice her abduction key, plus the
+     * attribute's number; see {@link VictimAttributes}).
+     */
+    static final int ATTRIBUTES = 10;
+
+    /**
+     * Whether an escapee retires over the year just ended (key: her victim
+     * key; see {@link Location#retireEscapees}). Kept apart from {@link
+     * #RETIREMENT}, so that an escapee reacquired in the following
+     * timestep draws afresh there.
+     */
+    static final int ESCAPEE_RETIREMENT = 11;
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private long seed;
+
+    /**
+     * Create streams from the seed passed.
+     */
+    RandomStreams(long seed) {
+        this.seed = seed;
+    }
+
+    private long hash(int decision, long key, long timestep) {
+        long h = mix(seed + GOLDEN * (decision + 1));
+        h = mix(h + GOLDEN * key);
+        return mix(h + timestep);
+    }
+
+    /**
+     * Return the key identifying a victim by how she was created: as the
+     * nth (from 0) abducted along the route with the index passed in this
+     * timestep. This does not depend on any other victim, so a change
+     * elsewhere in the model (which may, say, free victims, and so change
+     * which store slots new victims are given) does not change the draws
+     * of a victim abducted the same way.
+     */
+    static long abductionKey(int routeIndex, int n) {
+        return ((long) routeIndex << 32) | (n & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Return the key naming, for as long as she is in the simulation, the
+     * victim created with the abduction key passed (see {@link
+     * #abductionKey}) in the timestep passed. Unlike her slot in the
+     * {@link VictimStore} (slots are reused, so which one she is given
+     * depends on every victim who left before her), it depends on nothing
+     * else in the run, and she keeps it when she moves to another process.
+     */
+    static long victimKey(long abductionKey, long timestep) {
+        return mix(mix(abductionKey + GOLDEN) + timestep);
+    }
+
+    /**
+     * Return a seed, for a generator of its own, derived from the
+     * simulation's seed and the decision passed, so that the generator's
+     * stream is independent of the simulation's own (which starts from the
+     * seed itself). Every process of a distributed run derives the same
+     * seed.
+     */
+    static long deriveSeed(long seed, int decision) {
+        return mix(mix(seed + GOLDEN * (decision + 1)) + GOLDEN);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Return the number, uniform on [0,1), drawn for the decision, key and
+     * timestep passed.
+     */
+    double nextDouble(int decision, long key, long timestep) {
+        return (hash(decision, key, timestep) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Return the number, from the standard normal distribution, drawn for
+     * the decision, key and timestep passed.
+     */
+    double nextGaussian(int decision, long key, long timestep) {
+        long h = hash(decision, key, timestep);
+        double u1 = 1 - (h >>> 11) * 0x1.0p-53;
+        double u2 = (mix(h) >>> 11) * 0x1.0p-53;
+        return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+    }
+
+    /**
+     * Return a sequential stream of numbers, seeded for the decision, key
+     * and timestep passed, for making many draws of one kind at once.
+     */
+    Substream substream(int decision, long key, long timestep) {
+        return new Substream(hash(decision, key, timestep));
+    }
+
+    /**
+     * A sequential stream of random numbers (SplitMix64).
+     */
+    static final class Substream {
+        private long state;
+
+        Substream(long state) {
+            this.state = state;
+        }
+
+        /**
+         * Return the next number, uniform on [0,1).
+         */
+        double nextDouble() {
+            state += GOLDEN;
+            return (mix(state) >>> 11) * 0x1.0p-53;
+        }
+    }
+}
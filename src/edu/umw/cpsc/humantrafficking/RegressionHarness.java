@@ -0,0 +1,524 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import sim.engine.*;
+
+/**
+ * Guards the model's results, and its speed, against unintended change.
+ * The harness runs a scenario with a fixed list of seeds and records, at
+ * the end of every simulated year, each location's victims, escapees,
+ * population and histogram of victims' ages, plus the wall time and
+ * memory allocated to simulate that year. In <i>record</i> mode these
+ * become the golden outputs; in <i>check</i> mode (the default) they are
+ * compared with golden outputs recorded earlier, and every difference is
+ * reported.
+ * <p>
+ * Results can be compared exactly (every count identical, as they should
+ * be after a change meant only to speed things up), or statistically
+ * (<code>-tolerance z</code>: for each count, and each location's mean
+ * victim age, the means over the seeds must agree within <i>z</i>
+ * standard errors, as after a change that consumes random numbers
+ * differently). Speed is compared by the total time and allocation per
+ * simulated year, which may grow by at most a given fraction
+ * (<code>-maxslowdown</code>). Before any recorded run, one untimed run
+ * warms up the JVM.
+ * <p>
+ * From the command line:
+ * <pre>
+ *   java edu.umw.cpsc.humantrafficking.RegressionHarness
+ *       [-record] [-golden dir] [-scenario file] [-until year]
+ *       [-seeds n,n,...] [-steps n] [-tolerance z] [-maxslowdown f]
+ * </pre>
+ * The golden directory (by default <code>golden</code>) holds a file
+ * <code>seed</code><i>n</i><code>.golden</code> of results per seed, and
+ * <code>perf.golden</code>. The harness prints a report, and exits with
+ * status 1 if any check failed. The golden results of the default
+ * scenario, seeds and horizon are kept with the source; their
+ * <code>perf.golden</code> is not (times and allocation depend on the
+ * machine), and without one, speed is not checked.
+ */
+public class RegressionHarness {
+
+    private String goldenDirectory = "golden";
+    private String scenarioFile = "routes.txt";
+    private int horizonYear = BatchRunner.DEFAULT_HORIZON_YEAR;
+    private long[] seeds = { 0, 1, 2 };
+    private int stepsPerYear = 1;
+    private double tolerance = 0;
+    private double maxSlowdown = 0.5;
+
+    private ArrayList<String> failures = new ArrayList<String>();
+
+    // (Reports beyond this many differences of one kind are summarized.)
+    private static final int MAX_REPORTED = 20;
+
+    // (Growth in a year's time or allocation smaller than these is not
+    //   reported, however large a fraction it is.)
+    private static final long MILLIS_NOISE = 10;
+    private static final long BYTES_NOISE = 1 << 20;
+
+    // Everything recorded from one run: result lines ("counts" and "ages"
+    //   records, keyed by kind, year and location), and per-year
+    //   performance (milliseconds and bytes allocated).
+    private static class Recording {
+        LinkedHashMap<String,String> results =
+            new LinkedHashMap<String,String>();
+        LinkedHashMap<Integer,long[]> performance =
+            new LinkedHashMap<Integer,long[]>();
+    }
+
+    // Runs at the end of each timestep (after the StatsPrinter), and, on
+    //   the last timestep of each year, records the year.
+    private static class YearRecorder implements Steppable {
+        private Recording recording;
+        private ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private long startNanos = System.nanoTime();
+        private long startBytes = allocatedBytes();
+
+        YearRecorder(Recording recording) {
+            this.recording = recording;
+        }
+
+        // (The bytes allocated by this thread so far, or -1 if the JVM
+        //   cannot say.)
+        private long allocatedBytes() {
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threads).
+                    getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return -1;
+        }
+
+        public void step(SimState state) {
+            HumanTrafficking world = (HumanTrafficking) state;
+            if (world.getStepOfYear() != world.getStepsPerYear() - 1) {
+                return;
+            }
+            long nanos = System.nanoTime();
+            long bytes = allocatedBytes();
+            recording.performance.put(world.getYear(), new long[] {
+                (nanos - startNanos) / 1000000,
+                bytes < 0 ? -1 : bytes - startBytes });
+
+            int year = world.getYear();
+            int[][] ages = new int[world.getNumLocations()]
+                [PopulationPyramid.MAX_AGE + 1];
+            VictimStore store = world.getVictimStore();
+            for (int slot=0; slot<store.size(); slot++) {
+                if (store.getStatus(slot) == VictimStore.CAPTIVE) {
+                    int age = Math.max(0, Math.min(PopulationPyramid.MAX_AGE,
+                        year - store.getBirthYear(slot)));
+                    ages[store.getLocationId(slot)][age]++;
+                }
+            }
+            for (int id=0; id<world.getNumLocations(); id++) {
+                Location l = world.getLocation(id);
+                recording.results.put("counts\t" + year + "\t" + l.getName(),
+                    l.getNumVics() + "\t" + l.getNumEscapees() + "\t" +
+                    l.getPop());
+                StringBuilder histogram = new StringBuilder();
+                for (int age=0; age<ages[id].length; age++) {
+                    if (ages[id][age] > 0) {
+                        histogram.append(histogram.length() == 0 ? "" : ",").
+                            append(age).append('=').append(ages[id][age]);
+                    }
+                }
+                recording.results.put("ages\t" + year + "\t" + l.getName(),
+                    histogram.toString());
+            }
+
+            // (The time spent recording is not charged to the next year.)
+            startNanos = System.nanoTime();
+            startBytes = allocatedBytes();
+        }
+    }
+
+    /**
+     * Set the directory holding the golden outputs. Defaults to
+     * <code>golden</code>.
+     */
+    public void setGoldenDirectory(String goldenDirectory) {
+        this.goldenDirectory = goldenDirectory;
+    }
+
+    /**
+     * Set the scenario run. Defaults to <code>routes.txt</code>.
+     */
+    public void setScenarioFile(String scenarioFile) {
+        this.scenarioFile = scenarioFile;
+    }
+
+    /**
+     * Set the last year simulated. Defaults to {@link
+     * BatchRunner#DEFAULT_HORIZON_YEAR}.
+     */
+    public void setHorizonYear(int horizonYear) {
+        this.horizonYear = horizonYear;
+    }
+
+    /**
+     * Set the seeds run. Defaults to 0, 1 and 2.
+     */
+    public void setSeeds(long[] seeds) {
+        this.seeds = seeds;
+    }
+
+    /**
+     * Set the number of timesteps per year. Defaults to 1.
+     */
+    public void setStepsPerYear(int stepsPerYear) {
+        this.stepsPerYear = stepsPerYear;
+    }
+
+    /**
+     * Set the number of standard errors by which means over the seeds may
+     * differ from the golden ones, or 0 to require every result to match
+     * exactly. Defaults to 0.
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Set the fraction by which the time or allocation of a simulated year
+     * may exceed the golden one. Defaults to 0.5.
+     */
+    public void setMaxSlowdown(double maxSlowdown) {
+        this.maxSlowdown = maxSlowdown;
+    }
+
+    /**
+     * Run every seed, and record the results as the golden outputs.
+     */
+    public void record() throws IOException {
+        File dir = new File(goldenDirectory);
+        dir.mkdirs();
+        List<Recording> recordings = runAll();
+        PrintWriter perf = new PrintWriter(new FileWriter(
+            new File(dir, "perf.golden")));
+        for (int i=0; i<seeds.length; i++) {
+            PrintWriter out = new PrintWriter(new FileWriter(
+                new File(dir, "seed" + seeds[i] + ".golden")));
+            for (Map.Entry<String,String> e :
+                    recordings.get(i).results.entrySet()) {
+                out.println(e.getKey() + "\t" + e.getValue());
+            }
+            out.close();
+            for (Map.Entry<Integer,long[]> e :
+                    recordings.get(i).performance.entrySet()) {
+                perf.println(seeds[i] + "\t" + e.getKey() + "\t" +
+                    e.getValue()[0] + "\t" + e.getValue()[1]);
+            }
+        }
+        perf.close();
+    }
+
+    /**
+     * Run every seed, compare the results with the golden outputs, print
+     * a report, and return whether everything matched.
+     */
+    public boolean check() throws IOException {
+        List<Recording> current = runAll();
+        List<Recording> golden = readGolden();
+        failures.clear();
+        if (tolerance <= 0) {
+            compareExactly(golden, current);
+        } else {
+            compareStatistically(golden, current);
+        }
+        comparePerformance(golden, current);
+        for (String failure : failures) {
+            System.out.println("FAIL: " + failure);
+        }
+        System.out.println(failures.isEmpty() ? "OK" :
+            failures.size() + " check(s) failed.");
+        return failures.isEmpty();
+    }
+
+    private List<Recording> runAll() {
+        runOnce(seeds[0]);
+        ArrayList<Recording> recordings = new ArrayList<Recording>();
+        for (long seed : seeds) {
+            recordings.add(runOnce(seed));
+        }
+        return recordings;
+    }
+
+    private Recording runOnce(long seed) {
+        Recording recording = new Recording();
+        File scratch = new File(goldenDirectory, "scratch");
+        HumanTrafficking sim = HumanTrafficking.newBoundInstance(seed);
+        try {
+            sim.setScenarioFile(scenarioFile);
+            sim.setOutputDirectory(scratch.getPath());
+            sim.setVerbose(false);
+            sim.setStepsPerYear(stepsPerYear);
+            sim.start();
+            sim.getStatsPhase().add(new YearRecorder(recording));
+            while (sim.getYear() <= horizonYear && sim.schedule.step(sim)) {
+                // (keep stepping)
+            }
+        } finally {
+            sim.finish();
+            HumanTrafficking.unbindInstance();
+        }
+        return recording;
+    }
+
+    private List<Recording> readGolden() throws IOException {
+        ArrayList<Recording> golden = new ArrayList<Recording>();
+        for (long seed : seeds) {
+            Recording recording = new Recording();
+            BufferedReader br = new BufferedReader(new FileReader(
+                new File(goldenDirectory, "seed" + seed + ".golden")));
+            String line;
+            while ((line = br.readLine()) != null) {
+                // (Kind, year and location make the key.)
+                int split = nthTab(line, 3);
+                recording.results.put(line.substring(0, split),
+                    split < line.length() ? line.substring(split + 1) : "");
+            }
+            br.close();
+            golden.add(recording);
+        }
+        File perfFile = new File(goldenDirectory, "perf.golden");
+        if (!perfFile.exists()) {
+            return golden;
+        }
+        BufferedReader br = new BufferedReader(new FileReader(perfFile));
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] fields = line.split("\t");
+            long seed = Long.parseLong(fields[0]);
+            for (int i=0; i<seeds.length; i++) {
+                if (seeds[i] == seed) {
+                    golden.get(i).performance.put(
+                        Integer.valueOf(fields[1]), new long[] {
+                        Long.parseLong(fields[2]), Long.parseLong(fields[3])
+                    });
+                }
+            }
+        }
+        br.close();
+        return golden;
+    }
+
+    private static int nthTab(String line, int n) {
+        int pos = -1;
+        for (int i=0; i<n; i++) {
+            pos = line.indexOf('\t', pos + 1);
+            if (pos < 0) {
+                return line.length();
+            }
+        }
+        return pos;
+    }
+
+    private void fail(String failure) {
+        failures.add(failure);
+    }
+
+    private void compareExactly(List<Recording> golden,
+        List<Recording> current) {
+        for (int i=0; i<seeds.length; i++) {
+            int reported = 0;
+            Map<String,String> g = golden.get(i).results;
+            Map<String,String> c = current.get(i).results;
+            for (Map.Entry<String,String> e : g.entrySet()) {
+                String now = c.get(e.getKey());
+                if (!e.getValue().equals(now) && reported++ < MAX_REPORTED) {
+                    fail("seed " + seeds[i] + ", " +
+                        e.getKey().replace('\t', ' ') + ": expected [" +
+                        e.getValue() + "], got [" + now + "]");
+                }
+            }
+            for (String key : c.keySet()) {
+                if (!g.containsKey(key) && reported++ < MAX_REPORTED) {
+                    fail("seed " + seeds[i] + ", " + key.replace('\t', ' ') +
+                        ": not in golden outputs");
+                }
+            }
+            if (reported > MAX_REPORTED) {
+                fail("seed " + seeds[i] + ": " + (reported - MAX_REPORTED) +
+                    " more differences");
+            }
+        }
+    }
+
+    // Compare, for every count (and every location's mean victim age) in
+    //   the golden outputs, the mean over the seeds, with a two-sample
+    //   test on the difference of means.
+    private void compareStatistically(List<Recording> golden,
+        List<Recording> current) {
+        int reported = 0;
+        for (String key : golden.get(0).results.keySet()) {
+            int numValues = key.startsWith("ages") ? 1 : 3;
+            for (int v=0; v<numValues; v++) {
+                double[] g = values(golden, key, v);
+                double[] c = values(current, key, v);
+                if (g == null || c == null) {
+                    if (reported++ < MAX_REPORTED) {
+                        fail(key.replace('\t', ' ') + ": missing");
+                    }
+                    continue;
+                }
+                double se = Math.sqrt(variance(g) / g.length +
+                    variance(c) / c.length);
+                double diff = Math.abs(mean(g) - mean(c));
+                if (diff > tolerance * se + 1e-9 &&
+                        reported++ < MAX_REPORTED) {
+                    fail(key.replace('\t', ' ') + " (value " + v +
+                        "): golden mean " + mean(g) + ", now " + mean(c) +
+                        " (more than " + tolerance + " standard errors)");
+                }
+            }
+        }
+        if (reported > MAX_REPORTED) {
+            fail((reported - MAX_REPORTED) + " more differences");
+        }
+    }
+
+    // Return, for each seed, the v'th number of the result with the key
+    //   passed (or, for ages, the mean age), or null if any seed lacks it.
+    private double[] values(List<Recording> recordings, String key, int v) {
+        double[] values = new double[recordings.size()];
+        for (int i=0; i<values.length; i++) {
+            String value = recordings.get(i).results.get(key);
+            if (value == null) {
+                return null;
+            }
+            if (key.startsWith("ages")) {
+                double sum = 0;
+                int n = 0;
+                for (String bucket : value.isEmpty() ? new String[0] :
+                        value.split(",")) {
+                    int eq = bucket.indexOf('=');
+                    int count = Integer.parseInt(bucket.substring(eq + 1));
+                    sum += Integer.parseInt(bucket.substring(0, eq)) * count;
+                    n += count;
+                }
+                values[i] = n == 0 ? 0 : sum / n;
+            } else {
+                values[i] = Double.parseDouble(value.split("\t")[v]);
+            }
+        }
+        return values;
+    }
+
+    private static double mean(double[] x) {
+        double sum = 0;
+        for (double d : x) {
+            sum += d;
+        }
+        return sum / x.length;
+    }
+
+    private static double variance(double[] x) {
+        if (x.length < 2) {
+            return 0;
+        }
+        double m = mean(x);
+        double sum = 0;
+        for (double d : x) {
+            sum += (d - m) * (d - m);
+        }
+        return sum / (x.length - 1);
+    }
+
+    // Compare the time and allocation of each simulated year, summed over
+    //   the seeds, and print them.
+    private void comparePerformance(List<Recording> golden,
+        List<Recording> current) {
+        System.out.println("year\tms(golden)\tms(now)\t" +
+            "bytes(golden)\tbytes(now)");
+        for (Integer year : current.get(0).performance.keySet()) {
+            long[] g = totalPerformance(golden, year);
+            long[] c = totalPerformance(current, year);
+            System.out.println(year + "\t" + g[0] + "\t" + c[0] + "\t" +
+                g[1] + "\t" + c[1]);
+            if (g[0] >= 0 && exceeds(c[0], g[0], MILLIS_NOISE)) {
+                fail(year + ": took " + c[0] + " ms, golden " + g[0]);
+            }
+            if (g[1] >= 0 && c[1] >= 0 && exceeds(c[1], g[1], BYTES_NOISE)) {
+                fail(year + ": allocated " + c[1] + " bytes, golden " + g[1]);
+            }
+        }
+    }
+
+    // (Growth of less than the floor passed is noise, whatever the
+    //   fraction.)
+    private boolean exceeds(long now, long golden, long floor) {
+        return now > golden * (1 + maxSlowdown) && now - golden > floor;
+    }
+
+    private long[] totalPerformance(List<Recording> recordings, int year) {
+        long[] total = new long[2];
+        for (Recording r : recordings) {
+            long[] p = r.performance.get(year);
+            if (p == null) {
+                return new long[] { -1, -1 };
+            }
+            total[0] += p[0];
+            total[1] = total[1] < 0 || p[1] < 0 ? -1 : total[1] + p[1];
+        }
+        return total;
+    }
+
+    /**
+     * Record or check golden outputs as directed by the command-line
+     * arguments described above.
+     */
+    public static void main(String[] args) throws IOException {
+        RegressionHarness harness = new RegressionHarness();
+        boolean record = false;
+        for (int i=0; i<args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-record")) {
+                record = true;
+                continue;
+            }
+            if (i+1 == args.length) {
+                throw new IllegalArgumentException("No value for " + arg);
+            }
+            String value = args[++i];
+            if (arg.equals("-golden")) {
+                harness.setGoldenDirectory(value);
+            } else if (arg.equals("-scenario")) {
+                harness.setScenarioFile(value);
+            } else if (arg.equals("-until")) {
+                harness.setHorizonYear(Integer.parseInt(value));
+            } else if (arg.equals("-seeds")) {
+                String[] parts = value.split(",");
+                long[] seeds = new long[parts.length];
+                for (int s=0; s<parts.length; s++) {
+                    seeds[s] = Long.parseLong(parts[s].trim());
+                }
+                harness.setSeeds(seeds);
+            } else if (arg.equals("-steps")) {
+                harness.setStepsPerYear(Integer.parseInt(value));
+            } else if (arg.equals("-tolerance")) {
+                harness.setTolerance(Double.parseDouble(value));
+            } else if (arg.equals("-maxslowdown")) {
+                harness.setMaxSlowdown(Double.parseDouble(value));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (record) {
+            harness.record();
+        } else if (!harness.check()) {
+            System.exit(1);
+        }
+    }
+}
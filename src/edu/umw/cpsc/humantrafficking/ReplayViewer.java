@@ -0,0 +1,206 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Replays a recording of a simulation (see {@link FrameRecorder}) on the
+ * same map as {@link FrameViewer}, without re-running the simulation. A
+ * slider seeks to any timestep; the buttons step back and forward one
+ * timestep, play and pause, and rewind and fast-forward (each press
+ * doubling the speed, up to {@link #MAX_SPEED} timesteps per tick).
+ * Frames are decoded only as they are shown (see {@link FrameRecording}),
+ * so a recording of any length opens at once.
+ * <p>
+ * From the command line:
+ * <pre>
+ *   java edu.umw.cpsc.humantrafficking.ReplayViewer file [-from year]
+ *       [-text]
+ * </pre>
+ * The replay starts at the first timestep of the year given (or of the
+ * recording). With <code>-text</code>, no window is opened; instead, a
+ * line of totals is printed for each frame from there on.
+ */
+public class ReplayViewer {
+
+    /** The number of milliseconds between ticks of the replay. */
+    public static final int TICK_MILLIS = 100;
+
+    /** The most timesteps a tick of rewinding or fast-forwarding covers. */
+    public static final int MAX_SPEED = 64;
+
+    private FrameRecording recording;
+    private FrameViewer.MapPanel panel;
+    private JSlider slider;
+    private JLabel status = new JLabel();
+    private Timer timer;
+
+    // The timesteps covered per tick while playing (negative while
+    //   rewinding), or 0 when paused.
+    private int velocity;
+
+    /**
+     * Create a viewer of the recording passed, showing the frame with the
+     * number passed.
+     */
+    public ReplayViewer(FrameRecording recording, int frame) {
+        this.recording = recording;
+        panel = new FrameViewer.MapPanel(recording.getScene());
+        slider = new JSlider(0, Math.max(0, recording.getNumFrames() - 1),
+            frame);
+        slider.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent e) {
+                show(slider.getValue());
+            }
+        });
+        timer = new Timer(TICK_MILLIS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                tick();
+            }
+        });
+        show(frame);
+    }
+
+    /**
+     * Open a window showing this viewer. Must be called on the event
+     * dispatch thread.
+     */
+    public void open() {
+        JPanel buttons = new JPanel();
+        buttons.add(button("<<", new Runnable() {
+            public void run() {
+                setVelocity(velocity < 0 ? 2 * velocity : -2);
+            }
+        }));
+        buttons.add(button("<", new Runnable() {
+            public void run() {
+                setVelocity(0);
+                slider.setValue(slider.getValue() - 1);
+            }
+        }));
+        buttons.add(button("Play/Pause", new Runnable() {
+            public void run() {
+                setVelocity(velocity == 0 ? 1 : 0);
+            }
+        }));
+        buttons.add(button(">", new Runnable() {
+            public void run() {
+                setVelocity(0);
+                slider.setValue(slider.getValue() + 1);
+            }
+        }));
+        buttons.add(button(">>", new Runnable() {
+            public void run() {
+                setVelocity(velocity > 0 ? 2 * velocity : 2);
+            }
+        }));
+        buttons.add(status);
+
+        JPanel controls = new JPanel(new BorderLayout());
+        controls.add(slider, BorderLayout.NORTH);
+        controls.add(buttons, BorderLayout.SOUTH);
+        JFrame frame = new JFrame("Human Trafficking simulation -- replay");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.getContentPane().add(panel, BorderLayout.CENTER);
+        frame.getContentPane().add(controls, BorderLayout.SOUTH);
+        frame.pack();
+        frame.setVisible(true);
+    }
+
+    private static JButton button(String label, final Runnable action) {
+        JButton button = new JButton(label);
+        button.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                action.run();
+            }
+        });
+        return button;
+    }
+
+    private void setVelocity(int velocity) {
+        this.velocity = Math.max(-MAX_SPEED, Math.min(MAX_SPEED, velocity));
+        if (this.velocity == 0) {
+            timer.stop();
+        } else {
+            timer.start();
+        }
+        updateStatus();
+    }
+
+    // Advance (or rewind) the replay by one tick's worth of timesteps,
+    //   pausing at either end of the recording.
+    private void tick() {
+        int frame = slider.getValue() + velocity;
+        if (frame <= 0 || frame >= recording.getNumFrames() - 1) {
+            setVelocity(0);
+        }
+        slider.setValue(Math.max(0, Math.min(slider.getMaximum(), frame)));
+    }
+
+    private void show(int frame) {
+        if (recording.getNumFrames() == 0) {
+            return;
+        }
+        panel.show(recording.seek(frame));
+        updateStatus();
+    }
+
+    private void updateStatus() {
+        status.setText("Timestep " + (recording.getFrameNumber() + 1) +
+            " of " + recording.getNumFrames() + (velocity == 0 ? "" :
+            ", speed " + velocity));
+    }
+
+    /**
+     * Replay the recording named by the command-line arguments described
+     * above.
+     */
+    public static void main(String[] args) throws IOException {
+        String path = null;
+        int fromYear = Integer.MIN_VALUE;
+        boolean text = false;
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-text")) {
+                text = true;
+            } else if (args[i].equals("-from") && i+1 < args.length) {
+                fromYear = Integer.parseInt(args[++i]);
+            } else if (path == null) {
+                path = args[i];
+            } else {
+                path = null;
+                break;
+            }
+        }
+        if (path == null) {
+            throw new IllegalArgumentException(
+                "Usage: ReplayViewer file [-from year] [-text]");
+        }
+
+        final FrameRecording recording = new FrameRecording(path);
+        final int first = Math.min(recording.findFrame(fromYear, 0),
+            Math.max(0, recording.getNumFrames() - 1));
+        if (text) {
+            for (int frame=first; frame<recording.getNumFrames(); frame++) {
+                FrameViewer.printTotals(recording.seek(frame));
+            }
+            recording.close();
+            return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                new ReplayViewer(recording, first).open();
+            }
+        });
+    }
+}
@@ -0,0 +1,220 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * The replications (runs with different seeds) of one configuration of a
+ * {@link ParameterSweep}, and the rule deciding how many to perform. The
+ * mean of each chosen output is estimated with a Student-t confidence
+ * interval; replications continue until every output's interval is
+ * narrow enough (its half-width no more than a target, absolute or
+ * relative to the mean), or a maximum number have been performed. A
+ * fixed number of replications is the special case in which the minimum
+ * and maximum are equal.
+ */
+class ReplicationEnsemble {
+
+    private int minReplicates;
+    private int maxReplicates;
+    private double confidence;
+    private double targetHalfWidth;
+    private boolean relative;
+
+    private int launched;
+    private int finished;
+
+    // Welford's running mean and sum of squared deviations, per output.
+    private double[] means;
+    private double[] squares;
+
+    /**
+     * Create an ensemble of (as yet) no replications.
+     * @param numOutputs the number of outputs estimated.
+     * @param minReplicates the number of replications always performed
+     * (at least two, given a target, so that there is a variance to
+     * judge it by).
+     * @param maxReplicates the number never exceeded.
+     * @param confidence the confidence level of the intervals
+     * (<i>e.g.</i> .95).
+     * @param targetHalfWidth the half-width each interval must reach.
+     * @param relative whether that half-width is a fraction of the mean
+     * (rather than an absolute amount).
+     */
+    ReplicationEnsemble(int numOutputs, int minReplicates,
+        int maxReplicates, double confidence, double targetHalfWidth,
+        boolean relative) {
+
+        this.minReplicates = targetHalfWidth > 0 ?
+            Math.max(2, minReplicates) : minReplicates;
+        this.maxReplicates = Math.max(this.minReplicates, maxReplicates);
+        this.confidence = confidence;
+        this.targetHalfWidth = targetHalfWidth;
+        this.relative = relative;
+        means = new double[numOutputs];
+        squares = new double[numOutputs];
+    }
+
+    /**
+     * Record that another replication has been started, and return its
+     * number (from 0).
+     */
+    int launch() {
+        return launched++;
+    }
+
+    /**
+     * Record that a replication has been started and finished, with the
+     * outputs passed.
+     */
+    void add(double[] outputs) {
+        finished++;
+        for (int i=0; i<means.length; i++) {
+            double delta = outputs[i] - means[i];
+            means[i] += delta / finished;
+            squares[i] += delta * (outputs[i] - means[i]);
+        }
+    }
+
+    /**
+     * Return the number of further replications to start now: enough to
+     * reach the minimum; or, once every replication started has finished,
+     * enough that (judging by the variance so far, and the normal
+     * quantile that the t quantile approaches) every interval should
+     * reach its target. Each such stage at most doubles the number of
+     * replications, so that an estimate from a few noisy ones cannot
+     * commit many more, and never exceeds the maximum. While
+     * replications are still running, none are added beyond the minimum.
+     */
+    int numToLaunch() {
+        if (launched < minReplicates) {
+            return minReplicates - launched;
+        }
+        if (finished < launched || launched >= maxReplicates ||
+                finished < 2 || isPrecise()) {
+            return 0;
+        }
+        int needed = launched + 1;
+        double z = normalQuantile(1 - (1 - confidence) / 2);
+        for (int i=0; i<means.length; i++) {
+            double target = getTarget(i);
+            if (target > 0) {
+                double sd = Math.sqrt(squares[i] / (finished - 1));
+                needed = (int) Math.max(needed,
+                    Math.ceil(Math.pow(z * sd / target, 2)));
+            }
+        }
+        needed = Math.min(needed, 2 * launched);
+        return Math.max(0, Math.min(needed, maxReplicates) - launched);
+    }
+
+    /**
+     * Return whether every output's confidence interval has reached its
+     * target half-width.
+     */
+    boolean isPrecise() {
+        if (targetHalfWidth <= 0 || finished < 2) {
+            return false;
+        }
+        for (int i=0; i<means.length; i++) {
+            if (getHalfWidth(i) > getTarget(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double getTarget(int output) {
+        return relative ? targetHalfWidth * Math.abs(means[output]) :
+            targetHalfWidth;
+    }
+
+    /**
+     * Return the number of replications finished.
+     */
+    int getNumFinished() {
+        return finished;
+    }
+
+    /**
+     * Return the mean of the output passed over the finished replications.
+     */
+    double getMean(int output) {
+        return means[output];
+    }
+
+    /**
+     * Return the half-width of the confidence interval for the mean of the
+     * output passed (infinite, with fewer than two replications).
+     */
+    double getHalfWidth(int output) {
+        if (finished < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double sd = Math.sqrt(squares[output] / (finished - 1));
+        return tQuantile(1 - (1 - confidence) / 2, finished - 1) * sd /
+            Math.sqrt(finished);
+    }
+
+    /**
+     * Return the <code>p</code> quantile of Student's t distribution with
+     * the degrees of freedom passed: exact for one and two degrees, and
+     * otherwise a Cornish-Fisher expansion about the normal quantile
+     * (Abramowitz and Stegun 26.7.5).
+     */
+    static double tQuantile(double p, int df) {
+        if (df == 1) {
+            return Math.tan(Math.PI * (p - 0.5));
+        }
+        if (df == 2) {
+            return (2*p - 1) / Math.sqrt(2 * p * (1 - p));
+        }
+        double x = normalQuantile(p);
+        double x2 = x * x;
+        double g1 = (x2 + 1) * x / 4;
+        double g2 = ((5*x2 + 16) * x2 + 3) * x / 96;
+        double g3 = (((3*x2 + 19) * x2 + 17) * x2 - 15) * x / 384;
+        double g4 = ((((79*x2 + 776) * x2 + 1482) * x2 - 1920) * x2 - 945) *
+            x / 92160;
+        return x + g1/df + g2/(df*(double)df) + g3/Math.pow(df, 3) +
+            g4/Math.pow(df, 4);
+    }
+
+    private static final double[] A = { -3.969683028665376e+01,
+        2.209460984245205e+02, -2.759285104469687e+02,
+        1.383577518672690e+02, -3.066479806614716e+01,
+        2.506628277459239e+00 };
+    private static final double[] B = { -5.447609879822406e+01,
+        1.615858368580409e+02, -1.556989798598866e+02,
+        6.680131188771972e+01, -1.328068155288572e+01 };
+    private static final double[] C = { -7.784894002430293e-03,
+        -3.223964580411365e-01, -2.400758277161838e+00,
+        -2.549732539343734e+00, 4.374664141464968e+00,
+        2.938163982698783e+00 };
+    private static final double[] D = { 7.784695709041462e-03,
+        3.224671290700398e-01, 2.445134137142996e+00,
+        3.754408661907416e+00 };
+
+    /**
+     * Return the <code>p</code> quantile of the standard normal
+     * distribution, by Acklam's rational approximation (relative error
+     * below 1.2e-9).
+     */
+    static double normalQuantile(double p) {
+        double low = 0.02425;
+        if (p < low) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return tail(q);
+        }
+        if (p > 1 - low) {
+            double q = Math.sqrt(-2 * Math.log(1 - p));
+            return -tail(q);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((A[0]*r + A[1])*r + A[2])*r + A[3])*r + A[4])*r + A[5]) *
+            q / (((((B[0]*r + B[1])*r + B[2])*r + B[3])*r + B[4])*r + 1);
+    }
+
+    private static double tail(double q) {
+        return (((((C[0]*q + C[1])*q + C[2])*q + C[3])*q + C[4])*q + C[5]) /
+            ((((D[0]*q + D[1])*q + D[2])*q + D[3])*q + 1);
+    }
+}
@@ -1,6 +1,5 @@
 package edu.umw.cpsc.humantrafficking;
 
-import ec.util.MersenneTwisterFast;
 import java.lang.Object;
 import java.util.ArrayList;
 import sim.engine.*;
@@ -18,8 +17,9 @@ import sim.portrayal.simple.OvalPortrayal2D;
 public class Route implements Steppable{
 
     /** 
-     * For each escaped victim, the annual probability that that victim
-     * will be reacquired by the system.
+     * For each escaped victim, the default annual probability that that
+     * victim will be reacquired by the system (see {@link
+     * Location#reacquireEscapees} and {@link Parameters}).
      */
     public static final double PROB_REACQUIRE_VICTIM = .02;
     
@@ -27,8 +27,6 @@ public class Route implements Steppable{
     private Location source;
     private Location destination;
     private Location transit;
-    private MersenneTwisterFast generator = 
-        HumanTrafficking.instance().random;
 
     // Estimated number of victims trafficked along this route annually.
     // The data is extremely messy and at times contradictory here. Note
@@ -36,6 +34,15 @@ public class Route implements Steppable{
     private int sourceVol;
     private int transitVol;
     private int destVol;
+
+    // The number of victims moved along this route so far this timestep.
+    private int flow;
+
+    // This route's position among the simulation's routes.
+    private int index;
+
+    // This route's entry in the route Phase, or null while it is closed.
+    private Stoppable stopper;
     
     /**
      * This constructor initializes a route with no transit locations.
@@ -90,6 +97,10 @@ public class Route implements Steppable{
     private void acquireVictims(SimState state){
 
         HumanTrafficking world = (HumanTrafficking) state;
+        if (!source.isLocal()) {
+            // (Another process simulates the source, and acquires them.)
+            return;
+        }
         
         int eligibleVics = source.getEligibleVics();
         double estYearlyVol = .01;
@@ -99,8 +110,9 @@ public class Route implements Steppable{
             estYearlyVol = ((sourceVol + destVol + transitVol)/3);
         }
         double outflow = (eligibleVics * (estYearlyVol/100));
-        double randVicEst = (generator.nextGaussian()*.1+outflow);
-        double demandedVics = destination.getDemand(); //edit demand (.9-1.1?)
+        double randVicEst = (world.nextGaussian(RandomStreams.ABDUCTION,
+            index)*.1+outflow);
+        double demandedVics = destination.getDemand();
         int thisYearVics = (int)(randVicEst * demandedVics);
         
 
@@ -108,9 +120,12 @@ public class Route implements Steppable{
         // TODO: Totally non-trivial calculation to determine how many 
         //   victims are abducted this year, based on the supply chain idea
         //   Stephen got at WSC 2012.
-        int numAbductedVics = (int) 
-            Math.round(thisYearVics/100);
-        System.out.println("  Abducting " + numAbductedVics + " new " + 
+        // (With several timesteps per year, the year's abductions are
+        //   spread evenly over them.)
+        int numAbductedVics = world.apportion(
+            Math.round(thisYearVics/100) / (double) world.getStepsPerYear(),
+            RandomStreams.ABDUCTION_ROUNDING, index);
+        world.log("  Abducting " + numAbductedVics + " new " + 
             (numAbductedVics == 1 ? "victim" : "victims") + " from "
             + source + "...");
 
@@ -119,24 +134,53 @@ public class Route implements Steppable{
         //   responsible for positioning itself on screen, adding itself to
         //   the source location, and scheduling itself to run.)
         for(int i=0; i<numAbductedVics; i++){
-            Victim v = new Victim(source, state);
+            Victim v = new Victim(source,
+                RandomStreams.abductionKey(index, i), state);
+            world.getTracer().record(v, TrajectoryTracer.ABDUCTED, source,
+                index);
             if (source.getName().equals("Sri Lanka")) {
-            HumanTraffickingWithUI.instance().myVictimPortrayal.
-                setPortrayalForObject(v,
-                    new OvalPortrayal2D(java.awt.Color.ORANGE,2,true));
+            HumanTraffickingWithUI.paintVictim(v,
+                    java.awt.Color.ORANGE,true);
             }
             if (source.getName().equals("Bangladesh")) {
-            HumanTraffickingWithUI.instance().myVictimPortrayal.
-                setPortrayalForObject(v,
-                    new OvalPortrayal2D(java.awt.Color.BLUE,2,true));
+            HumanTraffickingWithUI.paintVictim(v,
+                    java.awt.Color.BLUE,true);
             }
         }
 
         source.printNumbers();
     }
 
+    // Add a victim, just taken from the first location passed, to the
+    //   second, and return true; or, if that location is simulated by
+    //   another process, hand her over to the exchange, and return false.
+    private boolean deliver(HumanTrafficking world, Victim v, Location from,
+        Location to){
+        flow++;
+        world.getFlows().add(from.getId(), to.getId());
+        world.getTracer().record(v, TrajectoryTracer.MOVED, to, index);
+        if (to.isLocal()) {
+            to.addVictimFromExternalLocation(v);
+            return true;
+        }
+        world.getExchange().export(v, to);
+        return false;
+    }
+
+    // Return the fraction of the victims at a location moved on along this
+    //   route in one timestep, with the demand passed. In a year, that is
+    //   the demand (a multiplier, which may exceed 1), but never all of
+    //   them: when more are demanded than there are, 90% are moved. The
+    //   capped annual fraction is converted to the timestep's share.
+    private static double moveFraction(HumanTrafficking world,
+        double demand){
+        return world.perStep(demand > 1 ? 0.9 : demand);
+    }
+
     private void moveVictims(SimState state){
         
+        HumanTrafficking world = (HumanTrafficking) state;
+
         // TODO: Totally non-trivial calculation to determine how many 
         //   victims are moved this year, based on the supply chain idea
         //   Stephen got at WSC 2012.
@@ -146,20 +190,16 @@ public class Route implements Steppable{
             // destination location.
             double demand = destination.getDemand();
             int vics = transit.getNumVics();
-            int numMoved = 
-              (int) Math.round(destination.getDemand()*transit.getNumVics());
+            int numMoved = !transit.isLocal() ? 0 :
+              (int) Math.round(moveFraction(world, demand) *
+                  transit.getNumVics());
             double hold = demand*vics;
             
             
-            if (transit.getNumVics() < numMoved) {
-                int move = (int)Math.round(transit.getNumVics() * 0.9);   
-                numMoved = move;
-            }
-            
-            System.out.println("  Moving " + numMoved + 
+            world.log("  Moving " + numMoved + 
                 (numMoved == 1 ? " victim" : " victims") + " from " + 
                 transit + " to " + destination + "... ... (dem=" + 
-                destination.getDemand() + 
+                demand + 
                 ", src=" + transit.getNumVics() + ")");
 
             for(int i = 0; i < numMoved; i++){
@@ -168,16 +208,16 @@ public class Route implements Steppable{
 
                 // Add her to the destination location. This will automatically
                 // inform the Victim object of its new Location.
-                destination.addVictimFromExternalLocation(movedVic);
+                if (!deliver(world, movedVic, transit, destination)) {
+                    continue;
+                }
                 if (destination.getName().equals("Pakistan")) {
-                HumanTraffickingWithUI.instance().myVictimPortrayal.
-                    setPortrayalForObject(movedVic,
-                        new OvalPortrayal2D(java.awt.Color.BLACK,2,true));
+                HumanTraffickingWithUI.paintVictim(movedVic,
+                    java.awt.Color.BLACK,true);
                 }
                 if (destination.getName().equals("Thailand")) {
-                HumanTraffickingWithUI.instance().myVictimPortrayal.
-                    setPortrayalForObject(movedVic,
-                        new OvalPortrayal2D(java.awt.Color.MAGENTA,2,true));
+                HumanTraffickingWithUI.paintVictim(movedVic,
+                    java.awt.Color.MAGENTA,true);
                 }
             }       
 
@@ -186,15 +226,11 @@ public class Route implements Steppable{
 
             // Step 2: Move victims from source location to transit
             // location.
-            numMoved = 
-               (int) Math.round(destination.getDemand()*source.getNumVics());
-
-            if (source.getNumVics() < numMoved) {
-                int move = (int)Math.round(source.getNumVics() * 0.9);
-                numMoved = move;
-            }
+            numMoved = !source.isLocal() ? 0 :
+               (int) Math.round(moveFraction(world, demand) *
+                   source.getNumVics());
             
-            System.out.println("  Moving " + numMoved + 
+            world.log("  Moving " + numMoved + 
                 (numMoved == 1 ? " victim" : " victims") + " from " + 
                 source + " to " + transit + "...");
 
@@ -204,16 +240,16 @@ public class Route implements Steppable{
 
                 // Add her to the destination location. This will automatically
                 // inform the Victim object of its new Location.
-                transit.addVictimFromExternalLocation(movedVic);
+                if (!deliver(world, movedVic, source, transit)) {
+                    continue;
+                }
                 if (transit.getName().equals("India")) {
-                HumanTraffickingWithUI.instance().myVictimPortrayal.
-                    setPortrayalForObject(movedVic,
-                        new OvalPortrayal2D(java.awt.Color.PINK,2,true));
+                HumanTraffickingWithUI.paintVictim(movedVic,
+                    java.awt.Color.PINK,true);
                 }
                 if (transit.getName().equals("Myanmar")) {
-                HumanTraffickingWithUI.instance().myVictimPortrayal.
-                    setPortrayalForObject(movedVic,
-                        new OvalPortrayal2D(java.awt.Color.CYAN,2,true));
+                HumanTraffickingWithUI.paintVictim(movedVic,
+                    java.awt.Color.CYAN,true);
                 }
             }       
             
@@ -221,28 +257,26 @@ public class Route implements Steppable{
             transit.printNumbers();
             
         }else{
-            int numMoved = 
-                  (int) Math.round(destination.getDemand()*source.getNumVics());
+            int numMoved = !source.isLocal() ? 0 :
+                  (int) Math.round(moveFraction(world,
+                      destination.getDemand()) * source.getNumVics());
 
-            System.out.println("  Moving " + numMoved + 
+            world.log("  Moving " + numMoved + 
                 (numMoved == 1 ? " victim" : " victims") + " from " + 
                 source + " to " + destination + "...");
 
-            if (source.getNumVics() < numMoved) {
-                numMoved = source.getNumVics();
-            }
-
             for(int i = 0; i < numMoved; i++){
                 // Choose a random victim to move.
                 Victim movedVic = source.extractRandomVic();
 
                 // Add her to the destination location. This will automatically
                 // inform the Victim object of its new Location.
-                destination.addVictimFromExternalLocation(movedVic);
+                if (!deliver(world, movedVic, source, destination)) {
+                    continue;
+                }
                 if (destination.getName().equals("South Korea")) {
-                HumanTraffickingWithUI.instance().myVictimPortrayal.
-                    setPortrayalForObject(movedVic,
-                        new OvalPortrayal2D(java.awt.Color.BLACK,2,false));
+                HumanTraffickingWithUI.paintVictim(movedVic,
+                    java.awt.Color.BLACK,false);
                 }
             }       
 
@@ -251,32 +285,12 @@ public class Route implements Steppable{
         }
     }
     
-    private void reacquireVictims(SimState state, Location l){
-       //Much like acquireVictims, but takes into account the prevAbducted 
-       //variable as a factor
-        HumanTrafficking world = (HumanTrafficking) state;
-        
-        int numEscapees = l.getNumEscapees();
-        int numReacquires = 0;
-        
-        for(int i=0; i<numEscapees; i++){
-            if(HumanTrafficking.instance().random.nextDouble() < 
-                    PROB_REACQUIRE_VICTIM){
-                Victim v = l.extractRandomEscapee();
-                l.addVictimFromExternalLocation(v);
-                numReacquires++;
-            }
-        }
-        System.out.println("  Reacquiring " + numReacquires +  
-            (numEscapees == 1 ? " victim" : " victims") + " from "
-            + l + "...");
-        
-        l.printNumbers();
-    }
-    
     /**
-     * Perform actions for this Route this year. Routes are scheduled to be
-     * run on Jan. 1st of each year. This includes the following main steps:
+     * Perform actions for this Route this year. Routes are run (by the
+     * simulation's route {@link Phase}) on Jan. 1st of each year (or, with
+     * several timesteps per year, at the start of each timestep, acting on
+     * that timestep's share of the annual volumes and probabilities). This
+     * includes the following main steps:
      * <ol>
      * <li>Acquire victims from the source location, based (mostly) on its 
      * current population and (somewhat) on the strength of the demand on 
@@ -285,31 +299,100 @@ public class Route implements Steppable{
      * location, no victim can move from source to destination immediately
      * in one year; the transit location will consume at least one year's 
      * time.</li>
-     * <li>Possibly reacquire escaped victims from all locations that are
-     * part of this route.</li>
      * </ol>
+     * (Reacquiring escaped victims, and immigration searches, happen once
+     * per location rather than once per route; see {@link Location#step}.)
      * @param state the HumanTrafficking simulation.
      */
     public void step(SimState state){        
 
-        System.out.println("Route::step(simtime=" +     
-            ((HumanTrafficking)state).getSimTime() + "): " + this);
+        HumanTrafficking world = (HumanTrafficking) state;
+        world.log("Route::step(simtime=" +     
+            world.getSimTime() + "): " + this);
+        flow = 0;
         this.acquireVictims(state);
         this.moveVictims(state);
-        this.reacquireVictims(state, source);
-        if(this.transit != null){
-            this.reacquireVictims(state, transit);
-        }
-        this.reacquireVictims(state, destination);
-        if(transit != null){
-            // (Bethy's original demo: only in India)
-            transit.performImmigrationSearch();
+    }
+
+    /**
+     * Return the source Location of this Route.
+     */
+    public Location getSource() {
+        return source;
+    }
+
+    /**
+     * Return the transit Location of this Route, or null if it has none.
+     */
+    public Location getTransit() {
+        return transit;
+    }
+
+    /**
+     * Return the destination Location of this Route.
+     */
+    public Location getDestination() {
+        return destination;
+    }
+
+    /**
+     * Open this Route: make its locations part of the network, and have
+     * it run from the next timestep on, in the simulation's route {@link
+     * Phase}. (Routes are created closed.)
+     */
+    void open() {
+        source.joinRoute(false);
+        if (transit != null) {
+            transit.joinRoute(true);
         }
-        // (Bethy's original demo: only in Thailand)
-        destination.performImmigrationSearch();
-        
-        // Schedule this route to run again in one calendar year.
-        state.schedule.scheduleOnceIn(1,this);
+        destination.joinRoute(true);
+        stopper = HumanTrafficking.instance().getRoutePhase().add(this);
+    }
+
+    /**
+     * Close this Route: it no longer acquires or moves victims (though
+     * victims already on it remain where they are, and its locations
+     * remain part of the network).
+     */
+    void close() {
+        stopper.stop();
+        stopper = null;
+    }
+
+    /**
+     * Return whether this Route is open (running every timestep).
+     */
+    public boolean isOpen() {
+        return stopper != null;
+    }
+
+    /**
+     * Change this Route's estimated annual volumes (see the constructors).
+     */
+    void setVolumes(int sourceVol, int transitVol, int destVol) {
+        this.sourceVol = sourceVol;
+        this.transitVol = transitVol;
+        this.destVol = destVol;
+    }
+
+    /**
+     * Return this Route's index: its position (from 0) among the
+     * simulation's routes (see {@link HumanTrafficking#getRoute}).
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Return the number of victims moved along this Route (on either leg)
+     * so far in the current timestep.
+     */
+    public int getFlow() {
+        return flow;
     }
 
     /**
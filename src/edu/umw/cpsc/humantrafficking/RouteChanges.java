@@ -0,0 +1,102 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * The dated changes to a simulation's route network, from the scenario
+ * file's <code>Changes:</code> section: routes opening, closing, or
+ * changing their volumes at the start of a given year. The changes are
+ * kept sorted by year (and, within a year, in the order given), and
+ * {@link #applyThrough} applies each in turn as its year arrives, touching
+ * only the routes it names. Each line of the section has comma-separated
+ * fields: the year; <code>open</code>, <code>close</code> or
+ * <code>volume</code>; the route's stops, as in the <code>Routes:</code>
+ * section; and (to open a route, or change its volumes) its volumes, as
+ * in the <code>Routes:</code> section. For example:
+ * <pre>
+ *   2016,open,Sri Lanka -&gt; India -&gt; Pakistan,3,2,3
+ *   2018,close,Sri Lanka -&gt; South Korea
+ *   2020,volume,China -&gt; Myanmar -&gt; Thailand,8,6,8
+ * </pre>
+ * A route opened by a change, but not named in the <code>Routes:</code>
+ * section, is created when the scenario is loaded (so that every route
+ * has its index from the start), but does nothing until it opens. A
+ * closed route may be opened again.
+ */
+class RouteChanges implements java.io.Serializable {
+
+    static final byte OPEN = 0;
+    static final byte CLOSE = 1;
+    static final byte VOLUME = 2;
+
+    private static final String[] ACTION_NAMES = { "open", "close",
+        "volume" };
+
+    private int[] years = new int[16];
+    private byte[] actions = new byte[16];
+    private Route[] routes = new Route[16];
+    private int[][] volumes = new int[16][];
+    private int size;
+
+    // The first change not yet applied.
+    private int next;
+
+    /**
+     * Add a change. (Changes may be added in any order of year, but all
+     * must be added before any is applied.)
+     * @param volumes the route's new source, transit and destination
+     * volumes (or null, to keep them).
+     */
+    void add(int year, byte action, Route route, int[] volumes) {
+        if (size == years.length) {
+            years = java.util.Arrays.copyOf(years, 2 * size);
+            actions = java.util.Arrays.copyOf(actions, 2 * size);
+            routes = java.util.Arrays.copyOf(routes, 2 * size);
+            this.volumes = java.util.Arrays.copyOf(this.volumes, 2 * size);
+        }
+        // (Insertion keeps the changes sorted by year, and stable.)
+        int i = size++;
+        while (i > 0 && years[i-1] > year) {
+            years[i] = years[i-1];
+            actions[i] = actions[i-1];
+            routes[i] = routes[i-1];
+            this.volumes[i] = this.volumes[i-1];
+            i--;
+        }
+        years[i] = year;
+        actions[i] = action;
+        routes[i] = route;
+        this.volumes[i] = volumes;
+    }
+
+    /**
+     * Return the code of the named action.
+     * @throws IllegalArgumentException if there is no such action.
+     */
+    static byte actionOf(String name) {
+        for (byte i=0; i<ACTION_NAMES.length; i++) {
+            if (ACTION_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No route change named " + name);
+    }
+
+    /**
+     * Apply, in order, every change not yet applied whose year is no later
+     * than the one passed.
+     */
+    void applyThrough(int year, HumanTrafficking world) {
+        for ( ; next < size && years[next] <= year; next++) {
+            Route route = routes[next];
+            int[] v = volumes[next];
+            if (v != null) {
+                route.setVolumes(v[0], v[1], v[2]);
+            }
+            world.log("  " + ACTION_NAMES[actions[next]] + " route " + route);
+            if (actions[next] == OPEN && !route.isOpen()) {
+                world.openRoute(route);
+            } else if (actions[next] == CLOSE && route.isOpen()) {
+                route.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Line2D;
+import sim.portrayal.DrawInfo2D;
+import sim.portrayal.SimplePortrayal2D;
+
+/**
+ * Draws a {@link Route} as an arrow along each of its legs (source to
+ * transit, if any, and on to destination), as wide as the number of
+ * victims moved along it in the current timestep warrants. A Route is
+ * placed in its field at its source's position; the rest of the route is
+ * drawn relative to that.
+ */
+public class RoutePortrayal2D extends SimplePortrayal2D {
+
+    /**
+     * The length, in screen pixels, of each arrowhead.
+     */
+    public static final double ARROWHEAD_LENGTH = 8.0;
+
+    private static final Color FLOW_COLOR = new Color(0, 0, 160, 140);
+
+    /**
+     * Draw the Route passed, whose source is where the DrawInfo2D passed
+     * says.
+     */
+    public void draw(Object object, Graphics2D graphics, DrawInfo2D info) {
+        Route route = (Route) object;
+        if (!route.isOpen()) {
+            return;
+        }
+        Location source = route.getSource();
+        graphics.setColor(FLOW_COLOR);
+        graphics.setStroke(new BasicStroke(
+            1 + (float) Math.log1p(route.getFlow())));
+        Location from = source;
+        if (route.getTransit() != null) {
+            drawLeg(graphics, info, source, from, route.getTransit());
+            from = route.getTransit();
+        }
+        drawLeg(graphics, info, source, from, route.getDestination());
+    }
+
+    private void drawLeg(Graphics2D graphics, DrawInfo2D info,
+        Location origin, Location from, Location to) {
+
+        double x1 = screenX(info, origin, from);
+        double y1 = screenY(info, origin, from);
+        double x2 = screenX(info, origin, to);
+        double y2 = screenY(info, origin, to);
+        graphics.draw(new Line2D.Double(x1, y1, x2, y2));
+
+        double angle = Math.atan2(y2 - y1, x2 - x1);
+        GeneralPath head = new GeneralPath();
+        head.moveTo((float) x2, (float) y2);
+        head.lineTo((float) (x2 - ARROWHEAD_LENGTH * Math.cos(angle - .4)),
+            (float) (y2 - ARROWHEAD_LENGTH * Math.sin(angle - .4)));
+        head.lineTo((float) (x2 - ARROWHEAD_LENGTH * Math.cos(angle + .4)),
+            (float) (y2 - ARROWHEAD_LENGTH * Math.sin(angle + .4)));
+        head.closePath();
+        graphics.fill(head);
+    }
+
+    // (info.draw is centered on the origin, and its width and height are
+    //   the number of screen pixels per unit of the field.)
+    private double screenX(DrawInfo2D info, Location origin, Location l) {
+        return info.draw.x + (l.getLong() - origin.getLong()) * info.draw.width;
+    }
+
+    private double screenY(DrawInfo2D info, Location origin, Location l) {
+        return info.draw.y + (l.getLat() - origin.getLat()) * info.draw.height;
+    }
+}
@@ -0,0 +1,263 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived service that performs simulation runs submitted to it over
+ * a local socket, so that many short runs share one JVM (already loaded,
+ * and with the simulation's code already compiled) rather than each
+ * paying for starting one of its own.
+ * <p>
+ * A client connects to the port on the local host, and sends one line per
+ * run: the arguments {@link BatchRunner} would take on its command line
+ * (always run quietly), <i>e.g.</i>
+ * <pre>
+ *   -scenario routes.txt -until 2020 -seed 3 -output out3
+ * </pre>
+ * For each run the service replies, as it happens, with lines of the
+ * form:
+ * <pre>
+ *   queued job
+ *   started job
+ *   year job year victims escapees
+ *   done job millis
+ *   failed job message
+ * </pre>
+ * where <code>job</code> is the number the service gave the run, a
+ * "failed" line gives the exception (or error) that ended it, and a
+ * "year" line reports the victims and escapees at local locations as each
+ * year ends. The runs of one client (and of all clients) are performed
+ * concurrently, at most {@link #getThreads} at once, and the rest in the
+ * order they were submitted. Once the client has closed its side, and all
+ * its runs have finished, the service closes the connection.
+ * <p>
+ * Each connection and each run is given a thread of its own: a virtual
+ * thread, on Java versions that have them, or otherwise a pooled one.
+ * <p>
+ * From the command line:
+ * <pre>
+ *   java edu.umw.cpsc.humantrafficking.RunService [-port p] [-threads n]
+ * </pre>
+ */
+public class RunService {
+
+    /** The port listened on, if none is given. */
+    public static final int DEFAULT_PORT = 7272;
+
+    private ServerSocket server;
+    private int threads;
+    // Each run holds a permit while it runs, so that at most threads runs
+    //   are using the CPUs at once. (Fair, so that waiting runs start in
+    //   the order they were submitted.)
+    private Semaphore running;
+    private ExecutorService executor;
+    private AtomicInteger numJobs = new AtomicInteger();
+
+    /**
+     * Start listening on the local port passed (or, if 0, any free port),
+     * to perform at most the number of runs passed at once.
+     */
+    public RunService(int port, int threads) throws IOException {
+        this.threads = threads;
+        running = new Semaphore(threads, true);
+        executor = newThreadPerTaskExecutor();
+        server = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+    }
+
+    // Return an executor that starts a new virtual thread for each task,
+    //   if this Java has them (found reflectively, so as to compile on
+    //   versions that do not), or else one that starts (or reuses) a
+    //   daemon thread.
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "RunService");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Return the port on which clients may connect.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Return the most runs performed at once.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Accept clients, and perform their runs, until this service is
+     * closed.
+     */
+    public void serve() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                executor.execute(new Runnable() {
+                    public void run() {
+                        serveClient(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // (The server has been closed, or the client has gone.)
+            }
+        }
+    }
+
+    private void serveClient(Socket socket) {
+        List<Future<?>> jobs = new ArrayList<Future<?>>();
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream(), "UTF-8"));
+            final PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                socket.getOutputStream(), "UTF-8"), true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                final int job = numJobs.incrementAndGet();
+                final String[] args = (line + " -quiet").split("\\s+");
+                reply(out, "queued " + job);
+                jobs.add(executor.submit(new Runnable() {
+                    public void run() {
+                        perform(job, args, out);
+                    }
+                }));
+            }
+            for (Future<?> job : jobs) {
+                try {
+                    job.get();
+                } catch (ExecutionException e) {
+                    // (Already reported to the client by perform; wait for
+                    //   the rest.)
+                }
+            }
+        } catch (IOException e) {
+            // (The client has gone; its runs are still performed.)
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // (Nothing more to do.)
+            }
+        }
+    }
+
+    // Perform one run, once a permit is free, reporting its progress to
+    //   the client.
+    private void perform(final int job, String[] args,
+        final PrintWriter out) {
+
+        try {
+            running.acquire();
+        } catch (InterruptedException e) {
+            reply(out, "failed " + job + " interrupted");
+            return;
+        }
+        try {
+            BatchRunner runner = BatchRunner.fromArgs(args);
+            runner.setYearListener(new BatchRunner.YearListener() {
+                public void yearEnded(HumanTrafficking sim, int year) {
+                    int victims = 0;
+                    int escapees = 0;
+                    for (int id=0; id<sim.getNumLocations(); id++) {
+                        Location location = sim.getLocation(id);
+                        if (location.isLocal()) {
+                            victims += location.getNumVics();
+                            escapees += location.getNumEscapees();
+                        }
+                    }
+                    reply(out, "year " + job + " " + year + " " + victims +
+                        " " + escapees);
+                }
+            });
+            reply(out, "started " + job);
+            long start = System.currentTimeMillis();
+            runner.run();
+            reply(out, "done " + job + " " +
+                (System.currentTimeMillis() - start));
+        } catch (Throwable e) {
+            // (Errors too, such as running out of memory, so that the
+            //   client is not left waiting for a run that has died.)
+            reply(out, "failed " + job + " " +
+                e.toString().replace('\n', ' '));
+        } finally {
+            running.release();
+        }
+    }
+
+    // (The runs of one client share its connection.)
+    private static void reply(PrintWriter out, String line) {
+        synchronized (out) {
+            out.println(line);
+        }
+    }
+
+    /**
+     * Stop accepting clients. Runs already submitted are still performed.
+     */
+    public void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // (Nothing more to do.)
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Serve on the port, and with the number of threads, given on the
+     * command line (by default, {@link #DEFAULT_PORT}, and one per
+     * processor).
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i=0; i<args.length; i++) {
+            if (args[i].equals("-port") && i+1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads") && i+1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException(
+                    "Usage: RunService [-port p] [-threads n]");
+            }
+        }
+        RunService service = new RunService(port, threads);
+        System.out.println("Performing runs submitted to port " +
+            service.getPort() + ", " + threads + " at a time");
+        service.serve();
+    }
+}
@@ -0,0 +1,245 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import sim.engine.*;
+
+/**
+ * Writes the simulation's statistics, every timestep, into a database (an
+ * embedded one, such as SQLite or H2, named by its JDBC URL; the driver
+ * must be on the classpath), so that many runs can be queried together.
+ * Each run is given the next run number (if runs sharing the database
+ * start together, and two take the same one, the later tries again with
+ * the next), and adds:
+ *
+ * <ul>
+ * <li>one row to <code>runs</code>: <code>(run, seed, scenario,
+ * parameters, steps_per_year)</code>, the parameters as {@link
+ * Parameters#toString} gives them;</li>
+ * <li>one row to <code>counts</code> for each local location and
+ * timestep: <code>(run, location, year, step, victims, escapees,
+ * population)</code>, the step counting from 1;</li>
+ * <li>one row to <code>ages</code> for each local location, timestep and
+ * age at which there are captive victims: <code>(run, location, year,
+ * step, age, victims)</code>. (These are the contents of the {@link
+ * StatsPrinter}'s "Ages" files.)</li>
+ * <li>one row to <code>flows</code> for each year and pair of locations
+ * between which victims have ever moved: <code>(run, origin,
+ * destination, year, victims, cumulative)</code>, the victims moved from
+ * one to the other that year and since the run began (see {@link
+ * FlowMatrix}).</li>
+ * </ul>
+ * The tables (and their indices, on <code>(run, location, year)</code>,
+ * or for flows <code>(run, origin, year)</code>) are created if the
+ * database does not yet have them. Rows are inserted in batches, and each
+ * year's are committed together, in one transaction, at the end of the
+ * year (or, for a year not finished, when the simulation finishes); so a
+ * run that crashes leaves its last complete year in the database.
+ * Locations are identified by name.
+ * <p>
+ * The StatsDatabase runs, after the {@link StatsPrinter}, near the end of
+ * each timestep.
+ */
+class StatsDatabase implements Steppable {
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS runs (run INTEGER PRIMARY KEY, " +
+            "seed BIGINT, scenario VARCHAR(1024), " +
+            "parameters VARCHAR(1024), steps_per_year INTEGER)",
+        "CREATE TABLE IF NOT EXISTS counts (run INTEGER, " +
+            "location VARCHAR(256), year INTEGER, step INTEGER, " +
+            "victims INTEGER, escapees INTEGER, population INTEGER)",
+        "CREATE TABLE IF NOT EXISTS ages (run INTEGER, " +
+            "location VARCHAR(256), year INTEGER, step INTEGER, " +
+            "age INTEGER, victims INTEGER)",
+        "CREATE TABLE IF NOT EXISTS flows (run INTEGER, " +
+            "origin VARCHAR(256), destination VARCHAR(256), " +
+            "year INTEGER, victims INTEGER, cumulative BIGINT)",
+        "CREATE INDEX IF NOT EXISTS counts_run_location_year " +
+            "ON counts (run, location, year)",
+        "CREATE INDEX IF NOT EXISTS ages_run_location_year " +
+            "ON ages (run, location, year)",
+        "CREATE INDEX IF NOT EXISTS flows_run_origin_year " +
+            "ON flows (run, origin, year)",
+    };
+
+    private String url;
+    private StatsPrinter printer;
+    private Connection connection;
+    private PreparedStatement insertCount;
+    private PreparedStatement insertAges;
+    private PreparedStatement insertFlow;
+    private int run;
+
+    // The times a run's row is inserted before its number is given up on.
+    private static final int RUN_ATTEMPTS = 10;
+
+    /**
+     * Connect to the database at the JDBC URL passed, create its tables
+     * if need be, and record the (started) simulation passed, whose ages
+     * the StatsPrinter passed counts, as a new run.
+     * @throws SQLException if the database cannot be opened or written.
+     */
+    StatsDatabase(String url, HumanTrafficking world, StatsPrinter printer)
+        throws SQLException {
+
+        this.url = url;
+        this.printer = printer;
+        connection = DriverManager.getConnection(url);
+        try {
+            Statement statement = connection.createStatement();
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+            statement.close();
+
+            connection.setAutoCommit(false);
+            run = insertRun(world);
+
+            insertCount = connection.prepareStatement(
+                "INSERT INTO counts VALUES (?, ?, ?, ?, ?, ?, ?)");
+            insertAges = connection.prepareStatement(
+                "INSERT INTO ages VALUES (?, ?, ?, ?, ?, ?)");
+            insertFlow = connection.prepareStatement(
+                "INSERT INTO flows VALUES (?, ?, ?, ?, ?, ?)");
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    // Insert (and commit) the row for this run, under the next run number,
+    //   and return the number. Another run may take the same number first,
+    //   or hold the database locked, so a failed insert is rolled back and
+    //   tried again (with the number read afresh) a few times.
+    private int insertRun(HumanTrafficking world) throws SQLException {
+        PreparedStatement insertRun = connection.prepareStatement(
+            "INSERT INTO runs VALUES (?, ?, ?, ?, ?)");
+        try {
+            for (int attempt=1; ; attempt++) {
+                try {
+                    int next = nextRun();
+                    insertRun.setInt(1, next);
+                    insertRun.setLong(2, world.seed());
+                    insertRun.setString(3, world.getScenarioFile());
+                    insertRun.setString(4, world.getParameters().toString());
+                    insertRun.setInt(5, world.getStepsPerYear());
+                    insertRun.executeUpdate();
+                    connection.commit();
+                    return next;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    if (attempt == RUN_ATTEMPTS) {
+                        throw e;
+                    }
+                }
+                try {
+                    Thread.sleep(10L * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted numbering the run", e);
+                }
+            }
+        } finally {
+            insertRun.close();
+        }
+    }
+
+    // (Called within the transaction that inserts the run.)
+    private int nextRun() throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery(
+            "SELECT MAX(run) FROM runs");
+        int last = result.next() ? result.getInt(1) : 0;
+        statement.close();
+        return last + 1;
+    }
+
+    /**
+     * Return the number this run was given.
+     */
+    int getRun() {
+        return run;
+    }
+
+    /**
+     * Insert this timestep's rows, committing them (with the rest of the
+     * year's) on the last timestep of the year.
+     * @param state the HumanTrafficking simulation.
+     */
+    public void step(SimState state) {
+        HumanTrafficking world = (HumanTrafficking) state;
+        int year = world.getYear();
+        int step = world.getStepOfYear() + 1;
+        try {
+            for (int id=0; id<world.getNumLocations(); id++) {
+                Location location = world.getLocation(id);
+                if (!location.isLocal()) {
+                    continue;
+                }
+                insertCount.setInt(1, run);
+                insertCount.setString(2, location.getName());
+                insertCount.setInt(3, year);
+                insertCount.setInt(4, step);
+                insertCount.setInt(5, location.getNumVics());
+                insertCount.setInt(6, location.getNumEscapees());
+                insertCount.setInt(7, location.getPop());
+                insertCount.addBatch();
+
+                int[] counts = printer.getAgeCounts(id);
+                for (int age=0; age<counts.length; age++) {
+                    if (counts[age] == 0) {
+                        continue;
+                    }
+                    insertAges.setInt(1, run);
+                    insertAges.setString(2, location.getName());
+                    insertAges.setInt(3, year);
+                    insertAges.setInt(4, step);
+                    insertAges.setInt(5, age);
+                    insertAges.setInt(6, counts[age]);
+                    insertAges.addBatch();
+                }
+            }
+            insertCount.executeBatch();
+            insertAges.executeBatch();
+            if (step == world.getStepsPerYear()) {
+                insertFlows(world);
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(
+                "Could not write statistics to " + url, e);
+        }
+    }
+
+    private void insertFlows(HumanTrafficking world) throws SQLException {
+        FlowMatrix flows = world.getFlows();
+        for (int[] pair : flows.getPairs()) {
+            insertFlow.setInt(1, run);
+            insertFlow.setString(2, world.getLocation(pair[0]).getName());
+            insertFlow.setString(3, world.getLocation(pair[1]).getName());
+            insertFlow.setInt(4, world.getYear());
+            insertFlow.setInt(5, flows.getYearFlow(pair[0], pair[1]));
+            insertFlow.setLong(6, flows.getTotalFlow(pair[0], pair[1]));
+            insertFlow.addBatch();
+        }
+        insertFlow.executeBatch();
+    }
+
+    /**
+     * Commit any rows not yet committed, and disconnect.
+     */
+    void close() {
+        try {
+            connection.commit();
+            connection.close();
+        } catch (SQLException e) {
+            throw new IllegalStateException(
+                "Could not write statistics to " + url, e);
+        }
+    }
+}
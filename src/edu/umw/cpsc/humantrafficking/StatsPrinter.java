@@ -13,93 +13,178 @@ import sim.util.*;
  */
 public class StatsPrinter implements Steppable{
 
-    private static StatsPrinter theInstance;    
-
     /**
-     * The name of the output directory into which statistical files will
-     * be written.
+     * The name of the default output directory into which statistical 
+     * files will be written.
      */
     public static final String OUTPUT_DIRECTORY = "output";
 
+    private String outputDirectory;
+
     /**
-     * Acquire the singleton StatsPrinter object, and <b>delete</b> the
-     * existing contents of {@link #OUTPUT_DIRECTORY}.
+     * Create a StatsPrinter for one simulation run, and <b>delete</b> the
+     * existing contents of the output directory passed (creating it if
+     * necessary).
+     * @param outputDirectory the directory into which files are written.
      */
-    public static synchronized StatsPrinter instance(){
-        if (theInstance == null) {
-            theInstance = new StatsPrinter();
-        }
-        return theInstance;
+    StatsPrinter(String outputDirectory) {    
+        setOutputDirectory(outputDirectory);
     }
 
-    private StatsPrinter() {    
-        File dir = new File(OUTPUT_DIRECTORY);
-        dir.mkdir();
+    /**
+     * Write (from now on) into the directory passed, <b>deleting</b> its
+     * existing contents (and creating it if necessary).
+     */
+    void setOutputDirectory(String outputDirectory) {
+        this.outputDirectory = outputDirectory;
+        File dir = new File(outputDirectory);
+        dir.mkdirs();
         File files[] = dir.listFiles();
+        if (files == null) {
+            throw new UncheckedIOException(new IOException(
+                "Could not create output directory " + outputDirectory));
+        }
         for (File file : files) {
             file.delete();
         }
     }
 
-    private void printCurrentState() {
-        String countryName = null;
-        int numVics;
-        int age;
-        int year;
-        Hashtable<String,Location> ht;
-        ArrayList<Victim> vics;
-        ht = HumanTrafficking.instance().getLocations(); 
-
-        Enumeration<String> keys = ht.keys();
-        while (keys.hasMoreElements()) {
-            String nextKey = keys.nextElement();
-            year = HumanTrafficking.instance().getYear();
-            countryName = ht.get(nextKey).getName();
+    // (Reused from one snapshot to the next.) Indexed by location id,
+    //   then age.
+    private int[][] ageCounts = new int[0][];
+
+    private void printCurrentState(HumanTrafficking world) {
+        int year = world.getYear();
+        countAges(world);
+
+        for (int id=0; id<world.getNumLocations(); id++) {
+            if (!world.getLocation(id).isLocal()) {
+                continue;
+            }
+            String countryName = world.getLocation(id).getName();
             countryName = countryName.replace(" ","");
-            vics = ht.get(nextKey).getVics();
-            numVics = ht.get(nextKey).getNumVics();
             try{
-                File file = new File(OUTPUT_DIRECTORY + "/Ages" + 
-                    countryName + year + ".data");
-                FileWriter fstream = new FileWriter(file);
-                PrintWriter out = new PrintWriter(fstream);
-                for(int i=0; i<numVics; i++){
-                    age = vics.get(i).getAge();
-                    out.println(age);   
+                File file = new File(outputDirectory, "Ages" + 
+                    countryName + year + stepSuffix(world) + ".data");
+                PrintWriter out = new PrintWriter(new BufferedWriter(
+                    new FileWriter(file)));
+                int[] counts = ageCounts[id];
+                for(int age=0; age<counts.length; age++){
+                    for(int i=0; i<counts[age]; i++){
+                        out.println(age);   
+                    }
                 }
                 out.close();
-            }catch (Exception e){//Catch exception if any
-                System.err.println("Error: " + e.getMessage());
-                System.exit(1);
+            }catch (IOException e){
+                throw new UncheckedIOException(e);
             }
         }
 
+        if (world.getStepOfYear() == world.getStepsPerYear() - 1) {
+            printFlows(world);
+        }
+    }
+
+    private void printFlows(HumanTrafficking world) {
+        FlowMatrix flows = world.getFlows();
+        File file = new File(outputDirectory, "Flows" + world.getYear() +
+            ".data");
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                new FileWriter(file)));
+            for (int[] pair : flows.getPairs()) {
+                out.println(world.getLocation(pair[0]).getName() + "\t" +
+                    world.getLocation(pair[1]).getName() + "\t" +
+                    flows.getYearFlow(pair[0], pair[1]) + "\t" +
+                    flows.getTotalFlow(pair[0], pair[1]));
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Tally the ages of all captive victims at each location, in one
+    //   sequential scan over the victim store.
+    private void countAges(HumanTrafficking world) {
+        int numLocations = world.getNumLocations();
+        if (ageCounts.length != numLocations) {
+            ageCounts = new int[numLocations][PopulationPyramid.MAX_AGE + 1];
+        }
+        for (int id=0; id<numLocations; id++) {
+            java.util.Arrays.fill(ageCounts[id], 0);
+        }
+        int year = world.getYear();
+        VictimStore store = world.getVictimStore();
+        int size = store.size();
+        for (int slot=0; slot<size; slot++) {
+            if (store.getStatus(slot) != VictimStore.CAPTIVE) {
+                continue;
+            }
+            int age = year - store.getBirthYear(slot);
+            age = Math.max(0, Math.min(PopulationPyramid.MAX_AGE, age));
+            ageCounts[store.getLocationId(slot)][age]++;
+        }
+    }
+
+    /**
+     * Return the number of captive victims of each age (indexed by age, up
+     * to {@link PopulationPyramid#MAX_AGE}) at the location with the id
+     * passed, as of the last snapshot. (The array is reused by the next
+     * one.)
+     */
+    int[] getAgeCounts(int id) {
+        return ageCounts[id];
+    }
+
+    /**
+     * With more than one timestep per year, return a suffix identifying
+     * the current timestep within the year (from "-01"), so that every 
+     * step's snapshot goes to its own file. Otherwise, return "".
+     */
+    private String stepSuffix(HumanTrafficking world) {
+        if (world.getStepsPerYear() == 1) {
+            return "";
+        }
+        return String.format("-%02d", world.getStepOfYear() + 1);
     }
 
     /**
      * Dump a snapshot of statistical information to flat files.<br/>
-     * The directory {@link #OUTPUT_DIRECTORY} will appear, if it doesn't
-     * already exist, and its contents cleared. Then, in this directory will 
-     * be written the following files:
+     * The output directory (by default, {@link #OUTPUT_DIRECTORY}) will
+     * have appeared, and its contents cleared, when this StatsPrinter was 
+     * created. In this directory will be written the following files:
      *
      * <ul>
      * <li>One "Ages" file for each country (for this year). The name of the 
      * file will be <code>Ages</code> followed by the country's name (with 
      * no spaces), the current year, and a "<code>.data</code>" suffix. (For 
      * instance, "<code>AgesSouthKorea2028.data</code>".) The file will 
-     * contain one line for each victim present in that location. Each such 
-     * line consists of a single numerical field: the victim's current 
-     * age.</li>
+     * contain one line for each victim present in that location, in order
+     * of age. Each such line consists of a single numerical field: the 
+     * victim's current age.</li>
+     * <li>One "Flows" file (for this year), named <code>Flows</code>
+     * followed by the year and "<code>.data</code>" (for instance,
+     * "<code>Flows2028.data</code>"). The file will contain one line for
+     * each pair of locations between which victims have ever moved (see
+     * {@link FlowMatrix}), in order of the locations' ids, with four
+     * tab-separated fields: the origin's name, the destination's name, the
+     * number of victims moved from one to the other this year, and the
+     * number moved since the simulation began.</li>
      * </ul>
+     * With more than one timestep per year, a snapshot is dumped at the 
+     * end of every timestep, and the file names have the timestep number
+     * (from 1) appended to the year: <code>AgesSouthKorea2028-03.data</code>.
+     * (The "Flows" file is written only at the end of the year's last
+     * timestep.)
      *
-     * This dump is scheduled to occur once per year, and when 
-     * <code>step()</code> is invoked, it will schedule itself for the next 
-     * year.
+     * This dump occurs once per timestep; the simulation's stats {@link
+     * Phase} runs it.
      * @param state the HumanTrafficking simulation.
      */
     public void step(SimState state){
-        printCurrentState();
-        state.schedule.scheduleOnceIn(1, this);
+        HumanTrafficking world = (HumanTrafficking) state;
+        printCurrentState(world);
     }
 }
 
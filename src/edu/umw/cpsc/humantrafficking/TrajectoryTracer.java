@@ -0,0 +1,175 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.*;
+
+/**
+ * Records the full history of a sample of victims: where each was
+ * abducted and along which route, every move, escape and reacquisition,
+ * and how she left the system. Logging every victim would cost far more
+ * than simulating her, so only a fraction of victims (the "trace rate")
+ * are followed. Which ones is decided once, when each victim is created,
+ * by hashing her creation number with the simulation's seed: the sample
+ * is the same from run to run of the same seed, and unbiased with respect
+ * to location, age and route. An untraced victim costs only the test of
+ * her {@link Victim#getTraceId trace id} at each event.
+ * <p>
+ * Events are appended, six ints apiece, to an in-memory buffer, which is
+ * written out (and emptied) at the end of each year, and when the
+ * simulation finishes, to the file {@link #TRACE_FILE} in the output
+ * directory. Each line of that file is one event, as tab-separated
+ * fields: the victim's trace id, the year, the timestep within the year
+ * (from 1), the event (one of {@link #EVENT_NAMES}), the name of the
+ * location at which it happened (for a move, the location she arrived
+ * at), and the index of the route involved (for abductions and moves;
+ * otherwise "-"). A victim's hops, years in transit and exit reason all
+ * follow from her lines, in order.
+ * <p>
+ * In a distributed run, a victim moving to another process's location
+ * ends her trace here with that move, and (if sampled there) begins a
+ * new one, under a new id, with an "admitted" event.
+ */
+public class TrajectoryTracer implements Serializable {
+
+    /**
+     * The name of the file, in the output directory, to which events are
+     * written.
+     */
+    public static final String TRACE_FILE = "Trajectories.data";
+
+    static final byte ABDUCTED = 0;
+    static final byte MOVED = 1;
+    static final byte ESCAPED = 2;
+    static final byte REACQUIRED = 3;
+    static final byte FREED = 4;
+    static final byte RETIRED = 5;
+    static final byte ADMITTED = 6;
+
+    /**
+     * The name of each event, as written to the trace file, indexed by
+     * its code.
+     */
+    public static final String[] EVENT_NAMES = { "abducted", "moved",
+        "escaped", "reacquired", "freed", "retired", "admitted" };
+
+    private static final int RECORD_INTS = 6;
+
+    private HumanTrafficking world;
+    private File file;
+    private long salt;
+    // Victims whose hash (as a 53-bit fraction) falls below this are
+    //   traced.
+    private long threshold;
+    private int numCreated;
+    private int numTraced;
+
+    private int[] buffer = new int[RECORD_INTS * 1024];
+    private int size;
+
+    /**
+     * Create a tracer following the fraction passed of the simulation's
+     * victims, writing to {@link #TRACE_FILE} in the directory passed.
+     * With a rate of 0, nothing is traced and no file is written.
+     */
+    TrajectoryTracer(HumanTrafficking world, double rate,
+        String outputDirectory) {
+
+        this.world = world;
+        setOutputDirectory(outputDirectory);
+        salt = world.seed() * 0x9E3779B97F4A7C15L;
+        threshold = (long) (Math.max(0, Math.min(1, rate)) * (1L << 53));
+    }
+
+    /**
+     * Write (from now on) to {@link #TRACE_FILE} in the directory passed.
+     */
+    void setOutputDirectory(String outputDirectory) {
+        file = new File(outputDirectory, TRACE_FILE);
+    }
+
+    /**
+     * Decide whether a victim now being created is traced: return her
+     * trace id (from 0) if so, or -1 if not.
+     */
+    int sample() {
+        if (threshold == 0) {
+            return -1;
+        }
+        long h = mix(salt + numCreated++);
+        if ((h >>> 11) >= threshold) {
+            return -1;
+        }
+        return numTraced++;
+    }
+
+    // The finalizer of SplitMix64: a cheap hash whose output bits all
+    //   depend on every input bit.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Record that the event passed has happened to the victim passed, if
+     * she is traced.
+     * @param event one of the event codes.
+     * @param at the location at which it happened (or, for a move, the
+     * location she moved to).
+     * @param route the index of the route involved, or -1.
+     */
+    void record(Victim v, byte event, Location at, int route) {
+        int id = v.getTraceId();
+        if (id < 0) {
+            return;
+        }
+        if (size == buffer.length) {
+            buffer = java.util.Arrays.copyOf(buffer, 2 * size);
+        }
+        buffer[size++] = id;
+        buffer[size++] = world.getYear();
+        buffer[size++] = world.getStepOfYear() + 1;
+        buffer[size++] = event;
+        buffer[size++] = at.getId();
+        buffer[size++] = route;
+    }
+
+    /**
+     * Return the number of victims traced so far.
+     */
+    public int getNumTraced() {
+        return numTraced;
+    }
+
+    /**
+     * Append the events recorded since the last flush to the trace file,
+     * and empty the buffer.
+     * @throws UncheckedIOException if the file cannot be written.
+     */
+    void flush() {
+        if (size == 0) {
+            return;
+        }
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                new FileWriter(file, true)));
+            for (int i=0; i<size; i+=RECORD_INTS) {
+                out.print(buffer[i]);
+                out.print('\t');
+                out.print(buffer[i+1]);
+                out.print('\t');
+                out.print(buffer[i+2]);
+                out.print('\t');
+                out.print(EVENT_NAMES[buffer[i+3]]);
+                out.print('\t');
+                out.print(world.getLocation(buffer[i+4]).getName());
+                out.print('\t');
+                out.println(buffer[i+5] < 0 ? "-" :
+                    Integer.toString(buffer[i+5]));
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        size = 0;
+    }
+}
@@ -12,73 +12,149 @@ import sim.portrayal.simple.OvalPortrayal2D;
  * A Victim represents a woman being abducted for sex trafficking. Every
  * individual woman in the simulation is represented as a Victim object,
  * even if that individual is not <i>currently</i> a victim (<i>e.g.</i>,
- * she may have escaped.)
+ * she may have escaped.) Her birth year, location, status and attributes
+ * (see {@link VictimAttributes}) are kept in the simulation's {@link
+ * VictimStore}, in her own numbered slot; the Victim object itself is
+ * just a handle to that slot.
  */
 
 public class Victim implements Steppable{
 
     /** 
-     * The annual probability that each victim will escape captivity.
+     * The default annual probability that each victim will escape
+     * captivity. (See {@link Parameters}.)
      */
     public static final double PROB_ESCAPE = .01;
     
     /**
-     * The "intercept" in a linear function mapping victim age (in years)
-     * to probability of retirement.
+     * The default "intercept" in a linear function mapping victim age (in
+     * years) to probability of retirement. (See {@link Parameters}.)
      */ 
     public static final double RETIRE_PROB_INTERCEPT = -10.0;
 
     /**
-     * The "slope" in a linear function mapping victim age (in years)
-     * to probability of retirement.
+     * The default "slope" in a linear function mapping victim age (in
+     * years) to probability of retirement. (See {@link Parameters}.)
      */ 
     public static final double RETIRE_PROB_SLOPE = 2.0;
 
-    private double fineGrainedLong; 
-    private double fineGrainedLat; 
-    private int birthYear;
-    private long chanceOfRetire;
-    private String educationLevel;
-    private String religion;
-    private Location location;
-    private boolean escapee; 
-    private boolean invisibleNextYear;
-    
-    private double getRetireChance() {
-        return RETIRE_PROB_INTERCEPT + getAge() * RETIRE_PROB_SLOPE;
-    }
+    private int slot;
+    private int traceId;
+    // How to stop this victim running (or null, while she is not).
+    private Stoppable stopper;
 
     /**
-     * The maximum amount of horizontal or vertical jitter, in screen
-     * pixels.
+     * The default maximum amount of horizontal or vertical jitter, in 
+     * screen pixels. (See {@link Parameters}.)
      */
     public final static double JITTER_MAX = 25.0;
     
     /**
      * Instantiate a new Victim object that has been acquired from the
-     * local population at the Location passed. Schedule this new victim
-     * to run on July 1st of the next year.
+     * local population at the Location passed, with attributes drawn
+     * from that location's distributions. This new victim will run
+     * on July 1st of this year (or in the middle of this timestep), and
+     * every year thereafter.
      */
     public Victim(Location l, SimState state){
-        invisibleNextYear = false;
-        HumanTraffickingWithUI.instance().myVictimPortrayal.
-            setPortrayalForObject(this,
-                new OvalPortrayal2D(java.awt.Color.RED,2,true));
+        this(l, ((HumanTrafficking) state).getVictimStore().nextSlot(),
+            state);
+    }
+
+    /**
+     * Instantiate a new Victim object, as {@link #Victim(Location,
+     * SimState)} does, whose age and attributes (with common random
+     * numbers) are drawn with the key passed (see {@link
+     * RandomStreams#abductionKey}), and whose victim key is made from it
+     * (see {@link RandomStreams#victimKey}).
+     */
+    Victim(Location l, long key, SimState state){
+        HumanTraffickingWithUI.paintVictim(this, java.awt.Color.RED, true);
 
+        // (Her age must be known before she is taken from the population.)
+        HumanTrafficking world = (HumanTrafficking) state;
+        int num = (int) Math.round(world.nextGaussian(RandomStreams.AGE,
+            key)*2.17+18.5);
+        slot = world.getVictimStore().add(world.getYear() - num, 
+            l.getId(), VictimStore.CAPTIVE, l.drawAttributes(key),
+            RandomStreams.victimKey(key, world.getTimestep()));
+        traceId = world.getTracer().sample();
         l.addVictimFromLocalPopulation(this);
         setLocation(l);
-        int num = (int) Math.round(state.random.nextGaussian()*2.17+18.5); 
-        birthYear = HumanTrafficking.instance().getYear() - num;
 
         makeVisibleAtRightPlace();
 
         // Victims will run on July 1st of each year.
-        state.schedule.scheduleOnceIn(.5,this);
+        startRunning();
+    }
+
+    /**
+     * Instantiate a Victim object for a victim arriving at the Location
+     * passed from a location simulated by another process (see {@link
+     * VictimExchange}), with the birth year, attributes and victim key
+     * passed.
+     */
+    Victim(Location l, int birthYear, byte attributes, long key,
+        SimState state){
+        HumanTraffickingWithUI.paintVictim(this, java.awt.Color.RED, true);
+
+        HumanTrafficking world = (HumanTrafficking) state;
+        slot = world.getVictimStore().add(birthYear, l.getId(),
+            VictimStore.CAPTIVE, attributes, key);
+        traceId = world.getTracer().sample();
+        l.addVictimFromExternalLocation(this);
+        startRunning();
+    }
+
+    /**
+     * Have this (captive) victim run every timestep, in the simulation's
+     * victim {@link Phase} (unless a {@link VictimPass} runs every captive
+     * victim).
+     */
+    void startRunning(){
+        HumanTrafficking world = HumanTrafficking.instance();
+        if (stopper == null && !world.hasVictimPass()) {
+            stopper = world.getVictimPhase().add(this);
+        }
+    }
+
+    private void stopRunning(){
+        if (stopper != null) {
+            stopper.stop();
+            stopper = null;
+        }
+    }
+
+    // Leave the simulation for good, with the (terminal) status passed:
+    //   stop running, leave the display, and give up this victim's slot in
+    //   the store for reuse. Nothing refers to her afterwards.
+    private void leave(byte status){
+        setStatus(status);
+        stopRunning();
+        makeInvisible();
+        HumanTrafficking.instance().getVictimStore().release(slot);
+        slot = -1;
+    }
+
+    /**
+     * Remove this victim from this process's simulation, because she has
+     * been moved to a location simulated by another process. She will 
+     * not run again here.
+     */
+    void emigrate(){
+        leave(VictimStore.EMIGRATED);
     }
 
+    // (In a headless run, victims are not placed in the victimsField at
+    //   all, which saves both the memory of its entries and the draws of
+    //   their offsets.)
     private void makeVisibleAtRightPlace() {
+        if (!HumanTrafficking.instance().isDisplayed()) {
+            return;
+        }
+        Location location = getLocation();
         Coordinate jittered = jitter(
-            new Coordinate(fineGrainedLong, fineGrainedLat));
+            new Coordinate(location.getLong(), location.getLat()));
         
         HumanTrafficking.instance().victimsField.setObjectLocation(
             this, 
@@ -86,23 +162,102 @@ public class Victim implements Steppable{
     }
 
     private void makeInvisible() { 
-        HumanTraffickingWithUI.instance().myVictimPortrayal.
-            setPortrayalForObject(this,null);
-        HumanTrafficking.instance().victimsField.remove(this);
-    }
-
-    private void makeInvisibleNextYear() { 
-        invisibleNextYear = true;
+        HumanTraffickingWithUI.hideVictim(this);
+        if (HumanTrafficking.instance().isDisplayed()) {
+            HumanTrafficking.instance().victimsField.remove(this);
+        }
     }
 
     /**
      * Return the age of the victim (in years).
      */
     public int getAge(){
-        int age = HumanTrafficking.instance().getYear() - birthYear;
+        HumanTrafficking world = HumanTrafficking.instance();
+        int age = world.getYear() - world.getVictimStore().getBirthYear(slot);
         return age;
     }
     
+    /**
+     * Return this victim's slot in the simulation's {@link VictimStore}.
+     */
+    public int getSlot(){
+        return slot;
+    }
+
+    /**
+     * Return the key that names this victim for her draws with common
+     * random numbers (see {@link RandomStreams#victimKey}).
+     */
+    public long getKey(){
+        return HumanTrafficking.instance().getVictimStore().getKey(slot);
+    }
+
+    /**
+     * Return this victim's attributes, packed as described in {@link
+     * VictimAttributes}.
+     */
+    public byte getAttributes(){
+        return HumanTrafficking.instance().getVictimStore().getAttributes(
+            slot);
+    }
+
+    /**
+     * Return the name of this victim's education level (one of {@link
+     * VictimAttributes#EDUCATION_LEVELS}).
+     */
+    public String getEducationLevel(){
+        return VictimAttributes.EDUCATION_LEVELS[
+            VictimAttributes.getEducationLevel(getAttributes())];
+    }
+
+    /**
+     * Return the name of this victim's religion (one of {@link
+     * VictimAttributes#RELIGIONS}).
+     */
+    public String getReligion(){
+        return VictimAttributes.RELIGIONS[
+            VictimAttributes.getReligion(getAttributes())];
+    }
+
+    /**
+     * Record that this victim has been reacquired after escaping, which
+     * may change her hazards from now on.
+     */
+    void markReacquired(){
+        VictimStore store = HumanTrafficking.instance().getVictimStore();
+        store.setAttributes(slot,
+            (byte) (store.getAttributes(slot) | VictimAttributes.REACQUIRED));
+    }
+
+    /**
+     * Return this victim's id in the simulation's {@link
+     * TrajectoryTracer}, or -1 if her trajectory is not being traced.
+     */
+    public int getTraceId(){
+        return traceId;
+    }
+
+    /**
+     * Return this victim's current (or, if she is no longer captive, most
+     * recent) location, or null if she is between locations.
+     */
+    public Location getLocation(){
+        HumanTrafficking world = HumanTrafficking.instance();
+        int id = world.getVictimStore().getLocationId(slot);
+        return id == VictimStore.NO_LOCATION ? null : world.getLocation(id);
+    }
+
+    /**
+     * Return this victim's status: one of the status constants in {@link
+     * VictimStore}.
+     */
+    public byte getStatus(){
+        return HumanTrafficking.instance().getVictimStore().getStatus(slot);
+    }
+
+    void setStatus(byte status){
+        HumanTrafficking.instance().getVictimStore().setStatus(slot, status);
+    }
 
     /**
      * Tell this Victim about her new location. This does <i>not</i> inform
@@ -110,10 +265,9 @@ public class Victim implements Steppable{
      * responsibility of the caller.
      */
     public void setLocation(Location l){
-        location = l;
-        if (location != null) {
-            fineGrainedLong = location.getLong();
-            fineGrainedLat = location.getLat();
+        HumanTrafficking.instance().getVictimStore().setLocationId(slot,
+            l == null ? VictimStore.NO_LOCATION : l.getId());
+        if (l != null) {
             makeVisibleAtRightPlace();
         } else {
             makeInvisible();
@@ -121,43 +275,81 @@ public class Victim implements Steppable{
     }
 
     /** 
-     * Take into account a victim's chance of escape and decide whether
-     * they do escape this year. If so, sets their status to "escapee".
+     * Take into account a victim's chance of escape (which depends on her
+     * attributes, age and location; see {@link HazardModel}) and decide
+     * whether they do escape this year. If so, sets their status to
+     * "escapee".
      */
     public void possiblyEscape(){
-        double escape = (HumanTrafficking.instance().random.nextDouble());
-        if(escape < PROB_ESCAPE){
-            location.addEscapee(this);
+        HumanTrafficking world = HumanTrafficking.instance();
+        VictimStore store = world.getVictimStore();
+        double escape = world.nextDouble(RandomStreams.ESCAPE,
+            store.getKey(slot));
+        if(escape < world.getHazardModel().get(HazardModel.ESCAPE,
+                store.getLocationId(slot), store.getAttributes(slot),
+                getAge())){
+            Location location = getLocation();
             location.removeVictim(this);
-            escapee = true;
-            makeInvisibleNextYear();
+            escape(location);
         }
     }
+
+    /**
+     * Make this victim an escapee at the location passed (which is left
+     * to remove her from its victims). Escapees do not run (the location
+     * decides which are reacquired or retire), and are not displayed.
+     */
+    void escape(Location location){
+        location.addEscapee(this);
+        HumanTrafficking.instance().getTracer().record(this,
+            TrajectoryTracer.ESCAPED, location, -1);
+        stopRunning();
+        makeInvisible();
+    }
     
     /**
      * Mark this victim "free" because of a forced immigration crackdown.
      */
     void setFree(){
+        Location location = getLocation();
         location.removeVictim(this);
-        location.setPop(location.getPop() + 1);
-        makeInvisibleNextYear();
+        location.returnToPopulation(getAge());
+        HumanTrafficking.instance().getTracer().record(this,
+            TrajectoryTracer.FREED, location, -1);
+        leave(VictimStore.FREED);
     }
     
     /**
-     * This function takes into account a victim's age and, if older than 30,
-     * randomly determines whether they should be removed from the system.
+     * This function takes into account a victim's age (and attributes and
+     * location; see {@link HazardModel}) and randomly determines whether
+     * they should be removed from the system.
      */
     public void possiblyRetire(){
+        HumanTrafficking world = HumanTrafficking.instance();
+        VictimStore store = world.getVictimStore();
         int age = getAge();
-        double chanceOfRetire = 
-            (HumanTrafficking.instance().random.nextDouble());
-        if(chanceOfRetire < getRetireChance()){
+        double chanceOfRetire = world.nextDouble(RandomStreams.RETIREMENT,
+            store.getKey(slot));
+        if(chanceOfRetire < world.getHazardModel().get(HazardModel.RETIRE,
+                store.getLocationId(slot), store.getAttributes(slot), age)){
+            Location location = getLocation();
             location.removeVictim(this);
-            location.setPop(location.getPop() + 1);
-            makeInvisibleNextYear();
+            retire(location);
         }
     }
 
+    /**
+     * Retire this victim (captive or escapee) from the location passed
+     * (which is left to remove her from its victims or escapees),
+     * returning her to its population.
+     */
+    void retire(Location location){
+        location.returnToPopulation(getAge());
+        HumanTrafficking.instance().getTracer().record(this,
+            TrajectoryTracer.RETIRED, location, -1);
+        leave(VictimStore.RETIRED);
+    }
+
     /**
      * Return a Coordinate object that will be slightly (and randomly) 
      *   offset from the Coordinate object passed, so as to tweak a
@@ -165,8 +357,9 @@ public class Victim implements Steppable{
      */
     private Coordinate jitter(Coordinate c) {
         HumanTrafficking world = HumanTrafficking.instance();
-        double radius = world.random.nextDouble() * JITTER_MAX;
-        double theta = world.random.nextDouble() * 2 * 3.14159;
+        double radius = world.getDisplayRandom().nextDouble() *
+            world.getParameters().getJitterMax();
+        double theta = world.getDisplayRandom().nextDouble() * 2 * 3.14159;
         Coordinate jittered = new Coordinate(
             c.x + radius * Math.cos(theta),
             c.y + radius * Math.sin(theta));
@@ -174,30 +367,27 @@ public class Victim implements Steppable{
     }
 
     /**
-     * Perform actions for this Victim this year. Victims are scheduled to
-     * run on July 1st of each year. Their <code>step()</code> includes the
-     * following items:
+     * Perform actions for this Victim this year. Victims are run on July 
+     * 1st of each year (or in the middle of each timestep) by the
+     * simulation's victim {@link Phase}. Their <code>step()</code> 
+     * includes the following items:
      * <ol>
      * <li>Decide whether this victim escapes from forced
      * prostitution.</li>
-     * <li>Decide whether this victim "retires" (<i>i.e.</i>, is determined
-     * to be too old for forced prostitution, and dumped from the
-     * system.</li>
+     * <li>If not, decide whether this victim "retires" (<i>i.e.</i>, is
+     * determined to be too old for forced prostitution, and dumped from
+     * the system.</li>
      * </ol>
+     * Only captive victims run. Escapees stop running until they are
+     * reacquired; freed, retired and emigrated victims stop for good, and
+     * their slots in the {@link VictimStore} are reused.
      * @param state the HumanTrafficking simulation.
      */
     public void step(SimState state){
-        if (invisibleNextYear) {
-            makeInvisible();
-        }
-        //TODO: factor in chance of escape on each step based on 
-        //education level and prevAbducted and religion: need separate method?
-        //added some get methods for education level, abduction, and education
         this.possiblyEscape();
-        this.possiblyRetire();
-
-        // Run again one calendar year from now (next July 1st)
-        state.schedule.scheduleOnceIn(1, this);
+        if (getStatus() == VictimStore.CAPTIVE) {
+            this.possiblyRetire();
+        }
    }
 
 }
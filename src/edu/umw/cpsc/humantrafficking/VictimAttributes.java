@@ -0,0 +1,86 @@
+package edu.umw.cpsc.humantrafficking;
+
+/**
+ * The personal attributes of a victim that affect her hazards (see {@link
+ * HazardModel}), packed into one byte of her {@link VictimStore} record:
+ * her education level (bits 0-1), her religion (bits 2-4), and whether she
+ * has ever been reacquired after escaping (bit 5). Code 0 of each
+ * attribute means "unknown", which is what every victim has unless her
+ * source location was given the distribution of that attribute (see
+ * {@link Location#setAttributeShares}). There are thus {@link
+ * #COMBINATIONS} possible combinations, each of which is simply the
+ * attributes byte itself.
+ */
+public final class VictimAttributes {
+
+    /** The education attribute, for {@link Location#setAttributeShares}. */
+    public static final int EDUCATION = 0;
+
+    /** The religion attribute, for {@link Location#setAttributeShares}. */
+    public static final int RELIGION = 1;
+
+    /** The name of each education level, indexed by its code. */
+    public static final String[] EDUCATION_LEVELS = { "unknown", "primary",
+        "secondary", "tertiary" };
+
+    /** The name of each religion, indexed by its code. */
+    public static final String[] RELIGIONS = { "unknown", "buddhist",
+        "christian", "hindu", "muslim", "other" };
+
+    /** The bit set in a victim's attributes once she has been reacquired. */
+    public static final int REACQUIRED = 1 << 5;
+
+    /** The number of possible combinations of attributes. */
+    public static final int COMBINATIONS = 1 << 6;
+
+    private static final int EDUCATION_MASK = 0x3;
+    private static final int RELIGION_SHIFT = 2;
+    private static final int RELIGION_MASK = 0x7;
+
+    private VictimAttributes() {
+    }
+
+    /**
+     * Pack an education level and religion (codes), for a victim who has
+     * not been reacquired.
+     */
+    public static byte encode(int educationLevel, int religion) {
+        return (byte) (educationLevel | religion << RELIGION_SHIFT);
+    }
+
+    /**
+     * Return the education level (code) in the attributes passed.
+     */
+    public static int getEducationLevel(int attributes) {
+        return attributes & EDUCATION_MASK;
+    }
+
+    /**
+     * Return the religion (code) in the attributes passed.
+     */
+    public static int getReligion(int attributes) {
+        return attributes >>> RELIGION_SHIFT & RELIGION_MASK;
+    }
+
+    /**
+     * Return whether the attributes passed are those of a victim who has
+     * been reacquired.
+     */
+    public static boolean isReacquired(int attributes) {
+        return (attributes & REACQUIRED) != 0;
+    }
+
+    /**
+     * Return the code of the named value of an attribute.
+     * @throws IllegalArgumentException if there is no such value.
+     */
+    static int codeOf(String[] names, String name) {
+        for (int i=0; i<names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No attribute value named " +
+            name);
+    }
+}
@@ -0,0 +1,86 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * In a distributed run, the victims moved by this process's routes to
+ * locations that other processes simulate. They are batched up over the
+ * year and, at the year barrier, written out (as location id, birth year,
+ * attributes and victim key only) for the {@link DistributedCoordinator}
+ * to pass on to their new locations' owners, where {@link #admit} brings
+ * them back to life.
+ */
+public class VictimExchange implements java.io.Serializable {
+
+    private int[] locationIds = new int[256];
+    private int[] birthYears = new int[256];
+    private byte[] attributes = new byte[256];
+    private long[] keys = new long[256];
+    private int size;
+
+    /**
+     * Remove the victim passed from this process, recording that she is
+     * bound for the (remote) location passed.
+     */
+    void export(Victim v, Location to) {
+        if (size == locationIds.length) {
+            locationIds = java.util.Arrays.copyOf(locationIds, 2 * size);
+            birthYears = java.util.Arrays.copyOf(birthYears, 2 * size);
+            attributes = java.util.Arrays.copyOf(attributes, 2 * size);
+            keys = java.util.Arrays.copyOf(keys, 2 * size);
+        }
+        locationIds[size] = to.getId();
+        birthYears[size] = HumanTrafficking.instance().getYear() -
+            v.getAge();
+        attributes[size] = v.getAttributes();
+        keys[size] = v.getKey();
+        size++;
+        v.emigrate();
+    }
+
+    /**
+     * Return the number of victims exported since the last {@link
+     * #writeBatch}.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Write (and forget) the batch of victims exported so far: their
+     * number, then a location id, birth year, attributes and victim key
+     * for each.
+     */
+    void writeBatch(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i=0; i<size; i++) {
+            out.writeInt(locationIds[i]);
+            out.writeInt(birthYears[i]);
+            out.writeInt(attributes[i]);
+            out.writeLong(keys[i]);
+        }
+        size = 0;
+    }
+
+    /**
+     * Read a batch of victims (in the format of {@link #writeBatch})
+     * arriving from other processes, and add each to her new location in
+     * the simulation passed.
+     * @return the number of victims admitted.
+     */
+    static int admit(DataInputStream in, HumanTrafficking world)
+        throws IOException {
+        int n = in.readInt();
+        for (int i=0; i<n; i++) {
+            Location to = world.getLocation(in.readInt());
+            int birthYear = in.readInt();
+            byte attributes = (byte) in.readInt();
+            Victim v = new Victim(to, birthYear, attributes, in.readLong(),
+                world);
+            world.getTracer().record(v, TrajectoryTracer.ADMITTED, to, -1);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,217 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import sim.engine.*;
+
+/**
+ * Runs every captive victim's timestep (see {@link Victim#step}) in
+ * parallel, in place of each victim stepping herself, when the simulation
+ * is given several victim threads (see {@link
+ * HumanTrafficking#setVictimThreads}). Each location's victims are split
+ * into chunks of {@link #CHUNK_SIZE}, and the chunks (of all locations
+ * together) are decided on a ForkJoinPool: for each victim in a chunk,
+ * whether she escapes, and if not, whether she retires. Deciding only
+ * reads the victims' records and the {@link HazardModel}'s tables, and
+ * writes each chunk's own buffers of escapees and retirees, so no
+ * location's collections are touched (or locked) until every chunk is
+ * done. Then, on the simulation's thread, the chunks' decisions are
+ * carried out, location by location and chunk by chunk. (A victim who
+ * escapes does not also retire.)
+ * <p>
+ * Each chunk draws its random numbers from its own substream, keyed by
+ * its location, its number within the location, and the timestep (see
+ * {@link RandomStreams}), or, with common random numbers, from each
+ * victim's own keyed streams. So the results depend on the seed, but not
+ * on the number of threads or on how the chunks are scheduled. (They do
+ * differ from those of the serial pass, which draws from the simulation's
+ * single stream.)
+ */
+class VictimPass implements Steppable {
+
+    /** The number of a location's victims decided together. */
+    static final int CHUNK_SIZE = 4096;
+
+    private int threads;
+    private RandomStreams streams;
+    private transient ForkJoinPool pool;
+
+    /**
+     * Create a pass with the number of threads, and the seed for its
+     * substreams, passed.
+     */
+    VictimPass(int threads, long seed) {
+        this.threads = threads;
+        this.streams = new RandomStreams(seed);
+    }
+
+    /**
+     * Reseed the substreams with the seed passed.
+     */
+    void reseed(long seed) {
+        streams = new RandomStreams(seed);
+    }
+
+    // One chunk of a location's victims, and what was decided for them.
+    private static class Chunk {
+        Location location;
+        Victim[] victims;
+        int from;
+        int to;
+        RandomStreams.Substream random;
+        int[] escapees = new int[16];
+        int numEscapees;
+        int[] retirees = new int[16];
+        int numRetirees;
+
+        void decide(HumanTrafficking world) {
+            VictimStore store = world.getVictimStore();
+            HazardModel hazards = world.getHazardModel();
+            int year = world.getYear();
+            int id = location.getId();
+            boolean common = world.getCommonRandomNumbers();
+            for (int i=from; i<to; i++) {
+                int slot = victims[i].getSlot();
+                int age = year - store.getBirthYear(slot);
+                byte attributes = store.getAttributes(slot);
+                double escape = common ?
+                    world.nextDouble(RandomStreams.ESCAPE,
+                        store.getKey(slot)) :
+                    random.nextDouble();
+                if (escape < hazards.get(HazardModel.ESCAPE, id, attributes,
+                        age)) {
+                    if (numEscapees == escapees.length) {
+                        escapees = java.util.Arrays.copyOf(escapees,
+                            2 * numEscapees);
+                    }
+                    escapees[numEscapees++] = i;
+                    continue;
+                }
+                double retire = common ?
+                    world.nextDouble(RandomStreams.RETIREMENT,
+                        store.getKey(slot)) :
+                    random.nextDouble();
+                if (retire < hazards.get(HazardModel.RETIRE, id, attributes,
+                        age)) {
+                    if (numRetirees == retirees.length) {
+                        retirees = java.util.Arrays.copyOf(retirees,
+                            2 * numRetirees);
+                    }
+                    retirees[numRetirees++] = i;
+                }
+            }
+        }
+    }
+
+    // Decides the chunks from one index (inclusive) to another, splitting
+    //   them in half until there is just one.
+    private static class Decide extends RecursiveAction {
+        private HumanTrafficking world;
+        private ArrayList<Chunk> chunks;
+        private int from;
+        private int to;
+
+        Decide(HumanTrafficking world, ArrayList<Chunk> chunks, int from,
+            int to) {
+            this.world = world;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from == 1) {
+                chunks.get(from).decide(world);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Decide(world, chunks, from, middle),
+                new Decide(world, chunks, middle, to));
+        }
+    }
+
+    /**
+     * Step every captive victim at every location.
+     * @param state the HumanTrafficking simulation.
+     */
+    public void step(SimState state) {
+        HumanTrafficking world = (HumanTrafficking) state;
+
+        // (Each location's tables are computed here, since computing them
+        //   needs the simulation's own thread.)
+        HazardModel hazards = world.getHazardModel();
+        long timestep = world.getTimestep();
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+        int numVics = 0;
+        for (int id=0; id<world.getNumLocations(); id++) {
+            Location location = world.getLocation(id);
+            if (location.getNumVics() == 0) {
+                continue;
+            }
+            hazards.getMax(HazardModel.ESCAPE, id);
+            hazards.getMax(HazardModel.RETIRE, id);
+            Victim[] victims = location.getVics().toArray(
+                new Victim[location.getNumVics()]);
+            for (int from=0; from<victims.length; from+=CHUNK_SIZE) {
+                Chunk chunk = new Chunk();
+                chunk.location = location;
+                chunk.victims = victims;
+                chunk.from = from;
+                chunk.to = Math.min(victims.length, from + CHUNK_SIZE);
+                chunk.random = streams.substream(RandomStreams.VICTIM_CHUNK,
+                    ((long) id << 32) + from / CHUNK_SIZE, timestep);
+                chunks.add(chunk);
+            }
+            numVics += victims.length;
+        }
+        if (chunks.isEmpty()) {
+            return;
+        }
+        if (chunks.size() == 1) {
+            chunks.get(0).decide(world);
+        } else {
+            if (pool == null) {
+                pool = new ForkJoinPool(threads);
+            }
+            pool.invoke(new Decide(world, chunks, 0, chunks.size()));
+        }
+
+        // Carry out the decisions, and then drop every location's leavers
+        //   from its victims at once.
+        Location location = null;
+        boolean[] leaving = null;
+        for (Chunk chunk : chunks) {
+            if (chunk.location != location) {
+                if (location != null) {
+                    location.removeVictims(leaving);
+                }
+                location = chunk.location;
+                leaving = new boolean[chunk.victims.length];
+            }
+            for (int k=0; k<chunk.numEscapees; k++) {
+                int i = chunk.escapees[k];
+                chunk.victims[i].escape(location);
+                leaving[i] = true;
+            }
+            for (int k=0; k<chunk.numRetirees; k++) {
+                int i = chunk.retirees[k];
+                chunk.victims[i].retire(location);
+                leaving[i] = true;
+            }
+        }
+        location.removeVictims(leaving);
+        world.log("  Stepped " + numVics + " victims in " + chunks.size() +
+            " chunks");
+    }
+
+    /**
+     * Stop this pass's threads.
+     */
+    void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
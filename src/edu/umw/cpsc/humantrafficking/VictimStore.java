@@ -0,0 +1,164 @@
+package edu.umw.cpsc.humantrafficking;
+
+import java.io.IOException;
+
+/**
+ * Compact storage for the per-victim data of every {@link Victim} in a
+ * simulation: birth year, current location id, status, attributes (see
+ * {@link VictimAttributes}), and key (which names her for common random
+ * numbers, as her reused slot cannot; see {@link RandomStreams#victimKey}).
+ * Each victim occupies one numbered "slot", and the records can be
+ * scanned sequentially by slot without touching any Victim objects
+ * (<i>e.g.</i>, by the {@link StatsPrinter}). When a victim leaves the
+ * simulation for good, her slot is {@link #release}d (keeping its final
+ * status) and given to a later victim, so the store grows with the
+ * number of victims at once, not with the number ever acquired.
+ * <p>
+ * Three backends are available (see {@link #create}): primitive arrays on
+ * the heap, direct (off-heap) memory, and a memory-mapped file. The last
+ * two put no pressure on the garbage collector however many records they
+ * hold.
+ */
+public abstract class VictimStore implements java.io.Serializable {
+
+    /** Status of a victim currently held captive at her location. */
+    public static final byte CAPTIVE = 0;
+
+    /** Status of a victim who has escaped (and may be reacquired). */
+    public static final byte ESCAPED = 1;
+
+    /** Status of a victim set free by an immigration search. */
+    public static final byte FREED = 2;
+
+    /** Status of a victim who has "retired" (been dumped from the system.) */
+    public static final byte RETIRED = 3;
+
+    /**
+     * Status of a victim who has moved to a location simulated by another
+     * process (in a distributed run).
+     */
+    public static final byte EMIGRATED = 4;
+
+    /** The location id recorded for a victim between locations. */
+    public static final int NO_LOCATION = -1;
+
+    /** The number of slots in use or released. */
+    protected int size;
+
+    // The released slots, to be reused last-released first.
+    private int[] freeSlots = new int[16];
+    private int numFree;
+
+    /**
+     * Create a store of the kind described by the string passed:
+     * <ul>
+     * <li><code>heap</code>: primitive arrays on the Java heap.</li>
+     * <li><code>offheap</code>: direct memory, outside the heap.</li>
+     * <li><code>file:</code><i>path</i>: a memory-mapped file at the path
+     * given (which will be created or overwritten).</li>
+     * </ul>
+     * @throws IllegalArgumentException if the description is not one of
+     * these.
+     */
+    public static VictimStore create(String description) throws IOException {
+        if (description.equals("heap")) {
+            return new HeapVictimStore();
+        }
+        if (description.equals("offheap")) {
+            return new OffHeapVictimStore(null);
+        }
+        if (description.startsWith("file:")) {
+            return new OffHeapVictimStore(description.substring(5));
+        }
+        throw new IllegalArgumentException("No such victim store: " +
+            description);
+    }
+
+    /**
+     * Add a record for a new victim, and return its slot: the last one
+     * released, if any, or else a new one.
+     */
+    public int add(int birthYear, int locationId, byte status,
+        byte attributes, long key) {
+        int slot;
+        if (numFree > 0) {
+            slot = freeSlots[--numFree];
+        } else {
+            ensureCapacity(size + 1);
+            slot = size++;
+        }
+        setBirthYear(slot, birthYear);
+        setLocationId(slot, locationId);
+        setStatus(slot, status);
+        setAttributes(slot, attributes);
+        setKey(slot, key);
+        return slot;
+    }
+
+    /**
+     * Return the slot that the next victim {@link #add}ed will be given.
+     */
+    public int nextSlot() {
+        return numFree > 0 ? freeSlots[numFree - 1] : size;
+    }
+
+    /**
+     * Give up the slot passed, whose victim has left the simulation for
+     * good, for reuse. Its record keeps its status (which must not be
+     * {@link #CAPTIVE} or {@link #ESCAPED}) until then.
+     */
+    public void release(int slot) {
+        if (numFree == freeSlots.length) {
+            freeSlots = java.util.Arrays.copyOf(freeSlots, 2 * numFree);
+        }
+        freeSlots[numFree++] = slot;
+    }
+
+    /**
+     * Return the number of slots, in use or released. Slots are numbered
+     * from 0.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the number of slots in use (by victims still in the
+     * simulation).
+     */
+    public int getNumInUse() {
+        return size - numFree;
+    }
+
+    /**
+     * Make room for at least the number of records passed.
+     */
+    protected abstract void ensureCapacity(int capacity);
+
+    public abstract int getBirthYear(int slot);
+
+    public abstract void setBirthYear(int slot, int birthYear);
+
+    public abstract int getLocationId(int slot);
+
+    public abstract void setLocationId(int slot, int locationId);
+
+    public abstract byte getStatus(int slot);
+
+    public abstract void setStatus(int slot, byte status);
+
+    public abstract byte getAttributes(int slot);
+
+    public abstract void setAttributes(int slot, byte attributes);
+
+    public abstract long getKey(int slot);
+
+    public abstract void setKey(int slot, long key);
+
+    /**
+     * Release any resources (memory mappings, files) held by this store.
+     * It may not be used afterwards.
+     */
+    public void close() throws IOException {
+    }
+}